@@ -0,0 +1,290 @@
+// Workloads.java
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * The operations measured by the JMH benchmarks in tetris.bench. JMH refuses
+ * benchmark classes in the default package, and classes in a named package
+ * cannot refer to the game classes, which live in the default package. So the
+ * benchmarks load these workloads by name once, in their setup, and then only
+ * call them through the LongSupplier interface: each getAsLong() performs one
+ * operation and returns a value for the benchmark to consume.
+ *
+ * Boards are "realistic mid-game boards": DefaultBrain plays a seeded game on
+ * a board of the requested size until the stack is half as tall as the
+ * playing height. Sizes are given as "WIDTHxHEIGHT" playing sizes.
+ */
+public class Workloads {
+
+	private static final long SEED = 2024;
+
+	/**
+	 * Returns the named workload on a board of the given size.
+	 */
+	public static LongSupplier create(String name, String size) {
+		int cut = size.indexOf('x');
+		int width = Integer.parseInt(size.substring(0, cut));
+		int height = Integer.parseInt(size.substring(cut + 1));
+
+		if (name.equals("place")) {
+			return place(midGame(width, height), false);
+		} else if (name.equals("placeCommit")) {
+			return place(midGame(width, height), true);
+		} else if (name.equals("copyFrom")) {
+			return copyFrom(midGame(width, height));
+		} else if (name.equals("clearRows")) {
+			return clearRows(width, height);
+		} else if (name.equals("dropHeight")) {
+			return dropHeight(midGame(width, height));
+		} else if (name.equals("dropHeights")) {
+			return dropHeights(midGame(width, height));
+		} else if (name.equals("computeNextRotation")) {
+			return rotation(false);
+		} else if (name.equals("fastRotation")) {
+			return rotation(true);
+		} else if (name.equals("rateBoard")) {
+			return rateBoard(midGame(width, height));
+		} else if (name.equals("rateFeatures")) {
+			return rateFeatures(midGame(width, height));
+		} else if (name.equals("bestMove")) {
+			return bestMove(midGame(width, height), height);
+		}
+		throw new IllegalArgumentException("unknown workload " + name);
+	}
+
+	/**
+	 * Plays DefaultBrain on an empty board until the stack reaches half of the
+	 * playing height, and returns the committed board.
+	 */
+	static Board midGame(int width, int height) {
+		Board board = new Board(width, height + GameEngine.TOP_SPACE);
+		Random random = new Random(SEED);
+		Piece[] pieces = Piece.getPieces();
+		Brain brain = new DefaultBrain();
+		for (int n = 0; n < 10000 && board.getMaxHeight() < height / 2; n++) {
+			Brain.Move move = brain.bestMove(board, pieces[random.nextInt(pieces.length)], height);
+			if (move == null) {
+				break;
+			}
+			if (board.place(move.piece, move.x, move.y) == Board.PLACE_ROW_FILLED) {
+				board.clearRows();
+			}
+			board.commit();
+		}
+		return board;
+	}
+
+	/**
+	 * Lists every drop of every rotation of every piece on the board, as
+	 * {piece index, rotation count, x, y} entries.
+	 */
+	private static List<int[]> drops(Board board) {
+		List<int[]> drops = new ArrayList<int[]>();
+		Piece[] pieces = Piece.getPieces();
+		for (int i = 0; i < pieces.length; i++) {
+			Piece p = pieces[i];
+			int r = 0;
+			do {
+				for (int x = 0; x + p.getWidth() <= board.getWidth(); x++) {
+					drops.add(new int[] { i, r, x, board.dropHeight(p, x) });
+				}
+				p = p.fastRotation();
+				r++;
+			} while (p != pieces[i]);
+		}
+		return drops;
+	}
+
+	private static Piece rotated(int[] drop) {
+		Piece p = Piece.getPieces()[drop[0]];
+		for (int r = 0; r < drop[1]; r++) {
+			p = p.fastRotation();
+		}
+		return p;
+	}
+
+	/**
+	 * Places each drop in turn and undoes it, or, with commit, places it on a
+	 * fresh copy of the board and commits it.
+	 */
+	private static LongSupplier place(final Board board, final boolean commit) {
+		List<int[]> drops = drops(board);
+		final Piece[] pieces = new Piece[drops.size()];
+		final int[] xs = new int[drops.size()];
+		final int[] ys = new int[drops.size()];
+		for (int i = 0; i < pieces.length; i++) {
+			pieces[i] = rotated(drops.get(i));
+			xs[i] = drops.get(i)[2];
+			ys[i] = drops.get(i)[3];
+		}
+		final Board scratch = new Board(board.getWidth(), board.getHeight());
+		scratch.copyFrom(board);
+		return new LongSupplier() {
+			private int next;
+
+			public long getAsLong() {
+				int i = next;
+				next = (i + 1 == pieces.length) ? 0 : i + 1;
+				if (commit) {
+					scratch.copyFrom(board);
+					int result = scratch.place(pieces[i], xs[i], ys[i]);
+					scratch.commit();
+					return result;
+				}
+				int result = scratch.place(pieces[i], xs[i], ys[i]);
+				scratch.undo();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Copies the board into another board, the baseline of placeCommit.
+	 */
+	private static LongSupplier copyFrom(final Board board) {
+		final Board scratch = new Board(board.getWidth(), board.getHeight());
+		return new LongSupplier() {
+			public long getAsLong() {
+				scratch.copyFrom(board);
+				return scratch.getMaxHeight();
+			}
+		};
+	}
+
+	/**
+	 * Drops a vertical stick into a well that completes the 4 bottom rows of a
+	 * half full board, clears them, and undoes it all.
+	 */
+	private static LongSupplier clearRows(int width, int height) {
+		final Board board = new Board(width, height + GameEngine.TOP_SPACE);
+		Random random = new Random(SEED);
+		final int well = width / 2;
+		for (int y = 0; y < height / 2; y++) {
+			for (int x = 0; x < width; x++) {
+				// a row above the bottom 4 is never full
+				board.getGrid()[x][y] = (y < 4) ? x != well : (x != y % width && random.nextInt(10) < 7);
+			}
+		}
+		board.updateWidthsHeights();
+		final Piece stick = Piece.getPieces()[0];
+		return new LongSupplier() {
+			public long getAsLong() {
+				board.place(stick, well, 0);
+				int cleared = board.clearRows();
+				board.undo();
+				return cleared;
+			}
+		};
+	}
+
+	/**
+	 * One dropHeight() per call, cycling through every rotation and x.
+	 */
+	private static LongSupplier dropHeight(final Board board) {
+		List<int[]> drops = drops(board);
+		final Piece[] pieces = new Piece[drops.size()];
+		final int[] xs = new int[drops.size()];
+		for (int i = 0; i < pieces.length; i++) {
+			pieces[i] = rotated(drops.get(i));
+			xs[i] = drops.get(i)[2];
+		}
+		return new LongSupplier() {
+			private int next;
+
+			public long getAsLong() {
+				int i = next;
+				next = (i + 1 == pieces.length) ? 0 : i + 1;
+				return board.dropHeight(pieces[i], xs[i]);
+			}
+		};
+	}
+
+	/**
+	 * One dropHeights() per call -- every x of a rotation -- cycling through
+	 * every rotation.
+	 */
+	private static LongSupplier dropHeights(final Board board) {
+		final Piece[] rotations = allRotations();
+		final int[] result = new int[board.getWidth()];
+		return new LongSupplier() {
+			private int next;
+
+			public long getAsLong() {
+				int i = next;
+				next = (i + 1 == rotations.length) ? 0 : i + 1;
+				return board.dropHeights(rotations[i], result) + result[0];
+			}
+		};
+	}
+
+	/**
+	 * One rotation per call, cycling through every rotation.
+	 */
+	private static LongSupplier rotation(final boolean fast) {
+		final Piece[] rotations = allRotations();
+		return new LongSupplier() {
+			private int next;
+
+			public long getAsLong() {
+				int i = next;
+				next = (i + 1 == rotations.length) ? 0 : i + 1;
+				Piece rotated = fast ? rotations[i].fastRotation() : rotations[i].computeNextRotation();
+				return rotated.getWidth();
+			}
+		};
+	}
+
+	private static LongSupplier rateBoard(final Board board) {
+		final DefaultBrain brain = new DefaultBrain();
+		return new LongSupplier() {
+			public long getAsLong() {
+				return (long) brain.rateBoard(board);
+			}
+		};
+	}
+
+	/**
+	 * All the FeatureEvaluator features in one call, with the Dellacherie
+	 * weights.
+	 */
+	private static LongSupplier rateFeatures(final Board board) {
+		final FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.dellacherieWeights());
+		return new LongSupplier() {
+			public long getAsLong() {
+				return (long) evaluator.rate(board);
+			}
+		};
+	}
+
+	/**
+	 * One full bestMove() per call, cycling through the 7 pieces.
+	 */
+	private static LongSupplier bestMove(final Board board, final int height) {
+		final DefaultBrain brain = new DefaultBrain();
+		final Piece[] pieces = Piece.getPieces();
+		return new LongSupplier() {
+			private int next;
+
+			public long getAsLong() {
+				int i = next;
+				next = (i + 1 == pieces.length) ? 0 : i + 1;
+				Brain.Move move = brain.bestMove(board, pieces[i], height);
+				return move == null ? -1 : move.x;
+			}
+		};
+	}
+
+	private static Piece[] allRotations() {
+		List<Piece> rotations = new ArrayList<Piece>();
+		for (Piece root : Piece.getPieces()) {
+			Piece p = root;
+			do {
+				rotations.add(p);
+				p = p.fastRotation();
+			} while (p != root);
+		}
+		return rotations.toArray(new Piece[rotations.size()]);
+	}
+}
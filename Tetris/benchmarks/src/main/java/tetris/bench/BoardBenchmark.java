@@ -0,0 +1,81 @@
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Board operations on mid-game boards of several sizes: place() then undo(),
+ * place() then commit() (on a fresh copyFrom(), measured alone as well),
+ * clearRows() of 4 rows under a half full board, and dropHeight() /
+ * dropHeights().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+	@Param({ "10x20", "20x40", "40x60" })
+	public String size;
+
+	private LongSupplier place;
+	private LongSupplier placeCommit;
+	private LongSupplier copyFrom;
+	private LongSupplier clearRows;
+	private LongSupplier dropHeight;
+	private LongSupplier dropHeights;
+
+	@Setup
+	public void setup() {
+		place = Workload.load("place", size);
+		placeCommit = Workload.load("placeCommit", size);
+		copyFrom = Workload.load("copyFrom", size);
+		clearRows = Workload.load("clearRows", size);
+		dropHeight = Workload.load("dropHeight", size);
+		dropHeights = Workload.load("dropHeights", size);
+	}
+
+	@Benchmark
+	public long placeUndo() {
+		return place.getAsLong();
+	}
+
+	@Benchmark
+	public long placeCommit() {
+		return placeCommit.getAsLong();
+	}
+
+	@Benchmark
+	public long copyFrom() {
+		return copyFrom.getAsLong();
+	}
+
+	@Benchmark
+	public long clearRowsUndo() {
+		return clearRows.getAsLong();
+	}
+
+	@Benchmark
+	public long dropHeight() {
+		return dropHeight.getAsLong();
+	}
+
+	@Benchmark
+	public long dropHeights() {
+		return dropHeights.getAsLong();
+	}
+}
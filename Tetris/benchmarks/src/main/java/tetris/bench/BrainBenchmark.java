@@ -0,0 +1,59 @@
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DefaultBrain on mid-game boards of several sizes: rateBoard() alone, the
+ * FeatureEvaluator features alone, and a full bestMove() cycling through the
+ * 7 pieces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrainBenchmark {
+
+	@Param({ "10x20", "20x40", "40x60" })
+	public String size;
+
+	private LongSupplier rateBoard;
+	private LongSupplier rateFeatures;
+	private LongSupplier bestMove;
+
+	@Setup
+	public void setup() {
+		rateBoard = Workload.load("rateBoard", size);
+		rateFeatures = Workload.load("rateFeatures", size);
+		bestMove = Workload.load("bestMove", size);
+	}
+
+	@Benchmark
+	public long rateBoard() {
+		return rateBoard.getAsLong();
+	}
+
+	@Benchmark
+	public long rateFeatures() {
+		return rateFeatures.getAsLong();
+	}
+
+	@Benchmark
+	public long bestMove() {
+		return bestMove.getAsLong();
+	}
+}
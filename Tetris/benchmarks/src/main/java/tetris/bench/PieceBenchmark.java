@@ -0,0 +1,47 @@
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Piece rotation: computeNextRotation() against the precomputed
+ * fastRotation(), cycling through every rotation of the 7 pieces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+
+	private LongSupplier computeNextRotation;
+	private LongSupplier fastRotation;
+
+	@Setup
+	public void setup() {
+		computeNextRotation = Workload.load("computeNextRotation", "10x20");
+		fastRotation = Workload.load("fastRotation", "10x20");
+	}
+
+	@Benchmark
+	public long computeNextRotation() {
+		return computeNextRotation.getAsLong();
+	}
+
+	@Benchmark
+	public long fastRotation() {
+		return fastRotation.getAsLong();
+	}
+}
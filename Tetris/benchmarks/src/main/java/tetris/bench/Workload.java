@@ -0,0 +1,22 @@
+package tetris.bench;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Loads the workloads of the default package Workloads class by name. See
+ * Workloads for why the benchmarks cannot call the game classes directly.
+ */
+final class Workload {
+
+	private Workload() {
+	}
+
+	static LongSupplier load(String name, String size) {
+		try {
+			return (LongSupplier) Class.forName("Workloads").getMethod("create", String.class, String.class)
+					.invoke(null, name, size);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("cannot load workload " + name, e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+// Adversary.java
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Picks the piece worst for the player: for each of the 7 pieces, the best
+ * score the player's brain can get by playing it on the board, and then the
+ * piece whose best score is the highest -- or a piece that cannot be played
+ * at all, which ends the game. Ties go to the first piece of
+ * Piece.getPieces().
+ *
+ * The 7 pieces are rated on the common fork-join pool, each on a snapshot of
+ * the board, and the scores are cached in a TranspositionTable by the hash of
+ * the board and the piece, so a board seen again, or a piece rated for an
+ * earlier pick, costs a probe. The player's brain must then be safe to call
+ * from several threads, as DefaultBrain is, and must rate a board the same
+ * way every time for the cache to be right.
+ */
+public class Adversary {
+
+	private final DefaultBrain player;
+	private final TranspositionTable cache;
+	private boolean parallel = true;
+
+	/**
+	 * Creates an adversary of the given brain, caching up to 65536 scores.
+	 */
+	public Adversary(DefaultBrain player) {
+		this(player, 1 << 16);
+	}
+
+	public Adversary(DefaultBrain player, int cacheCapacity) {
+		this.player = player;
+		this.cache = new TranspositionTable(cacheCapacity);
+	}
+
+	/**
+	 * Turns the parallel rating of the 7 pieces on or off. It is on by
+	 * default.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public TranspositionTable getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Returns the piece the player would do worst with on the committed board,
+	 * as one of the roots of Piece.getPieces().
+	 */
+	public Piece worstPiece(Board board, int limitHeight) {
+		Piece[] pieces = Piece.getPieces();
+		double[] scores = rate(board, pieces, limitHeight);
+		int worst = 0;
+		for (int i = 1; i < pieces.length; i++) {
+			if (scores[i] > scores[worst]) {
+				worst = i;
+			}
+		}
+		return pieces[worst];
+	}
+
+	/**
+	 * Returns, for each of the given pieces, the score of the best play of the
+	 * player on the committed board, or an infinite score for a piece that
+	 * cannot be played.
+	 */
+	public double[] rate(Board board, Piece[] pieces, int limitHeight) {
+		double[] scores = new double[pieces.length];
+		long[] keys = new long[pieces.length];
+		int missing = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			keys[i] = key(board, pieces[i], limitHeight);
+			scores[i] = this.cache.probe(keys[i], 0);
+			if (Double.isNaN(scores[i])) {
+				missing++;
+			}
+		}
+
+		if (this.parallel && missing > 1) {
+			new RateTask(board, pieces, limitHeight, scores, 0, pieces.length).invoke();
+		} else {
+			for (int i = 0; i < pieces.length; i++) {
+				if (Double.isNaN(scores[i])) {
+					scores[i] = bestScore(board, pieces[i], limitHeight);
+				}
+			}
+		}
+
+		for (int i = 0; i < pieces.length; i++) {
+			this.cache.store(keys[i], 0, scores[i]);
+		}
+		return scores;
+	}
+
+	// the board and piece, as LookaheadBrain hashes them, and the height limit
+	private static long key(Board board, Piece piece, int limitHeight) {
+		return LookaheadBrain.positionKey(board, piece) ^ Board.zobristKey(0, 2 * board.getHeight() + limitHeight);
+	}
+
+	// the player's best score with the piece, on a board of its own
+	private double bestScore(Board board, Piece piece, int limitHeight) {
+		Brain.Move move = this.player.bestMove(board.copy(), piece, limitHeight);
+		return (move == null) ? Double.POSITIVE_INFINITY : move.score;
+	}
+
+	/**
+	 * Rates the pieces [from, to) that are not cached yet, one task per piece.
+	 */
+	private class RateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Board board;
+		private final Piece[] pieces;
+		private final int limitHeight;
+		private final double[] scores;
+		private final int from;
+		private final int to;
+
+		RateTask(Board board, Piece[] pieces, int limitHeight, double[] scores, int from, int to) {
+			this.board = board;
+			this.pieces = pieces;
+			this.limitHeight = limitHeight;
+			this.scores = scores;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RateTask(board, pieces, limitHeight, scores, from, middle),
+						new RateTask(board, pieces, limitHeight, scores, middle, to));
+			} else if (Double.isNaN(scores[from])) {
+				scores[from] = bestScore(board, pieces[from], limitHeight);
+			}
+		}
+	}
+}
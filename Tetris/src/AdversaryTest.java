@@ -0,0 +1,66 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AdversaryTest {
+
+	@Test
+	public void testWorstPiece() {
+		DefaultBrain player = new DefaultBrain();
+		Adversary adversary = new Adversary(player);
+		Adversary sequential = new Adversary(player);
+		sequential.setParallel(false);
+		Piece[] pieces = Piece.getPieces();
+		Random random = new Random(1);
+		for (int n = 0; n < 20; n++) {
+			Board b = new Board(10, 24);
+			for (int x = 0; x < 10; x++) {
+				for (int y = random.nextInt(8); y >= 0; y--) {
+					b.getGrid()[x][y] = random.nextInt(3) > 0;
+				}
+			}
+			b.updateWidthsHeights();
+			String before = b.toString();
+
+			// the piece with the highest best score
+			int worst = 0;
+			double worstScore = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < pieces.length; i++) {
+				double score = player.bestMove(b, pieces[i], 20).score;
+				if (score > worstScore) {
+					worstScore = score;
+					worst = i;
+				}
+			}
+			assertSame(pieces[worst], adversary.worstPiece(b, 20));
+			assertSame(pieces[worst], sequential.worstPiece(b, 20));
+			assertEquals(before, b.toString());
+		}
+
+		// a board seen again is rated from the cache
+		long hits = adversary.getCache().getHits();
+		Board b = new Board(10, 24);
+		adversary.worstPiece(b, 20);
+		adversary.worstPiece(b, 20);
+		assertEquals(hits + pieces.length, adversary.getCache().getHits());
+	}
+
+	@Test
+	public void testUnplayable() {
+		// only the stick fits down the well of column 2 under the limit of 4
+		Board b = new Board(4, 12);
+		for (int y = 0; y < 5; y++) {
+			b.getGrid()[0][y] = b.getGrid()[1][y] = b.getGrid()[3][y] = true;
+		}
+		b.updateWidthsHeights();
+		Piece[] pieces = Piece.getPieces();
+		double[] scores = new Adversary(new DefaultBrain()).rate(b, pieces, 4);
+		assertTrue(scores[0] < Double.POSITIVE_INFINITY);
+		for (int i = 1; i < pieces.length; i++) {
+			assertEquals(Double.POSITIVE_INFINITY, scores[i], 0);
+		}
+		assertSame(pieces[1], new Adversary(new DefaultBrain()).worstPiece(b, 4));
+	}
+}
@@ -0,0 +1,134 @@
+// AnytimeBrain.java
+
+/**
+ * A brain for hard time limits: bestMove() deepens its search one preview
+ * piece at a time until a deadline, and answers with the move of the deepest
+ * search it finished. Depth 1 is the greedy DefaultBrain move, which is always
+ * searched to the end, so there is a move to answer with however short the
+ * time; depth d plays the current piece and the first d - 1 preview pieces,
+ * expanding the top-K plays of each piece like LookaheadBrain does.
+ *
+ * A search that runs out of time is dropped rather than half used, since its
+ * lines do not all reach the same depth. With a TranspositionTable, the later
+ * iterations find the ratings of the earlier ones in the table.
+ *
+ * The time budget set by setTimeBudget() gives the deadline of the
+ * PreviewBrain version of bestMove(), 0 meaning no deadline: the search then
+ * goes as deep as the preview. Callers that know when their answer is due
+ * can give the deadline directly instead.
+ */
+public class AnytimeBrain extends LookaheadBrain {
+
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private volatile int lastDepth;
+
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight) {
+		long budget = getTimeBudget();
+		return bestMove(board, piece, preview, limitHeight, budget > 0 ? System.nanoTime() + budget : NO_DEADLINE);
+	}
+
+	/**
+	 * Same as the PreviewBrain bestMove(), but returns by the given deadline,
+	 * a System.nanoTime() value, give or take the time to rate the plays of
+	 * one piece. Past the deadline, returns the greedy move.
+	 */
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, long deadline) {
+		Brain.Move best = bestMove(board, piece, limitHeight);
+		this.lastDepth = 1;
+		if (best == null || preview == null || preview.length == 0) {
+			return best;
+		}
+
+		Board[] boards = new Board[preview.length + 1];
+		for (int i = 0; i < boards.length; i++) {
+			boards[i] = new Board(board.getWidth(), board.getHeight());
+		}
+		boards[0].copyFrom(board);
+
+		for (int depth = 2; depth <= preview.length + 1; depth++) {
+			Brain.Move move = new Brain.Move();
+			double score = search(boards, 0, piece, preview, depth, limitHeight, deadline, move);
+			if (Double.isNaN(score) || move.piece == null) {
+				break; // out of time
+			}
+			best = move;
+			this.lastDepth = depth;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the number of pieces the move returned by the last bestMove()
+	 * looked at: 1 for the greedy move, up to 1 + the preview length.
+	 */
+	public int getLastDepth() {
+		return this.lastDepth;
+	}
+
+	/**
+	 * Returns the best score reachable by playing the piece on boards[ply] and
+	 * then the next depth - 1 preview pieces, keeping the top-K plays of each
+	 * but the last piece. Fills in move with the play of the piece that leads
+	 * to that score, when move is not null. Returns NaN once the deadline has
+	 * passed. boards[ply + 1] and up are scratch space.
+	 */
+	private double search(Board[] boards, int ply, Piece piece, Piece[] preview, int depth, int limitHeight,
+			long deadline, Brain.Move move) {
+		if (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+			return Double.NaN;
+		}
+		Board board = boards[ply];
+		int count = countPlays(board, piece);
+		Piece[] pieces = new Piece[count];
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		if (depth == 1) {
+			return bestReply(board, piece, limitHeight, pieces, xs, ys);
+		}
+
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+		double[] scores = new double[n];
+		for (int i = 0; i < n; i++) {
+			scores[i] = ratePlay(board, pieces[i], xs[i], ys[i]);
+		}
+		int[] kept = new int[Math.min(getTopK(), n)];
+		int size = keepBest(scores, n, kept);
+
+		double bestScore = Double.POSITIVE_INFINITY;
+		int best = -1;
+		Board child = boards[ply + 1];
+		for (int j = 0; j < size; j++) {
+			int i = kept[j];
+			child.copyFrom(board);
+			if (child.place(pieces[i], xs[i], ys[i]) == Board.PLACE_ROW_FILLED) {
+				child.clearRows();
+			}
+			int cleared = child.getRowsCleared();
+			child.commit();
+
+			double score = search(boards, ply + 1, preview[ply], preview, depth - 1, limitHeight, deadline, null);
+			if (Double.isNaN(score)) {
+				return score;
+			}
+			score += rateCleared(cleared);
+			if (score < bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+
+		if (move != null && size > 0) {
+			// no kept play leaves room for the next pieces: the best single one
+			if (best < 0) {
+				best = kept[0];
+				bestScore = scores[best];
+			}
+			move.x = xs[best];
+			move.y = ys[best];
+			move.piece = pieces[best];
+			move.score = bestScore;
+		}
+		return bestScore;
+	}
+}
@@ -0,0 +1,243 @@
+// BatchSimulator.java
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Plays many independent headless games of a brain across all the cores and
+ * reports how well and how fast it played. Each worker thread owns its own
+ * GameEngine (and so its own Board) and its own Brain, and each game draws its
+ * pieces from a Random seeded with its own seed. Results are stored by game
+ * index, so a given seed set gives the same results whatever the number of
+ * threads.
+ *
+ * <pre>
+ * BatchSimulator sim = new BatchSimulator(10, 20, 1000, 8);
+ * BatchSimulator.Result result = sim.run(DefaultBrain::new, BatchSimulator.seeds(42, 10000));
+ * System.out.println(result);
+ * </pre>
+ */
+public class BatchSimulator {
+
+	private final int width;
+	private final int height;
+	private final int pieceLimit;
+	private final int threads;
+	private int previewLength;
+
+	/**
+	 * Creates a simulator for boards of the given width and playing height.
+	 * Games stop after pieceLimit pieces (0 for no limit, which may never end
+	 * for a good brain) and are spread over the given number of threads.
+	 */
+	public BatchSimulator(int width, int height, int pieceLimit, int threads) {
+		this.width = width;
+		this.height = height;
+		this.pieceLimit = pieceLimit;
+		this.threads = threads;
+	}
+
+	/**
+	 * Same as above, with one thread per available processor.
+	 */
+	public BatchSimulator(int width, int height, int pieceLimit) {
+		this(width, height, pieceLimit, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the number of threads games are spread over.
+	 */
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * Sets how many next pieces the engines show to brains that implement
+	 * PreviewBrain. 0 by default.
+	 */
+	public void setPreviewLength(int previewLength) {
+		this.previewLength = previewLength;
+	}
+
+	/**
+	 * Returns n game seeds derived from the given base seed.
+	 */
+	public static long[] seeds(long base, int n) {
+		SplittableRandom random = new SplittableRandom(base);
+		long[] seeds = new long[n];
+		for (int i = 0; i < n; i++) {
+			seeds[i] = random.nextLong();
+		}
+		return seeds;
+	}
+
+	/**
+	 * Plays one game per seed, with brains obtained from the given factory --
+	 * one per worker thread, so brains that keep state need not be thread
+	 * safe.
+	 */
+	public Result run(Supplier<? extends Brain> brains, long[] seeds) {
+		return run(brains, null, seeds);
+	}
+
+	/**
+	 * Plays one game per seed, game i with the brain brains.apply(i), made on
+	 * the worker thread that plays it -- for batches where games use
+	 * different brains, such as the candidates of a WeightTuner generation.
+	 */
+	public Result runPerGame(IntFunction<? extends Brain> brains, long[] seeds) {
+		return run(null, brains, seeds);
+	}
+
+	private Result run(final Supplier<? extends Brain> shared, final IntFunction<? extends Brain> perGame,
+			final long[] seeds) {
+		final Result result = new Result(seeds.length);
+		final AtomicInteger next = new AtomicInteger();
+		int workers = Math.max(1, Math.min(this.threads, seeds.length));
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			Future<?>[] futures = new Future<?>[workers];
+			for (int w = 0; w < workers; w++) {
+				futures[w] = pool.submit(new Runnable() {
+					public void run() {
+						GameEngine engine = new GameEngine(width, height);
+						engine.setPieceLimit(pieceLimit);
+						engine.setPreviewLength(previewLength);
+						Brain brain = (shared != null) ? shared.get() : null;
+						int i;
+						while ((i = next.getAndIncrement()) < seeds.length) {
+							play(engine, (perGame != null) ? perGame.apply(i) : brain, seeds[i]);
+							result.pieces[i] = engine.getPlaced();
+							result.lines[i] = engine.getLines();
+							result.scores[i] = engine.getScore();
+						}
+					}
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("simulation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("simulation failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Plays a whole game on the given engine with the given seed.
+	 */
+	protected void play(GameEngine engine, Brain brain, long seed) {
+		engine.startGame(seed);
+		while (engine.dropWithBrain(brain)) {
+		}
+	}
+
+	/**
+	 * The outcome of a batch: per game pieces placed, lines cleared and score,
+	 * indexed like the seeds, plus the wall clock time of the whole batch.
+	 */
+	public static class Result {
+		public final int[] pieces;
+		public final int[] lines;
+		public final int[] scores;
+		public long elapsedNanos;
+
+		public Result(int games) {
+			this.pieces = new int[games];
+			this.lines = new int[games];
+			this.scores = new int[games];
+		}
+
+		public int getGames() {
+			return this.scores.length;
+		}
+
+		public long getTotalPieces() {
+			return sum(this.pieces);
+		}
+
+		public long getTotalLines() {
+			return sum(this.lines);
+		}
+
+		public double getMeanScore() {
+			return this.scores.length == 0 ? 0 : (double) sum(this.scores) / this.scores.length;
+		}
+
+		/**
+		 * Returns the score below which the given fraction of the games fall,
+		 * e.g. 0.5 for the median.
+		 */
+		public int getScorePercentile(double fraction) {
+			if (this.scores.length == 0) {
+				return 0;
+			}
+			int[] sorted = this.scores.clone();
+			Arrays.sort(sorted);
+			int index = (int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length));
+			return sorted[index];
+		}
+
+		public double getGamesPerSecond() {
+			return this.scores.length / seconds();
+		}
+
+		public double getPlacementsPerSecond() {
+			return getTotalPieces() / seconds();
+		}
+
+		private double seconds() {
+			return Math.max(this.elapsedNanos, 1) / 1e9;
+		}
+
+		private static long sum(int[] values) {
+			long total = 0;
+			for (int v : values) {
+				total += v;
+			}
+			return total;
+		}
+
+		public String toString() {
+			return String.format("%d games, %d pieces, %d lines%n"
+					+ "score: mean %.1f, min %d, p10 %d, median %d, p90 %d, max %d%n"
+					+ "%.3f s, %.1f games/s, %.0f placements/s",
+					getGames(), getTotalPieces(), getTotalLines(), getMeanScore(), getScorePercentile(0),
+					getScorePercentile(0.1), getScorePercentile(0.5), getScorePercentile(0.9),
+					getScorePercentile(1), seconds(), getGamesPerSecond(), getPlacementsPerSecond());
+		}
+	}
+
+	/**
+	 * Runs DefaultBrain over a batch of games and prints the report.
+	 * Arguments: [games] [threads] [seed] [pieceLimit]
+	 */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int pieceLimit = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+		BatchSimulator sim = new BatchSimulator(JTetris.WIDTH, JTetris.HEIGHT, pieceLimit, threads);
+		Result result = sim.run(new Supplier<Brain>() {
+			public Brain get() {
+				return new DefaultBrain();
+			}
+		}, seeds(seed, games));
+		System.out.println(result);
+	}
+}
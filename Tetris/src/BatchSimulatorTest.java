@@ -0,0 +1,27 @@
+import static org.junit.Assert.*;
+
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class BatchSimulatorTest {
+
+	@Test
+	public void testSameResultsWhateverTheThreads() {
+		Supplier<Brain> brains = new Supplier<Brain>() {
+			public Brain get() {
+				return new DefaultBrain();
+			}
+		};
+		long[] seeds = BatchSimulator.seeds(3, 12);
+
+		BatchSimulator.Result one = new BatchSimulator(10, 20, 150, 1).run(brains, seeds);
+		BatchSimulator.Result four = new BatchSimulator(10, 20, 150, 4).run(brains, seeds);
+
+		assertEquals(12, one.getGames());
+		assertArrayEquals(one.pieces, four.pieces);
+		assertArrayEquals(one.lines, four.lines);
+		assertArrayEquals(one.scores, four.scores);
+		assertTrue(one.getTotalLines() > 0);
+	}
+}
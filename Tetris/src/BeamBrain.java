@@ -0,0 +1,243 @@
+// BeamBrain.java
+
+/**
+ * A beam search brain: plays the current piece and then the preview pieces
+ * one ply at a time, keeping only the W best boards of each ply, as rated by
+ * rateBoard(), to expand at the next. The move is the play of the current
+ * piece the best board of the last ply started from. Unlike LookaheadBrain,
+ * which expands the top-K plays of the current piece only, the beam keeps the
+ * best lines of any ply, so the search can go D pieces deep for W * D
+ * expansions rather than K to the power D.
+ *
+ * The search goes min(D, 1 + preview length) pieces deep; without a preview,
+ * or with a depth of 1, it is the greedy DefaultBrain search. When a ply has no
+ * play at all on any board of the beam, the best line of the previous ply is
+ * played.
+ *
+ * The boards of the beam are snapshots taken from a BoardPool, and the
+ * candidate lists are arrays kept from one move to the next, so that once
+ * the beam has been full the search allocates nothing but the returned move.
+ * A BeamBrain is thus for one thread at a time, like the BatchSimulator gives
+ * each worker its own brain.
+ */
+public class BeamBrain extends DefaultBrain implements PreviewBrain {
+
+	private int beamWidth = 8;
+	private int depth = 3;
+
+	private BoardPool pool;
+
+	// the beam, best board first, and the root play each board comes from
+	private Board[] beam = new Board[0];
+	private Piece[] beamPiece = new Piece[0];
+	private int[] beamX = new int[0];
+	private int[] beamY = new int[0];
+	private Board[] nextBeam = new Board[0];
+	private Piece[] nextPiece = new Piece[0];
+	private int[] nextX = new int[0];
+	private int[] nextY = new int[0];
+	private int[] kept = new int[0];
+
+	// the plays of one piece on one board of the beam
+	private Piece[] playPieces = new Piece[0];
+	private int[] playXs = new int[0];
+	private int[] playYs = new int[0];
+	private int[] drops = new int[0];
+
+	// the rated plays of a whole ply
+	private int[] candParent = new int[0];
+	private Piece[] candPiece = new Piece[0];
+	private int[] candX = new int[0];
+	private int[] candY = new int[0];
+	private double[] candScore = new double[0];
+
+	/**
+	 * Sets W, the number of boards kept at each ply. 8 by default.
+	 */
+	public void setBeamWidth(int beamWidth) {
+		if (beamWidth < 1) {
+			throw new IllegalArgumentException("beam width must be at least 1");
+		}
+		this.beamWidth = beamWidth;
+	}
+
+	public int getBeamWidth() {
+		return this.beamWidth;
+	}
+
+	/**
+	 * Sets D, the number of pieces searched when the preview holds enough.
+	 * 3 by default: the current piece and 2 preview pieces.
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth must be at least 1");
+		}
+		this.depth = depth;
+	}
+
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Returns the pool the beam boards come from, or null before the first
+	 * search.
+	 */
+	public BoardPool getPool() {
+		return this.pool;
+	}
+
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+		return bestMove(board, piece, null, limitHeight);
+	}
+
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight) {
+		int plies = Math.min(this.depth, 1 + (preview == null ? 0 : preview.length));
+		prepare(board);
+
+		this.beam[0] = this.pool.acquire(board);
+		int size = 1;
+		double bestScore = 0;
+		for (int ply = 0; ply < plies; ply++) {
+			Piece current = (ply == 0) ? piece : preview[ply - 1];
+
+			// rate every play of the piece on every board of the beam
+			int n = 0;
+			for (int b = 0; b < size; b++) {
+				Board parent = this.beam[b];
+				int count = countPlays(parent, current);
+				reservePlays(count);
+				reserveCandidates(n + count);
+				int m = listPlays(parent, current, limitHeight, this.playPieces, this.playXs, this.playYs,
+						this.drops);
+				for (int i = 0; i < m; i++) {
+					int result = parent.place(this.playPieces[i], this.playXs[i], this.playYs[i]);
+					if (result <= Board.PLACE_ROW_FILLED) {
+						if (result == Board.PLACE_ROW_FILLED) {
+							parent.clearRows();
+						}
+						this.candParent[n] = b;
+						this.candPiece[n] = this.playPieces[i];
+						this.candX[n] = this.playXs[i];
+						this.candY[n] = this.playYs[i];
+						this.candScore[n] = cachedRateBoard(parent);
+						n++;
+					}
+					parent.undo();
+				}
+			}
+
+			int keptCount = LookaheadBrain.keepBest(this.candScore, n, this.kept);
+			if (keptCount == 0) {
+				if (ply == 0) {
+					this.pool.release(this.beam[0]);
+					this.beam[0] = null;
+					return null; // could not find a play at all!
+				}
+				break; // the previous ply stands
+			}
+
+			// the next beam: a snapshot of each kept line
+			for (int j = 0; j < keptCount; j++) {
+				int c = this.kept[j];
+				int b = this.candParent[c];
+				Board next = this.pool.acquire(this.beam[b]);
+				if (next.place(this.candPiece[c], this.candX[c], this.candY[c]) == Board.PLACE_ROW_FILLED) {
+					next.clearRows();
+				}
+				next.commit();
+				this.nextBeam[j] = next;
+				this.nextPiece[j] = (ply == 0) ? this.candPiece[c] : this.beamPiece[b];
+				this.nextX[j] = (ply == 0) ? this.candX[c] : this.beamX[b];
+				this.nextY[j] = (ply == 0) ? this.candY[c] : this.beamY[b];
+			}
+			for (int b = 0; b < size; b++) {
+				this.pool.release(this.beam[b]);
+				this.beam[b] = null;
+			}
+			swap();
+			size = keptCount;
+			bestScore = this.candScore[this.kept[0]];
+		}
+
+		Brain.Move move = new Brain.Move();
+		move.x = this.beamX[0];
+		move.y = this.beamY[0];
+		move.piece = this.beamPiece[0];
+		move.score = bestScore;
+		for (int b = 0; b < size; b++) {
+			this.pool.release(this.beam[b]);
+			this.beam[b] = null;
+		}
+		return move;
+	}
+
+	/**
+	 * Makes the pool and beam arrays fit the board and the beam width.
+	 */
+	private void prepare(Board board) {
+		if (this.pool == null || this.pool.getWidth() != board.getWidth()
+				|| this.pool.getHeight() != board.getHeight()) {
+			this.pool = new BoardPool(board.getWidth(), board.getHeight());
+			this.drops = new int[board.getWidth()];
+		}
+		if (this.kept.length != this.beamWidth) {
+			int w = this.beamWidth;
+			this.beam = new Board[w];
+			this.beamPiece = new Piece[w];
+			this.beamX = new int[w];
+			this.beamY = new int[w];
+			this.nextBeam = new Board[w];
+			this.nextPiece = new Piece[w];
+			this.nextX = new int[w];
+			this.nextY = new int[w];
+			this.kept = new int[w];
+		}
+	}
+
+	private void swap() {
+		Board[] boards = this.beam;
+		this.beam = this.nextBeam;
+		this.nextBeam = boards;
+		Piece[] pieces = this.beamPiece;
+		this.beamPiece = this.nextPiece;
+		this.nextPiece = pieces;
+		int[] xs = this.beamX;
+		this.beamX = this.nextX;
+		this.nextX = xs;
+		int[] ys = this.beamY;
+		this.beamY = this.nextY;
+		this.nextY = ys;
+	}
+
+	private void reservePlays(int count) {
+		if (this.playXs.length < count) {
+			this.playPieces = new Piece[count];
+			this.playXs = new int[count];
+			this.playYs = new int[count];
+		}
+	}
+
+	// makes room for count candidates, keeping the first ones
+	private void reserveCandidates(int count) {
+		if (this.candX.length < count) {
+			int capacity = Math.max(count, 2 * this.candX.length);
+			int[] parent = new int[capacity];
+			Piece[] piece = new Piece[capacity];
+			int[] x = new int[capacity];
+			int[] y = new int[capacity];
+			double[] score = new double[capacity];
+			System.arraycopy(this.candParent, 0, parent, 0, this.candParent.length);
+			System.arraycopy(this.candPiece, 0, piece, 0, this.candPiece.length);
+			System.arraycopy(this.candX, 0, x, 0, this.candX.length);
+			System.arraycopy(this.candY, 0, y, 0, this.candY.length);
+			System.arraycopy(this.candScore, 0, score, 0, this.candScore.length);
+			this.candParent = parent;
+			this.candPiece = piece;
+			this.candX = x;
+			this.candY = y;
+			this.candScore = score;
+		}
+	}
+}
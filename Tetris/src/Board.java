@@ -1,72 +1,252 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Represents a Tetris board -- essentially a 2-d grid of booleans. Supports
  * tetris pieces and row clearing. Has an "undo" feature that allows clients to
  * add and remove pieces efficiently. Does not do any drawing or have any idea
  * of pixels. Instead, just represents the abstract 2-d board.
+ *
+ * <p>
+ * The blocks are stored as one bit mask per row (bit x of rows[y] is set when
+ * the block (x, y) is filled), so a row is full when its mask equals the full
+ * row mask and its width is a single bit count. Boards are therefore limited
+ * to MAX_WIDTH columns. The column-major grid of getGrid() is only worked out
+ * from the masks when asked for, so place(), clearRows() and undo() never
+ * touch it: they note the rows it is stale for.
+ *
+ * <p>
+ * Undo is journal based: place() and clearRows() record only the blocks, column
+ * heights and rows they change since the last commit(), so both undo() and
+ * commit() cost time proportional to the change rather than to the board size.
+ *
+ * <p>
+ * hash64() identifies the blocks of the board with a 64-bit Zobrist hash: the
+ * exclusive or of a fixed random key per filled block. place() and clearRows()
+ * update it as they change blocks, and undo() puts back the hash saved at the
+ * last commit(), so it never costs a scan of the board.
  */
 public class Board {
 
+	public static final int MAX_WIDTH = 64;
+
 	private int width;
 	private int height;
+	private long fullRow;
 
 	protected int[] heights;
-	protected int[] widths;
+	protected long[] rows;
 
-	protected boolean[][] grid;
+	private boolean[][] grid;
+	// the rows [gridStale[0], gridStale[1]) of the grid that no longer match
+	// the masks; shared by the boards that share the masks
+	private int[] gridStale;
 	private boolean committed;
-
-	protected int[] backupHeights;
-	protected int[] backupWidths;
-	protected boolean[][] backupGrid;
+	private long hash;
+	private int rowsCleared; // by clearRows() since the last commit() or undo()
+
+	// Undo journal since the last commit: blocks set by place() packed as
+	// y * MAX_WIDTH + x, (column, old height) pairs, and the rows that
+	// clearRows() overwrote starting at row journalRowsFrom.
+	private int[] journalBlocks;
+	private int journalBlockCount;
+	private int[] journalHeights;
+	private int journalHeightCount;
+	private long[] journalRows;
+	private int journalRowsFrom;
+	private int journalRowCount;
+	private long journalHash; // hash64() at the last commit
+
+	// When true, place() and clearRows() check their incremental updates
+	// against a full recomputation from the row masks (slow, for debugging):
+	// run with -Dtetris.board.debug=true.
+	private static final boolean DEBUG = Boolean.getBoolean("tetris.board.debug");
 
 	/**
 	 * Creates an empty board of the given width and height measured in blocks.
 	 */
 	public Board(int width, int height) {
+		if (width < 1 || width > MAX_WIDTH) {
+			throw new IllegalArgumentException("board width must be between 1 and " + MAX_WIDTH);
+		}
 		this.width = width;
 		this.height = height;
+		this.fullRow = (width == MAX_WIDTH) ? -1L : (1L << width) - 1;
 
 		this.grid = new boolean[width][height];
+		this.gridStale = new int[] { height, 0 };
 		this.committed = true;
 		// YOUR CODE HERE
 
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				this.grid[i][j] = false;
-			}
-		}
-
 		this.heights = new int[width];
-		this.widths = new int[height];
-
-		this.backupHeights = new int[width];
-		this.backupWidths = new int[height];
-		this.backupGrid = new boolean[width][height];
-
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				this.heights[i] = 0;
-				this.widths[j] = 0;
-				this.backupGrid[i][j] = false;
-				this.backupHeights[i] = 0;
-				this.backupWidths[j] = 0;
-			}
-		}
+		this.rows = new long[height];
+
+		initJournal();
 	}
 
+	/**
+	 * Creates a board that shares the block arrays of the given board, each
+	 * with a journal of its own: a cheap view for searches that undo every
+	 * change, valid while the given board does not change. See copy() for a
+	 * board that can change on its own.
+	 */
 	public Board(Board b) {
 		this.committed = b.committed;
 		this.grid = b.grid;
+		this.gridStale = b.gridStale;
 		this.height = b.height;
 		this.width = b.width;
-		this.widths = b.widths;
+		this.fullRow = b.fullRow;
+		this.rows = b.rows;
 		this.heights = b.heights;
-		this.backupGrid = b.backupGrid;
-		this.backupHeights = b.backupHeights;
-		this.backupWidths = b.backupWidths;
+		this.hash = b.hash;
+		this.journalHash = b.journalHash;
+
+		initJournal();
+	}
+
+	private void initJournal() {
+		this.journalBlocks = new int[8];
+		this.journalHeights = new int[2 * (this.width + 8)];
+		this.journalRows = new long[this.height];
+	}
+
+	/**
+	 * Makes this board a copy of the given board, which must have the same size.
+	 * Unlike the Board(Board) constructor, which shares the arrays of the other
+	 * board, the blocks and heights are copied into this board's own arrays, so
+	 * the two boards can then change independently. The copy is committed.
+	 */
+	public void copyFrom(Board b) {
+		if (b.width != this.width || b.height != this.height) {
+			throw new IllegalArgumentException("can only copy a board of the same size");
+		}
+		System.arraycopy(b.rows, 0, this.rows, 0, this.height);
+		System.arraycopy(b.heights, 0, this.heights, 0, this.width);
+		staleGrid(0, this.height);
+		this.hash = b.hash;
+		clearJournal();
+		this.committed = true;
+	}
+
+	/**
+	 * Returns a snapshot of this board: a new board with arrays of its own,
+	 * holding the same blocks, which later changes to either board leave the
+	 * other alone. The snapshot is committed.
+	 */
+	public Board copy() {
+		Board b = new Board(this.width, this.height);
+		b.copyFrom(this);
+		return b;
+	}
+
+	// flags of the encoding of writeTo()
+	private static final int ENCODED_HEIGHTS = 1;
+
+	/**
+	 * Returns the number of bytes writeTo() writes for this board, with or
+	 * without the column heights.
+	 */
+	public int getEncodedSize(boolean withHeights) {
+		return 7 + getMaxHeight() * ((this.width + 7) >>> 3) + (withHeights ? 2 * this.width : 0);
+	}
+
+	/**
+	 * Writes the blocks of this board to the buffer, packed: the width, the
+	 * height and the number of rows up to the highest block as shorts, a
+	 * flags byte, then the mask of each of these rows in (width + 7) / 8
+	 * bytes, most significant first, and optionally the column heights as
+	 * shorts. An empty 10 x 24 board takes 7 bytes, one 20 rows high 47.
+	 * Allocates nothing; the buffer must have getEncodedSize() bytes left.
+	 */
+	public void writeTo(ByteBuffer buffer, boolean withHeights) {
+		int used = getMaxHeight();
+		int bytes = (this.width + 7) >>> 3;
+		buffer.putShort((short) this.width);
+		buffer.putShort((short) this.height);
+		buffer.putShort((short) used);
+		buffer.put((byte) (withHeights ? ENCODED_HEIGHTS : 0));
+		for (int y = 0; y < used; y++) {
+			long row = this.rows[y];
+			for (int shift = 8 * (bytes - 1); shift >= 0; shift -= 8) {
+				buffer.put((byte) (row >>> shift));
+			}
+		}
+		if (withHeights) {
+			for (int x = 0; x < this.width; x++) {
+				buffer.putShort((short) this.heights[x]);
+			}
+		}
+	}
+
+	/**
+	 * Same as above, without the column heights.
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		writeTo(buffer, false);
+	}
+
+	/**
+	 * Reads a board written by writeTo() into a new committed board.
+	 */
+	public static Board readFrom(ByteBuffer buffer) {
+		int position = buffer.position();
+		int width = buffer.getShort(position);
+		int height = buffer.getShort(position + 2);
+		if (height < 0) {
+			throw new IllegalArgumentException("bad board height " + height);
+		}
+		Board board = new Board(width, height);
+		board.read(buffer);
+		return board;
+	}
+
+	/**
+	 * Reads a board written by writeTo() into this board, which must have
+	 * the same size, and commits it. Heights in the encoding are checked
+	 * against the blocks. Throws an IllegalArgumentException if the encoding
+	 * is not valid for this board.
+	 */
+	public void read(ByteBuffer buffer) {
+		int width = buffer.getShort();
+		int height = buffer.getShort();
+		int used = buffer.getShort();
+		int flags = buffer.get();
+		if (width != this.width || height != this.height) {
+			throw new IllegalArgumentException("board of " + width + " x " + height + " read into one of "
+					+ this.width + " x " + this.height);
+		}
+		if (used < 0 || used > height) {
+			throw new IllegalArgumentException("bad board row count " + used);
+		}
+
+		int bytes = (width + 7) >>> 3;
+		Arrays.fill(this.heights, 0);
+		for (int y = 0; y < used; y++) {
+			long row = 0;
+			for (int i = 0; i < bytes; i++) {
+				row = row << 8 | (buffer.get() & 0xFF);
+			}
+			if ((row & ~this.fullRow) != 0) {
+				throw new IllegalArgumentException("board row " + y + " wider than " + width);
+			}
+			this.rows[y] = row;
+			for (long r = row; r != 0; r &= r - 1) {
+				this.heights[Long.numberOfTrailingZeros(r)] = y + 1;
+			}
+		}
+		Arrays.fill(this.rows, used, height, 0L);
+		if ((flags & ENCODED_HEIGHTS) != 0) {
+			for (int x = 0; x < width; x++) {
+				if (buffer.getShort() != this.heights[x]) {
+					throw new IllegalArgumentException("board heights do not match its blocks");
+				}
+			}
+		}
+		staleGrid(0, height);
+		this.hash = hashRows(0, used);
+		clearJournal();
+		this.committed = true;
 	}
 
 	public int getWidth() {
@@ -96,7 +276,7 @@ public class Board {
 	/**
 	 * Given a piece and an x, returns the y value where the piece would come to
 	 * rest if it were dropped straight down at that x.
-	 * 
+	 *
 	 * <p>
 	 * Implementation: use the skirt and the col heights to compute this fast --
 	 * O(skirt length).
@@ -104,38 +284,40 @@ public class Board {
 	public int dropHeight(Piece piece, int x) {
 		// YOUR CODE HERE
 
-		boolean[][] empty = new boolean[this.width][this.height];
-		for (int i = 0; i < this.width; i++) {
-			for (int j = 0; j < this.height; j++) {
-				empty[i][j] = false;
+		// La pice s'arrte ds qu'un point de sa jupe touche le haut d'une colonne.
+		int[] skirt = piece.getSkirtArray();
+		int y = 0;
+		for (int k = 0; k < skirt.length; k++) {
+			int rest = this.heights[x + k] - skirt[k];
+			if (rest > y) {
+				y = rest;
 			}
 		}
+		return y;
+	}
 
-		if (this.grid.equals(empty)) {
-			return 0;
-		} else {
-			int[] dist = new int[piece.getWidth()];
-			for (int k = 0; k < piece.getWidth(); k++) {
-				int top = piece.getSkirt().get(k);
-				int bot = this.heights[x + k];
-				dist[k] = Math.abs(top - bot);
-
-			}
-
-			int min = dist[0];
-			int y = 0;
-			for (int k = 1; k < dist.length; k++) {
-				if (min > dist[k]) {
-					min = dist[k];
-					y = k;
+	/**
+	 * Computes dropHeight() for the given piece at every x where it fits within
+	 * the width of the board, storing the result for x in result[x]. Returns the
+	 * number of x values computed, i.e. getWidth() - piece.getWidth() + 1. The
+	 * result array must hold at least that many values.
+	 */
+	public int dropHeights(Piece piece, int[] result) {
+		int[] skirt = piece.getSkirtArray();
+		int count = this.width - skirt.length + 1;
+		for (int x = 0; x < count; x++) {
+			result[x] = 0;
+		}
+		for (int k = 0; k < skirt.length; k++) {
+			int bottom = skirt[k];
+			for (int x = 0; x < count; x++) {
+				int rest = this.heights[x + k] - bottom;
+				if (rest > result[x]) {
+					result[x] = rest;
 				}
 			}
-
-			int diffSkirt = Math.abs(piece.getSkirt().get(y) - piece.getSkirt().get(0));
-
-			return heights[x] - 1 - diffSkirt;
 		}
-
+		return count;
 	}
 
 	/**
@@ -152,7 +334,7 @@ public class Board {
 	 */
 	public int getRowWidth(int y) {
 		// YOUR CODE HERE
-		return this.widths[y];
+		return Long.bitCount(this.rows[y]);
 	}
 
 	/**
@@ -161,12 +343,43 @@ public class Board {
 	 */
 	public boolean getGrid(int x, int y) {
 		// YOUR CODE HERE
-		if (x < this.width && y < this.height) {
-			return this.grid[x][y];
+		if (x >= 0 && y >= 0 && x < this.width && y < this.height) {
+			return (this.rows[y] & (1L << x)) != 0;
 		}
 		return true;
 	}
 
+	/**
+	 * Returns the 64-bit Zobrist hash of the blocks in the board. Boards with
+	 * the same blocks have the same hash, whatever their size and the moves
+	 * that led to them; different boards have the same hash only by chance.
+	 * The empty board hashes to 0.
+	 */
+	public long hash64() {
+		return this.hash;
+	}
+
+	/**
+	 * Returns the Zobrist key of the block (x, y), a well mixed function of
+	 * its position, so keys need no table and are the same for every board.
+	 */
+	public static long zobristKey(int x, int y) {
+		// splitmix64 of the block index
+		long z = (y * (long) MAX_WIDTH + x + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the number of rows cleared by clearRows() since the last
+	 * commit() or undo() -- the rows the last play cleared, for brains that
+	 * rate a board before undoing the play.
+	 */
+	public int getRowsCleared() {
+		return this.rowsCleared;
+	}
+
 	public static final int PLACE_OK = 0;
 	public static final int PLACE_ROW_FILLED = 1;
 	public static final int PLACE_OUT_BOUNDS = 2;
@@ -177,7 +390,7 @@ public class Board {
 	 * into the board grid. Returns PLACE_OK for a regular placement, or
 	 * PLACE_ROW_FILLED for a regular placement that causes at least one row to be
 	 * filled.
-	 * 
+	 *
 	 * <p>
 	 * Error cases: A placement may fail in two ways. First, if part of the piece
 	 * may falls out of bounds of the board, PLACE_OUT_BOUNDS is returned. Or the
@@ -195,48 +408,33 @@ public class Board {
 		this.committed = false;
 
 		// Placement de la pice si possible.
-		for (TPoint p : piece.getBody()) {
-			if (x + p.x >= this.width || y + p.y >= this.height || x + p.x < 0 || y + p.y < 0) {
-				return PLACE_OUT_BOUNDS;}
-			else if (this.grid[x+p.x][y+p.y]) {
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		staleGrid(Math.max(y, 0), Math.min(y + piece.getHeight(), this.height));
+		for (int i = 0; i < bodyX.length; i++) {
+			int px = x + bodyX[i];
+			int py = y + bodyY[i];
+			if (px >= this.width || py >= this.height || px < 0 || py < 0) {
+				return PLACE_OUT_BOUNDS;
+			}
+			long bit = 1L << px;
+			if ((this.rows[py] & bit) != 0) {
 				return PLACE_BAD;
 			}
-			else {
-				this.grid[x + p.x][y + p.y] = true;
+			this.rows[py] |= bit;
+			this.hash ^= zobristKey(px, py);
+			logBlock(py * MAX_WIDTH + px);
+			// Seules les colonnes touches par la pice peuvent grandir.
+			if (py >= this.heights[px]) {
+				logHeight(px);
+				this.heights[px] = py + 1;
 			}
 		}
-		// Mise  jour de heights et widths.
-		for (int i = 0; i < this.width; i++) {
-			loop: for (int j = this.height - 1; j >= 0; j--) {
-				if (this.grid[i][j]) {
-					this.heights[i] = j + 1;
-					break loop;
-				}
-			}
-		}
-
-		for (int i = 0; i < this.height; i++) {
-			int fill = 0;
-			for (int j = 0; j < this.width; j++) {
-				if (this.grid[j][i]) {
-					fill++;
-				}
-			}
+		sanityCheck();
 
-			this.widths[i] = fill;
-		}
-		
 		// Dtermine si au moins une ligne a t remplie.
-
-		for (TPoint p : piece.getBody()) {
-			int filled = 0;
-			for (int i = 0; i < this.width; i++) {
-				if (this.getGrid(i, y + p.y)) {
-					filled++;
-				}
-
-			}
-			if (filled == this.width) {
+		for (int i = 0; i < bodyY.length; i++) {
+			if (this.rows[y + bodyY[i]] == this.fullRow) {
 				return PLACE_ROW_FILLED;
 			}
 		}
@@ -250,103 +448,68 @@ public class Board {
 	public int clearRows() {
 		// YOUR CODE HERE
 
-		// Cr un tableau de boolens dont chaque case correspond  la valeur de vrit
-		// de la proposition suivante: "la ligne est remplie"  cette ordonne.
-
-		boolean[] filled = new boolean[this.height];
-		int clearedRows = 0;
-		for (int i = 0; i < this.height; i++) {
-			int counter = 0;
-			for (int j = 0; j < this.width; j++) {
-				if (this.grid[j][i]) {
-					counter++;
-				}
-			}
-
-			if (counter == this.width) {
-				filled[i] = true;
-			}
+		// Seules les lignes entre la premire ligne pleine et le haut de la pile
+		// peuvent bouger : au-dessus de getMaxHeight() tout est vide.
+		int top = this.getMaxHeight();
+		int first = 0;
+		while (first < top && this.rows[first] != this.fullRow) {
+			first++;
 		}
-
-		// Calcule le nombre de lignes qui seront supprimes.
-
-		for (int i = 0; i < filled.length; i++) {
-			if (filled[i]) {
-				clearedRows++;
-			}
+		if (first == top) {
+			return 0;
 		}
 
-		/*
-		 * Parcours chaque ligne et si une ligne est pleine alors chaque ligne  partir
-		 * de celle-l et au-dessus prend les valeurs de celle juste au-dessus. La ligne
-		 * la plus haute prend que des valeurs false car elle sera vide. Le tableau
-		 * associant un numro de ligne au fait qu'elle soit ou non remplie voit
-		 * galement ses lments descendre  partir de la ligne remplie. Le parcours
-		 * des lignes doit tre dcrmenter car deux lignes succssives peuvent tre
-		 * remplies.
-		 */
-
-		boolean cleared = false;
-		for (int i = 0; i < this.height; i++) {
-
-			if (cleared) {
-				i--;
-				cleared = false;
-			}
-			if (filled[i]) {
-
-				cleared = true;
-				if (i < this.height - 1) {
-					for (int k = i; k < this.height; k++) {
-						if (k < this.height - 1) {
-							filled[k] = filled[k + 1];
-							for (int j = 0; j < this.width; j++) {
-
-								this.grid[j][k] = this.grid[j][k + 1];
-							}
-						}
-
-						else {
-							filled[k] = false;
-							for (int j = 0; j < this.width; j++) {
-								this.grid[j][k] = false;
-
-							}
-						}
-
-					}
-
-				}
+		// Sauvegarde des lignes qui vont bouger pour undo().
+		if (!this.committed && this.journalRowCount == 0) {
+			System.arraycopy(this.rows, first, this.journalRows, first, top - first);
+			this.journalRowsFrom = first;
+			this.journalRowCount = top - first;
+		}
 
-				else {
-					for (int j = 0; j < this.width; j++) {
-						this.grid[j][i] = false;
-					}
-				}
+		// Les lignes non pleines descendent, dans l'ordre, et les lignes
+		// libres en haut sont vides. Le hash de la zone est retir avant
+		// et remis aprs.
+		this.hash ^= hashRows(first, top);
+		int to = first;
+		for (int from = first + 1; from < top; from++) {
+			if (this.rows[from] != this.fullRow) {
+				this.rows[to] = this.rows[from];
+				to++;
 			}
 		}
+		int clearedRows = top - to;
+		this.rowsCleared += clearedRows;
+		Arrays.fill(this.rows, to, top, 0L);
+		staleGrid(first, top);
+		this.hash ^= hashRows(first, to);
+		if (this.committed) {
+			this.journalHash = this.hash;
+		}
 
-		// Mise  jour de heights et widths.
-
-		for (int i = 0; i < this.width; i++) {
-			loop: for (int j = this.height - 1; j >= 0; j--) {
-				if (this.grid[i][j]) {
-					this.heights[i] = j + 1;
-					break loop;
+		// Mise  jour des hauteurs des colonnes qui dpassaient la premire
+		// ligne pleine : on cherche leur nouveau sommet en descendant.
+		long pending = 0;
+		for (int x = 0; x < this.width; x++) {
+			if (this.heights[x] > first) {
+				pending |= 1L << x;
+				if (!this.committed) {
+					logHeight(x);
 				}
 			}
 		}
-
-		for (int i = 0; i < this.height; i++) {
-			int fill = 0;
-			for (int j = 0; j < this.width; j++) {
-				if (this.grid[j][i]) {
-					fill++;
-				}
+		for (int y = to - 1; y >= 0 && pending != 0; y--) {
+			long found = this.rows[y] & pending;
+			pending &= ~found;
+			while (found != 0) {
+				this.heights[Long.numberOfTrailingZeros(found)] = y + 1;
+				found &= found - 1;
 			}
-
-			this.widths[i] = fill;
 		}
+		while (pending != 0) {
+			this.heights[Long.numberOfTrailingZeros(pending)] = 0;
+			pending &= pending - 1;
+		}
+		sanityCheck();
 
 		return clearedRows;
 	}
@@ -359,12 +522,27 @@ public class Board {
 	public void undo() {
 		// YOUR CODE HERE
 		if (!this.committed) {
-			this.committed = true;	
-			for (int i=0; i<this.getWidth();i++) {
-				this.grid[i] = Arrays.copyOf(this.backupGrid[i], this.getHeight());
+			this.committed = true;
+
+			// On dfait dans l'ordre inverse : les lignes effaces d'abord,
+			// puis les hauteurs, puis les blocs de la pice.
+			if (this.journalRowCount > 0) {
+				int from = this.journalRowsFrom;
+				int to = from + this.journalRowCount;
+				System.arraycopy(this.journalRows, from, this.rows, from, this.journalRowCount);
+				staleGrid(from, to);
+			}
+			for (int i = this.journalHeightCount - 2; i >= 0; i -= 2) {
+				this.heights[this.journalHeights[i]] = this.journalHeights[i + 1];
+			}
+			for (int i = 0; i < this.journalBlockCount; i++) {
+				int x = this.journalBlocks[i] % MAX_WIDTH;
+				int y = this.journalBlocks[i] / MAX_WIDTH;
+				this.rows[y] &= ~(1L << x);
+				staleGrid(y, y + 1);
 			}
-			this.heights = Arrays.copyOf(this.backupHeights, this.getWidth()); 
-			this.widths = Arrays.copyOf(this.backupWidths, this.getHeight()); 
+			this.hash = this.journalHash;
+			clearJournal();
 		}
 	}
 
@@ -375,22 +553,36 @@ public class Board {
 		// YOUR CODE HERE
 
 		if (!this.committed) {
-			// Sauvegarde du Board
-
-			/*
-			 * this.backupGrid = this.grid.clone(); this.backupHeights =
-			 * this.heights.clone(); this.backupWidths = this.widths.clone();
-			 */
-			for (int i=0; i<this.getWidth();i++) {
-				this.backupGrid[i] = Arrays.copyOf(this.grid[i], this.getHeight());
-			}
-			this.backupHeights = Arrays.copyOf(this.heights, this.getWidth()); 
-			this.backupWidths = Arrays.copyOf(this.widths, this.getHeight()); 
-
+			// L'tat courant devient l'tat de rfrence : il suffit d'oublier
+			// le journal.
+			clearJournal();
 			this.committed = true;
 		}
 	}
 
+	private void logBlock(int block) {
+		if (this.journalBlockCount == this.journalBlocks.length) {
+			this.journalBlocks = Arrays.copyOf(this.journalBlocks, 2 * this.journalBlocks.length);
+		}
+		this.journalBlocks[this.journalBlockCount++] = block;
+	}
+
+	private void logHeight(int x) {
+		if (this.journalHeightCount == this.journalHeights.length) {
+			this.journalHeights = Arrays.copyOf(this.journalHeights, 2 * this.journalHeights.length);
+		}
+		this.journalHeights[this.journalHeightCount++] = x;
+		this.journalHeights[this.journalHeightCount++] = this.heights[x];
+	}
+
+	private void clearJournal() {
+		this.journalBlockCount = 0;
+		this.journalHeightCount = 0;
+		this.journalRowCount = 0;
+		this.journalHash = this.hash;
+		this.rowsCleared = 0;
+	}
+
 	/*
 	 * Renders the board state as a big String, suitable for printing. This is the
 	 * sort of print-obj-state utility that can help see complex state change over
@@ -413,18 +605,99 @@ public class Board {
 		return buff.toString();
 	}
 
-	// Only for unit tests
+	/**
+	 * Returns the column-major grid of the blocks, grid[x][y] being true when
+	 * (x, y) is filled, after copying into it the masks of the rows changed
+	 * since the last call. Unit tests may fill blocks in it directly, then
+	 * call updateWidthsHeights(). Brains should read the row masks instead.
+	 */
+	protected boolean[][] getGrid() {
+		int[] stale = this.gridStale;
+		if (stale[0] < stale[1]) {
+			for (int x = 0; x < this.width; x++) {
+				boolean[] column = this.grid[x];
+				long bit = 1L << x;
+				for (int y = stale[0]; y < stale[1]; y++) {
+					column[y] = (this.rows[y] & bit) != 0;
+				}
+			}
+			stale[0] = this.height;
+			stale[1] = 0;
+		}
+		return this.grid;
+	}
+
+	// Notes that the grid no longer matches the masks of rows [from, to).
+	private void staleGrid(int from, int to) {
+		int[] stale = this.gridStale;
+		if (from < stale[0]) {
+			stale[0] = from;
+		}
+		if (to > stale[1]) {
+			stale[1] = to;
+		}
+	}
+
+	// Returns the exclusive or of the Zobrist keys of the blocks in rows
+	// [from, to).
+	private long hashRows(int from, int to) {
+		long h = 0;
+		for (int y = from; y < to; y++) {
+			long row = this.rows[y];
+			while (row != 0) {
+				h ^= zobristKey(Long.numberOfTrailingZeros(row), y);
+				row &= row - 1;
+			}
+		}
+		return h;
+	}
+
+	// Runs checkIncremental() when DEBUG is set.
+	private void sanityCheck() {
+		if (DEBUG) {
+			checkIncremental();
+		}
+	}
+
+	// Checks that the row masks fit the width, and the incremental heights
+	// and hash against a recomputation from the masks. Throws a
+	// RuntimeException if they are out of sync.
+	void checkIncremental() {
+		int[] expectedHeights = new int[this.width];
+		for (int y = 0; y < this.height; y++) {
+			long row = this.rows[y];
+			if ((row & ~this.fullRow) != 0) {
+				throw new RuntimeException("board row " + y + " wider than " + this.width + "\n" + this);
+			}
+			for (; row != 0; row &= row - 1) {
+				expectedHeights[Long.numberOfTrailingZeros(row)] = y + 1;
+			}
+		}
+		if (!Arrays.equals(expectedHeights, this.heights) || hashRows(0, this.height) != this.hash) {
+			throw new RuntimeException("board out of sync: heights " + Arrays.toString(this.heights)
+					+ " expected " + Arrays.toString(expectedHeights) + "\n" + this);
+		}
+	}
+
+	// Only for unit tests: rebuilds the row masks, the heights and the hash
+	// from a grid that was filled in directly through getGrid().
 	protected void updateWidthsHeights() {
-		Arrays.fill(this.widths, 0);
+		boolean[][] grid = getGrid();
+		Arrays.fill(this.rows, 0L);
+		Arrays.fill(this.heights, 0);
 
 		for (int i = 0; i < this.width; i++) {
 			for (int j = 0; j < this.height; j++) {
-				if (this.grid[i][j]) {
-					this.widths[j] += 1;
+				if (grid[i][j]) {
+					this.rows[j] |= 1L << i;
 					this.heights[i] = Math.max(j + 1, this.heights[i]);
 				}
 			}
 		}
+		this.hash = hashRows(0, this.height);
+		if (this.committed) {
+			this.journalHash = this.hash;
+		}
 	}
 
 }
@@ -0,0 +1,444 @@
+// BoardBatch.java
+
+/**
+ * Many boards of the same size side by side in flat arrays, for rating all
+ * the plays of a piece at once: the row masks of board k are
+ * rows[k * height .. k * height + height) and its column heights
+ * heights[k * width .. k * width + width), so a batch is a few contiguous
+ * arrays instead of a Board object graph per play. The bulk operations run
+ * one tight loop over boards 0 to n - 1:
+ *
+ * <pre>
+ * batch.fill(board, n);                 // n copies of a committed board
+ * batch.placeAll(pieces, xs, ys, n);    // play i on board i
+ * batch.clearRowsAll(n);
+ * batch.rateAll(evaluator, scores, n);  // like rateBoard() on each
+ * </pre>
+ *
+ * Unlike Board, a batch has no grid, no undo and no hash: a play is undone
+ * by filling the batch again. The features are computed from the row masks
+ * and the heights alone, with bit counts, e.g. the holes are the cells below
+ * the column heights less the blocks. rateAll() gives the same scores, to
+ * the last bit, as DefaultBrain.rateBoard() and FeatureEvaluator.rate() on
+ * the same boards.
+ *
+ * A batch is not thread safe; brains keep one per thread.
+ */
+public class BoardBatch {
+
+	private final int width;
+	private final int height;
+	private final int capacity;
+	private final long fullRow;
+
+	private final long[] rows;
+	private final int[] heights;
+	private final int[] maxHeights;
+	private final int[] cleared; // rows cleared since the board was filled
+	private final int[] results; // Board.place() code of the last play
+
+	// bit planes of the per column block counts, for the covered feature
+	private final long[] planes;
+	private final double[] features = new double[FeatureEvaluator.FEATURE_COUNT];
+
+	/**
+	 * Creates a batch of capacity empty boards of the given size.
+	 */
+	public BoardBatch(int width, int height, int capacity) {
+		if (width < 1 || width > Board.MAX_WIDTH) {
+			throw new IllegalArgumentException("board width must be between 1 and " + Board.MAX_WIDTH);
+		}
+		this.width = width;
+		this.height = height;
+		this.capacity = capacity;
+		this.fullRow = (width == Board.MAX_WIDTH) ? -1L : (1L << width) - 1;
+		this.rows = new long[capacity * height];
+		this.heights = new int[capacity * width];
+		this.maxHeights = new int[capacity];
+		this.cleared = new int[capacity];
+		this.results = new int[capacity];
+		this.planes = new long[32 - Integer.numberOfLeadingZeros(height)];
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Makes board k a copy of the given board, which must have the size of
+	 * the batch.
+	 */
+	public void load(int k, Board board) {
+		if (board.getWidth() != this.width || board.getHeight() != this.height) {
+			throw new IllegalArgumentException("can only load a board of the size of the batch");
+		}
+		System.arraycopy(board.rows, 0, this.rows, k * this.height, this.height);
+		System.arraycopy(board.heights, 0, this.heights, k * this.width, this.width);
+		this.maxHeights[k] = board.getMaxHeight();
+		this.cleared[k] = 0;
+		this.results[k] = Board.PLACE_OK;
+	}
+
+	/**
+	 * Makes boards 0 to n - 1 copies of the given board, which must have the
+	 * size of the batch.
+	 */
+	public void fill(Board board, int n) {
+		load(0, board);
+		int maxHeight = this.maxHeights[0];
+		for (int k = 1; k < n; k++) {
+			System.arraycopy(this.rows, 0, this.rows, k * this.height, this.height);
+			System.arraycopy(this.heights, 0, this.heights, k * this.width, this.width);
+			this.maxHeights[k] = maxHeight;
+			this.cleared[k] = 0;
+			this.results[k] = Board.PLACE_OK;
+		}
+	}
+
+	/**
+	 * Places pieces[k] at (xs[k], ys[k]) on board k, for k from 0 to n - 1,
+	 * and keeps the Board.place() code of each in getResult(k). Unlike
+	 * Board.place(), a play that is out of bounds or hits a block leaves its
+	 * board as it was.
+	 */
+	public void placeAll(Piece[] pieces, int[] xs, int[] ys, int n) {
+		for (int k = 0; k < n; k++) {
+			this.results[k] = place(k, pieces[k], xs[k], ys[k]);
+		}
+	}
+
+	/**
+	 * Places the piece on board k, like placeAll() for one board, and returns
+	 * the Board.place() code.
+	 */
+	public int place(int k, Piece piece, int x, int y) {
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		int base = k * this.height;
+
+		// checks every block before changing anything
+		for (int i = 0; i < bodyX.length; i++) {
+			int px = x + bodyX[i];
+			int py = y + bodyY[i];
+			if (px < 0 || py < 0 || px >= this.width || py >= this.height) {
+				return Board.PLACE_OUT_BOUNDS;
+			}
+			if ((this.rows[base + py] & 1L << px) != 0) {
+				return Board.PLACE_BAD;
+			}
+		}
+
+		int column = k * this.width;
+		int result = Board.PLACE_OK;
+		for (int i = 0; i < bodyX.length; i++) {
+			int px = x + bodyX[i];
+			int py = y + bodyY[i];
+			long row = this.rows[base + py] | 1L << px;
+			this.rows[base + py] = row;
+			if (row == this.fullRow) {
+				result = Board.PLACE_ROW_FILLED;
+			}
+			if (py >= this.heights[column + px]) {
+				this.heights[column + px] = py + 1;
+				if (py >= this.maxHeights[k]) {
+					this.maxHeights[k] = py + 1;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Clears the rows that the last play of boards 0 to n - 1 filled, moving
+	 * the rows above them down, and adds their number to getCleared() of
+	 * each board.
+	 */
+	public void clearRowsAll(int n) {
+		for (int k = 0; k < n; k++) {
+			if (this.results[k] == Board.PLACE_ROW_FILLED) {
+				clearRows(k);
+			}
+		}
+	}
+
+	// Clears the full rows of board k, and works its heights out again from
+	// the rows when some were cleared.
+	private void clearRows(int k) {
+		int base = k * this.height;
+		int top = this.maxHeights[k];
+		int to = base;
+		for (int from = base; from < base + top; from++) {
+			long row = this.rows[from];
+			if (row != this.fullRow) {
+				this.rows[to++] = row;
+			}
+		}
+		int count = base + top - to;
+		if (count == 0) {
+			return;
+		}
+		for (int y = to; y < base + top; y++) {
+			this.rows[y] = 0;
+		}
+		this.cleared[k] += count;
+
+		// the highest row with a block in each column, top down
+		int column = k * this.width;
+		for (int x = 0; x < this.width; x++) {
+			this.heights[column + x] = 0;
+		}
+		top = to - base;
+		while (top > 0 && this.rows[base + top - 1] == 0) {
+			top--;
+		}
+		this.maxHeights[k] = top;
+		long seen = 0;
+		for (int y = top - 1; y >= 0 && seen != this.fullRow; y--) {
+			long fresh = this.rows[base + y] & ~seen;
+			seen |= fresh;
+			for (; fresh != 0; fresh &= fresh - 1) {
+				this.heights[column + Long.numberOfTrailingZeros(fresh)] = y + 1;
+			}
+		}
+	}
+
+	/**
+	 * Rates boards 0 to n - 1 into scores, lower being better: with the
+	 * evaluator's weighted features, as FeatureEvaluator.rate() does, or with
+	 * the built in formula of DefaultBrain.rateBoard() when the evaluator is
+	 * null. Boards whose last play could not be placed get an infinite
+	 * score.
+	 */
+	public void rateAll(FeatureEvaluator evaluator, double[] scores, int n) {
+		double[] weights = (evaluator != null) ? evaluator.getWeights() : null;
+		for (int k = 0; k < n; k++) {
+			if (this.results[k] > Board.PLACE_ROW_FILLED) {
+				scores[k] = Double.POSITIVE_INFINITY;
+			} else if (weights == null) {
+				scores[k] = rateDefault(k);
+			} else {
+				computeFeatures(k, this.features);
+				double score = 0;
+				for (int i = 0; i < FeatureEvaluator.FEATURE_COUNT; i++) {
+					score += weights[i] * this.features[i];
+				}
+				scores[k] = score;
+			}
+		}
+	}
+
+	// DefaultBrain.rateBoard(): 8 * maxHeight + 40 * avgHeight + 1.25 * holes
+	private double rateDefault(int k) {
+		int base = k * this.height;
+		int column = k * this.width;
+		int maxHeight = this.maxHeights[k];
+
+		int sumHeight = 0;
+		for (int x = 0; x < this.width; x++) {
+			sumHeight += this.heights[column + x];
+		}
+		int blocks = 0;
+		for (int y = 0; y < maxHeight; y++) {
+			blocks += Long.bitCount(this.rows[base + y]);
+		}
+		int holes = sumHeight - blocks;
+
+		double avgHeight = ((double) sumHeight) / this.width;
+		return (8 * maxHeight + 40 * avgHeight + 1.25 * holes);
+	}
+
+	/**
+	 * Computes the features of board k into the given array, which must hold
+	 * FeatureEvaluator.FEATURE_COUNT values, with the same values as
+	 * FeatureEvaluator.computeFeatures() on the same board. LINES_CLEARED is
+	 * getCleared(k).
+	 */
+	public void computeFeatures(int k, double[] features) {
+		final int width = this.width;
+		final int base = k * this.height;
+		final int column = k * width;
+		final int maxHeight = this.maxHeights[k];
+
+		// from the heights
+		int aggregateHeight = 0;
+		int bumpiness = 0;
+		int wells = 0;
+		int left = Integer.MAX_VALUE; // the wall
+		for (int x = 0; x < width; x++) {
+			int height = this.heights[column + x];
+			aggregateHeight += height;
+			int right = (x + 1 < width) ? this.heights[column + x + 1] : Integer.MAX_VALUE;
+			if (x + 1 < width) {
+				bumpiness += Math.abs(height - right);
+			}
+			int depth = Math.min(left, right) - height;
+			if (depth > 0 && depth < Integer.MAX_VALUE - height) {
+				wells += depth * (depth + 1) / 2;
+			}
+			left = height;
+		}
+
+		// from the rows, top down: suffix is the columns with a block above
+		// row y, that is the columns higher than y + 1
+		final long inner = (width == Board.MAX_WIDTH) ? -1L >>> 1 : (1L << (width - 1)) - 1;
+		final long[] planes = this.planes;
+		for (int i = 0; i < planes.length; i++) {
+			planes[i] = 0;
+		}
+		int blocks = 0;
+		int rowTransitions = 0;
+		int columnTransitions = 0;
+		long blockHeights = 0; // the sum of y over the blocks
+		long suffix = 0;
+		long above = 0;
+		for (int y = maxHeight - 1; y >= 0; y--) {
+			long row = this.rows[base + y];
+			int count = Long.bitCount(row);
+			blocks += count;
+			blockHeights += (long) y * count;
+
+			rowTransitions += Long.bitCount((row ^ (row >>> 1)) & inner);
+			if ((row & 1) == 0) {
+				rowTransitions++;
+			}
+			if ((row >>> (width - 1) & 1) == 0) {
+				rowTransitions++;
+			}
+			columnTransitions += Long.bitCount((row ^ above) & suffix);
+
+			// adds the row to the per column block counts, bit plane by
+			// bit plane
+			long carry = row;
+			for (int i = 0; i < planes.length && carry != 0; i++) {
+				long next = planes[i] & carry;
+				planes[i] ^= carry;
+				carry = next;
+			}
+			suffix |= row;
+			above = row;
+		}
+		if (maxHeight > 0) {
+			columnTransitions += Long.bitCount(~above & suffix); // the floor
+		}
+
+		// covered: each block covers the holes below it in its column, that
+		// is y less the blocks below it; summed over a column of b blocks,
+		// the blocks below come to b (b - 1) / 2
+		long sumCounts = 0;
+		long sumSquares = 0;
+		for (int i = 0; i < planes.length; i++) {
+			sumCounts += (long) Long.bitCount(planes[i]) << i;
+			for (int j = 0; j < planes.length; j++) {
+				sumSquares += (long) Long.bitCount(planes[i] & planes[j]) << (i + j);
+			}
+		}
+		long covered = blockHeights - (sumSquares - sumCounts) / 2;
+
+		features[FeatureEvaluator.MAX_HEIGHT] = maxHeight;
+		features[FeatureEvaluator.AGGREGATE_HEIGHT] = aggregateHeight;
+		features[FeatureEvaluator.HOLES] = aggregateHeight - blocks;
+		features[FeatureEvaluator.BUMPINESS] = bumpiness;
+		features[FeatureEvaluator.ROW_TRANSITIONS] = rowTransitions;
+		features[FeatureEvaluator.COLUMN_TRANSITIONS] = columnTransitions;
+		features[FeatureEvaluator.WELLS] = wells;
+		features[FeatureEvaluator.COVERED] = covered;
+		features[FeatureEvaluator.LINES_CLEARED] = this.cleared[k];
+	}
+
+	/**
+	 * Returns the Board.place() code of the last play on board k.
+	 */
+	public int getResult(int k) {
+		return this.results[k];
+	}
+
+	/**
+	 * Returns the rows cleared on board k since it was filled.
+	 */
+	public int getCleared(int k) {
+		return this.cleared[k];
+	}
+
+	public int getMaxHeight(int k) {
+		return this.maxHeights[k];
+	}
+
+	public int getColumnHeight(int k, int x) {
+		return this.heights[k * this.width + x];
+	}
+
+	/**
+	 * Returns the mask of row y of board k, bit x set for a filled block.
+	 */
+	public long getRow(int k, int y) {
+		return this.rows[k * this.height + y];
+	}
+
+	/**
+	 * Rates every play of random pieces on positions of DefaultBrain games,
+	 * one Board at a time and in a batch, and prints both rates.
+	 */
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		java.util.Random random = new java.util.Random(1);
+		DefaultBrain brain = new DefaultBrain();
+		Board[] boards = new Board[positions];
+		GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT);
+		for (int i = 0; i < positions; i++) {
+			if (!engine.isGameOn() || i % 200 == 0) {
+				engine.startGame(random.nextLong());
+			}
+			engine.dropWithBrain(brain);
+			engine.getBoard().undo(); // without the piece in play
+			boards[i] = engine.getBoard().copy();
+		}
+
+		int limit = JTetris.HEIGHT;
+		int capacity = 4 * JTetris.WIDTH;
+		Piece[] pieces = new Piece[capacity];
+		int[] xs = new int[capacity];
+		int[] ys = new int[capacity];
+		double[] scores = new double[capacity];
+		BoardBatch batch = new BoardBatch(boards[0].getWidth(), boards[0].getHeight(), capacity);
+		Board scratch = new Board(boards[0].getWidth(), boards[0].getHeight());
+		for (int round = 0; round < 5; round++) {
+			long plays = 0;
+			double sum = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < positions; i++) {
+				int n = brain.listPlays(boards[i], Piece.getPieces()[i % 7], limit, pieces, xs, ys);
+				scratch.copyFrom(boards[i]);
+				for (int j = 0; j < n; j++) {
+					if (scratch.place(pieces[j], xs[j], ys[j]) == Board.PLACE_ROW_FILLED) {
+						scratch.clearRows();
+					}
+					sum += brain.rateBoard(scratch);
+					scratch.undo();
+				}
+				plays += n;
+			}
+			long middle = System.nanoTime();
+			for (int i = 0; i < positions; i++) {
+				int n = brain.listPlays(boards[i], Piece.getPieces()[i % 7], limit, pieces, xs, ys);
+				batch.fill(boards[i], n);
+				batch.placeAll(pieces, xs, ys, n);
+				batch.clearRowsAll(n);
+				batch.rateAll(null, scores, n);
+				for (int j = 0; j < n; j++) {
+					sum -= scores[j];
+				}
+			}
+			long end = System.nanoTime();
+			System.out.printf("%d plays: boards %.0f plays/s, batch %.0f plays/s (difference %s)%n", plays,
+					plays / ((middle - start) / 1e9), plays / ((end - middle) / 1e9), sum);
+		}
+	}
+}
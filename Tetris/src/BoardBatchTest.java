@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoardBatchTest {
+
+	// a committed board with ragged columns and holes
+	private static Board randomBoard(Random random, int width, int height) {
+		Board b = new Board(width, height);
+		for (int x = 0; x < width; x++) {
+			for (int y = random.nextInt(height / 2); y >= 0; y--) {
+				b.getGrid()[x][y] = random.nextInt(4) > 0;
+			}
+		}
+		b.updateWidthsHeights();
+		// no full rows to start with
+		for (int y = 0; y < height; y++) {
+			if (b.getRowWidth(y) == width) {
+				b.getGrid()[random.nextInt(width)][y] = false;
+			}
+		}
+		b.updateWidthsHeights();
+		return b;
+	}
+
+	@Test
+	public void testSameAsBoard() {
+		Random random = new Random(4);
+		DefaultBrain brain = new DefaultBrain();
+		FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.dellacherieWeights());
+		Piece[] pieces = new Piece[40];
+		int[] xs = new int[40];
+		int[] ys = new int[40];
+		double[] scores = new double[40];
+		double[] weighted = new double[40];
+		double[] expected = new double[FeatureEvaluator.FEATURE_COUNT];
+		double[] actual = new double[FeatureEvaluator.FEATURE_COUNT];
+		BoardBatch batch = new BoardBatch(10, 24, 40);
+
+		for (int round = 0; round < 200; round++) {
+			Board board = randomBoard(random, 10, 24);
+			Piece piece = Piece.getPieces()[round % 7];
+			int n = brain.listPlays(board, piece, 20, pieces, xs, ys);
+			batch.fill(board, n);
+			batch.placeAll(pieces, xs, ys, n);
+			batch.clearRowsAll(n);
+			batch.rateAll(null, scores, n);
+			batch.rateAll(evaluator, weighted, n);
+
+			for (int k = 0; k < n; k++) {
+				assertEquals(board.place(pieces[k], xs[k], ys[k]), batch.getResult(k));
+				int cleared = board.clearRows();
+				assertEquals(cleared, batch.getCleared(k));
+				for (int y = 0; y < board.getHeight(); y++) {
+					assertEquals(board.rows[y], batch.getRow(k, y));
+				}
+				for (int x = 0; x < board.getWidth(); x++) {
+					assertEquals(board.getColumnHeight(x), batch.getColumnHeight(k, x));
+				}
+				assertEquals(board.getMaxHeight(), batch.getMaxHeight(k));
+
+				FeatureEvaluator.computeFeatures(board, expected);
+				batch.computeFeatures(k, actual);
+				assertArrayEquals(expected, actual, 0);
+				assertEquals(brain.rateBoard(board), scores[k], 0);
+				assertEquals(evaluator.rate(board), weighted[k], 0);
+				board.undo();
+			}
+		}
+	}
+
+	@Test
+	public void testBadPlay() {
+		Board board = new Board(4, 8);
+		board.place(new Piece(Piece.SQUARE_STR), 0, 0);
+		board.commit();
+		BoardBatch batch = new BoardBatch(4, 8, 3);
+		batch.fill(board, 3);
+		Piece stick = new Piece(Piece.STICK_STR);
+		batch.placeAll(new Piece[] { stick, stick, stick }, new int[] { 1, 3, 4 }, new int[] { 1, 0, 0 }, 3);
+		assertEquals(Board.PLACE_BAD, batch.getResult(0));
+		assertEquals(Board.PLACE_OK, batch.getResult(1));
+		assertEquals(Board.PLACE_OUT_BOUNDS, batch.getResult(2));
+
+		// the boards of the bad plays are left as they were
+		assertEquals(2, batch.getMaxHeight(0));
+		assertEquals(3L, batch.getRow(0, 1));
+		assertEquals(4, batch.getMaxHeight(1));
+
+		double[] scores = new double[3];
+		batch.rateAll(null, scores, 3);
+		assertEquals(Double.POSITIVE_INFINITY, scores[0], 0);
+		assertEquals(Double.POSITIVE_INFINITY, scores[2], 0);
+		assertTrue(scores[1] < Double.POSITIVE_INFINITY);
+	}
+}
@@ -0,0 +1,94 @@
+// BoardPool.java
+
+/**
+ * A pool of boards of one size, for searches that need many board snapshots
+ * per move but only a bounded number at a time. acquire() hands out a free
+ * board, creating one only when none is left, and release() gives it back, so
+ * once a search has run at its largest the pool holds all the boards it will
+ * ever need and no more are created. A pool is meant for one thread at a
+ * time.
+ *
+ * <pre>
+ * Board snapshot = pool.acquire(board); // a copy of board
+ * ... play on the snapshot ...
+ * pool.release(snapshot);
+ * </pre>
+ */
+public class BoardPool {
+
+	private final int width;
+	private final int height;
+
+	private Board[] free = new Board[16];
+	private int size; // number of free boards
+	private int created;
+
+	/**
+	 * Creates an empty pool of boards of the given width and height.
+	 */
+	public BoardPool(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Returns a free board of the pool, in no particular state.
+	 */
+	public Board acquire() {
+		if (this.size == 0) {
+			this.created++;
+			return new Board(this.width, this.height);
+		}
+		Board b = this.free[--this.size];
+		this.free[this.size] = null;
+		return b;
+	}
+
+	/**
+	 * Returns a free board of the pool made a copy of the given board, which
+	 * must have the pool's size. The copy is committed.
+	 */
+	public Board acquire(Board source) {
+		Board b = acquire();
+		b.copyFrom(source);
+		return b;
+	}
+
+	/**
+	 * Gives a board obtained from acquire() back to the pool. The caller must
+	 * not use it anymore.
+	 */
+	public void release(Board b) {
+		if (b.getWidth() != this.width || b.getHeight() != this.height) {
+			throw new IllegalArgumentException("board does not have the size of the pool");
+		}
+		if (this.size == this.free.length) {
+			Board[] grown = new Board[2 * this.size];
+			System.arraycopy(this.free, 0, grown, 0, this.size);
+			this.free = grown;
+		}
+		this.free[this.size++] = b;
+	}
+
+	/**
+	 * Returns the number of boards the pool has created so far.
+	 */
+	public int getCreated() {
+		return this.created;
+	}
+
+	/**
+	 * Returns the number of boards waiting in the pool.
+	 */
+	public int getFree() {
+		return this.size;
+	}
+}
@@ -1,6 +1,8 @@
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -9,7 +11,7 @@ public class BoardTest {
 	public void printGrid(Board b, int size) {
 		for(int i=0; i<b.getHeight(); i++) {
 			for(int j=0; j<b.getWidth(); j++) {
-				System.out.print(b.grid[j][(size-1)-i]);
+				System.out.print(b.getGrid()[j][(size-1)-i]);
 				System.out.print(" ");
 			}
 			System.out.println("");
@@ -98,9 +100,9 @@ public class BoardTest {
 		b2.undo();
 		
 		int count = 0;
-		for (int i = 0; i < b2.grid.length; i++) {
-			for (int j = 0; j < b2.grid[i].length; j++) {
-				if (b2.grid[i][j]) {
+		for (int i = 0; i < b2.getGrid().length; i++) {
+			for (int j = 0; j < b2.getGrid()[i].length; j++) {
+				if (b2.getGrid()[i][j]) {
 					count += 1;
 				}
 			}
@@ -129,7 +131,7 @@ public class BoardTest {
 		
 		/*for(int i=0; i<b.getHeight(); i++) {
 			for(int j=0; j<b.getWidth(); j++) {
-				System.out.println(b.grid[j][5-i]);
+				System.out.println(b.getGrid()[j][5-i]);
 			}
 		}
 		
@@ -142,7 +144,7 @@ public class BoardTest {
 		/*
 		for(int i=0; i<b.getHeight(); i++) {
 			for(int j=0; j<b.getWidth(); j++) {
-				System.out.println(b.grid[j][5-i]);
+				System.out.println(b.getGrid()[j][5-i]);
 			}
 		}
 		*/
@@ -168,18 +170,22 @@ public class BoardTest {
 		// nothing to do
 
 		Board b = new Board(5, 5);
-		b.grid[0][0] = true;
-		b.grid[1][0] = true;
-		b.grid[0][1] = true;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = true;
+		b.getGrid()[0][1] = true;
+		b.updateWidthsHeights();
 
 		Board expected = new Board(5, 5);
-		expected.grid[0][0] = true;
-		expected.grid[1][0] = true;
-		expected.grid[0][1] = true;
+		expected.getGrid()[0][0] = true;
+		expected.getGrid()[1][0] = true;
+		expected.getGrid()[0][1] = true;
+		expected.updateWidthsHeights();
 
 		assertEquals(b.clearRows(), 0);
 
-		assertArrayEquals(expected.grid, b.grid);
+		assertArrayEquals(expected.getGrid(), b.getGrid());
+		assertArrayEquals(expected.rows, b.rows);
+		assertArrayEquals(expected.heights, b.heights);
 		;
 	}
 
@@ -188,12 +194,12 @@ public class BoardTest {
 		// remove one line without having anything to drop
 
 		Board b = new Board(5, 5);
-		b.grid[0][0] = true;
-		b.grid[1][0] = true;
-		b.grid[2][0] = true;
-		b.grid[3][0] = true;
-		b.grid[4][0] = true;
-		// b.grid[0][1] = true;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = true;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = true;
+		b.getGrid()[4][0] = true;
+		// b.getGrid()[0][1] = true;
 
 		b.updateWidthsHeights();
 
@@ -201,7 +207,9 @@ public class BoardTest {
 
 		assertEquals(b.clearRows(), 1);
 
-		assertArrayEquals(expected.grid, b.grid);
+		assertArrayEquals(expected.getGrid(), b.getGrid());
+		assertArrayEquals(expected.rows, b.rows);
+		assertArrayEquals(expected.heights, b.heights);
 		;
 	}
 
@@ -210,20 +218,23 @@ public class BoardTest {
 		// remove one line and drop the next line
 
 		Board b = new Board(5, 5);
-		b.grid[0][0] = true;
-		b.grid[1][0] = true;
-		b.grid[2][0] = true;
-		b.grid[3][0] = true;
-		b.grid[4][0] = true;
-		b.grid[0][1] = true;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = true;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = true;
+		b.getGrid()[4][0] = true;
+		b.getGrid()[0][1] = true;
 
 		b.updateWidthsHeights();
 
 		Board expected = new Board(5, 5);
-		expected.grid[0][0] = true;
+		expected.getGrid()[0][0] = true;
+		expected.updateWidthsHeights();
 
 		assertEquals(b.clearRows(), 1);
-		assertArrayEquals(expected.grid, b.grid);
+		assertArrayEquals(expected.getGrid(), b.getGrid());
+		assertArrayEquals(expected.rows, b.rows);
+		assertArrayEquals(expected.heights, b.heights);
 	}
 
 	@Test
@@ -231,32 +242,35 @@ public class BoardTest {
 		// remove one line and drop the next line
 
 		Board b = new Board(5, 5);
-		b.grid[0][0] = true;
-		b.grid[1][0] = true;
-		b.grid[2][0] = true;
-		b.grid[3][0] = true;
-		b.grid[4][0] = true;
-
-		b.grid[0][1] = true;
-		b.grid[1][1] = true;
-		b.grid[2][1] = true;
-		b.grid[3][1] = true;
-		b.grid[4][1] = true;
-
-		b.grid[0][2] = true;
-		b.grid[0][3] = true;
-		b.grid[4][2] = true;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = true;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = true;
+		b.getGrid()[4][0] = true;
+
+		b.getGrid()[0][1] = true;
+		b.getGrid()[1][1] = true;
+		b.getGrid()[2][1] = true;
+		b.getGrid()[3][1] = true;
+		b.getGrid()[4][1] = true;
+
+		b.getGrid()[0][2] = true;
+		b.getGrid()[0][3] = true;
+		b.getGrid()[4][2] = true;
 
 		b.updateWidthsHeights();
 
 		Board expected = new Board(5, 5);
-		expected.grid[0][0] = true;
-		expected.grid[0][1] = true;
-		expected.grid[4][0] = true;
+		expected.getGrid()[0][0] = true;
+		expected.getGrid()[0][1] = true;
+		expected.getGrid()[4][0] = true;
+		expected.updateWidthsHeights();
 
 		assertEquals(b.clearRows(), 2);
 
-		assertArrayEquals(expected.grid, b.grid);
+		assertArrayEquals(expected.getGrid(), b.getGrid());
+		assertArrayEquals(expected.rows, b.rows);
+		assertArrayEquals(expected.heights, b.heights);
 		;
 	}
 
@@ -265,11 +279,11 @@ public class BoardTest {
 		// can we call dropHeight after having cleared the board
 
 		Board b = new Board(5, 5);
-		b.grid[0][0] = true;
-		b.grid[1][0] = true;
-		b.grid[2][0] = true;
-		b.grid[3][0] = true;
-		b.grid[4][0] = true;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = true;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = true;
+		b.getGrid()[4][0] = true;
 
 		b.updateWidthsHeights();
 
@@ -281,45 +295,328 @@ public class BoardTest {
 	@Test
 	public void clearComplicated() {
 		Board b = new Board(5, 7);
-		b.grid[0][0] = true;
-		b.grid[1][0] = false;
-		b.grid[2][0] = true;
-		b.grid[3][0] = false;
-		b.grid[4][0] = true;
-
-		b.grid[0][1] = true;
-		b.grid[1][1] = true;
-		b.grid[2][1] = true;
-		b.grid[3][1] = true;
-		b.grid[4][1] = true;
-
-		b.grid[0][2] = true;
-		b.grid[1][2] = true;
-		b.grid[2][2] = false;
-		b.grid[3][2] = true;
-		b.grid[4][2] = false;
+		b.getGrid()[0][0] = true;
+		b.getGrid()[1][0] = false;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = false;
+		b.getGrid()[4][0] = true;
+
+		b.getGrid()[0][1] = true;
+		b.getGrid()[1][1] = true;
+		b.getGrid()[2][1] = true;
+		b.getGrid()[3][1] = true;
+		b.getGrid()[4][1] = true;
+
+		b.getGrid()[0][2] = true;
+		b.getGrid()[1][2] = true;
+		b.getGrid()[2][2] = false;
+		b.getGrid()[3][2] = true;
+		b.getGrid()[4][2] = false;
 
 		b.updateWidthsHeights();
 
 		Board expected = new Board(5, 7);
-		expected.grid[0][0] = true;
-		expected.grid[1][0] = false;
-		expected.grid[2][0] = true;
-		expected.grid[3][0] = false;
-		expected.grid[4][0] = true;
-
-		expected.grid[0][1] = true;
-		expected.grid[1][1] = true;
-		expected.grid[2][1] = false;
-		expected.grid[3][1] = true;
-		expected.grid[4][1] = false;
+		expected.getGrid()[0][0] = true;
+		expected.getGrid()[1][0] = false;
+		expected.getGrid()[2][0] = true;
+		expected.getGrid()[3][0] = false;
+		expected.getGrid()[4][0] = true;
+
+		expected.getGrid()[0][1] = true;
+		expected.getGrid()[1][1] = true;
+		expected.getGrid()[2][1] = false;
+		expected.getGrid()[3][1] = true;
+		expected.getGrid()[4][1] = false;
 
 		expected.updateWidthsHeights();
 
 		assertEquals(1, b.clearRows());
 
-		assertArrayEquals(expected.grid, b.grid);
+		assertArrayEquals(expected.getGrid(), b.getGrid());
+		assertArrayEquals(expected.rows, b.rows);
+		assertArrayEquals(expected.heights, b.heights);
 		;
 
 	}
+
+	@Test
+	public void testIncrementalHeights() {
+		// plays random drops, checking the incremental heights and hash
+		// against a full recomputation after each change
+		Random random = new Random(42);
+		Piece[] pieces = Piece.getPieces();
+		Board b = new Board(6, 12);
+		for (int n = 0; n < 200; n++) {
+			Piece p = pieces[random.nextInt(pieces.length)];
+			for (int r = random.nextInt(4); r > 0; r--) {
+				p = p.computeNextRotation();
+			}
+			int x = random.nextInt(b.getWidth() - p.getWidth() + 1);
+			int y = b.getHeight() - p.getHeight();
+			if (b.place(p, x, y) != Board.PLACE_OK) {
+				b.undo();
+				b = new Board(6, 12);
+				continue;
+			}
+			b.checkIncremental();
+			b.undo();
+			while (y > 0 && b.place(p, x, y - 1) <= Board.PLACE_ROW_FILLED) {
+				b.undo();
+				y--;
+			}
+			b.undo();
+			b.checkIncremental();
+			if (b.place(p, x, y) == Board.PLACE_ROW_FILLED) {
+				b.checkIncremental();
+				b.clearRows();
+			}
+			b.checkIncremental();
+			b.commit();
+		}
+
+		// a height out of sync with the masks is caught
+		b.heights[0]++;
+		try {
+			b.checkIncremental();
+			fail("heights out of sync not caught");
+		} catch (RuntimeException expected) {
+		}
+	}
+
+	@Test
+	public void testUndoClearRows() {
+		// undo must restore the rows that clearRows() moved down
+		Board b = new Board(4, 8);
+		b.place(new Piece(Piece.STICK_STR), 0, 0);
+		b.commit();
+		b.place(new Piece(Piece.SQUARE_STR), 1, 0);
+		b.commit();
+		String before = b.toString();
+
+		assertEquals(Board.PLACE_ROW_FILLED, b.place(new Piece(Piece.STICK_STR), 3, 0));
+		assertEquals(2, b.clearRows());
+		assertEquals(2, b.getColumnHeight(3));
+		assertEquals(0, b.getColumnHeight(1));
+		b.undo();
+
+		assertEquals(before, b.toString());
+		assertArrayEquals(new int[] { 4, 2, 2, 0 }, b.heights);
+		assertEquals(1, b.getRowWidth(2));
+		assertFalse(b.getGrid()[3][1]);
+	}
+
+	// checks the row masks, the grid and getGrid(x, y) of b against each other
+	private static void assertRowsMatchGrid(Board b) {
+		boolean[][] grid = b.getGrid();
+		for (int y = 0; y < b.getHeight(); y++) {
+			long row = 0;
+			for (int x = 0; x < b.getWidth(); x++) {
+				assertEquals(grid[x][y], b.getGrid(x, y));
+				if (grid[x][y]) {
+					row |= 1L << x;
+				}
+			}
+			assertEquals(row, b.rows[y]);
+			assertEquals(Long.bitCount(row), b.getRowWidth(y));
+		}
+	}
+
+	@Test
+	public void testRowMasks() {
+		// a grid filled in directly comes back from the masks
+		Board b = new Board(5, 6);
+		b.getGrid()[0][0] = b.getGrid()[4][0] = b.getGrid()[2][3] = true;
+		b.updateWidthsHeights();
+		assertEquals(0x11L, b.rows[0]);
+		assertEquals(0x04L, b.rows[3]);
+		assertRowsMatchGrid(b);
+
+		// the full row mask of the widest board
+		Board wide = new Board(Board.MAX_WIDTH, 4);
+		Piece stick = new Piece(Piece.STICK_STR).fastRotation();
+		for (int x = 0; x < Board.MAX_WIDTH - 4; x += 4) {
+			assertEquals(Board.PLACE_OK, wide.place(stick, x, 0));
+			wide.commit();
+		}
+		assertEquals(Board.PLACE_ROW_FILLED, wide.place(stick, Board.MAX_WIDTH - 4, 0));
+		assertEquals(-1L, wide.rows[0]);
+		assertEquals(Board.MAX_WIDTH, wide.getRowWidth(0));
+		assertEquals(1, wide.clearRows());
+		assertRowsMatchGrid(wide);
+		wide.undo();
+		assertEquals(-1L >>> 4, wide.rows[0]);
+		assertRowsMatchGrid(wide);
+
+		// random plays, clears and undos, the grid only asked for now and then
+		Random random = new Random(7);
+		Piece[] pieces = Piece.getPieces();
+		Board c = new Board(6, 12);
+		Board view = new Board(c);
+		for (int i = 0; i < 400; i++) {
+			// a view holds while c does not change, so a new one each time
+			if (i % 3 == 0) {
+				view = new Board(c);
+			}
+			Board board = (i % 3 == 0) ? view : c;
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(c.getWidth() - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			if (y + piece.getHeight() > board.getHeight()) {
+				c = new Board(6, 12);
+				view = new Board(c);
+				continue;
+			}
+			board.place(piece, x, y);
+			board.clearRows();
+			if (board == view || random.nextInt(4) == 0) {
+				board.undo();
+			} else {
+				board.commit();
+			}
+			if (random.nextInt(5) == 0) {
+				assertRowsMatchGrid(c);
+				assertRowsMatchGrid(view);
+			}
+		}
+		assertRowsMatchGrid(c);
+		assertRowsMatchGrid(c.copy());
+	}
+
+	@Test
+	public void testHash64() {
+		Board a = new Board(4, 8);
+		assertEquals(0, a.hash64());
+		Piece stick = new Piece(Piece.STICK_STR);
+		Piece square = new Piece(Piece.SQUARE_STR);
+
+		// same blocks in a different order, or filled in directly: same hash
+		a.place(stick, 0, 0);
+		a.commit();
+		a.place(square, 1, 0);
+		a.commit();
+		Board b = new Board(4, 8);
+		b.place(square, 1, 0);
+		b.commit();
+		b.place(stick, 0, 0);
+		b.commit();
+		assertEquals(a.hash64(), b.hash64());
+		Board c = new Board(4, 8);
+		for (int y = 0; y < 4; y++) {
+			c.getGrid()[0][y] = true;
+		}
+		c.getGrid()[1][0] = c.getGrid()[2][0] = c.getGrid()[1][1] = c.getGrid()[2][1] = true;
+		c.updateWidthsHeights();
+		assertEquals(a.hash64(), c.hash64());
+
+		// undo puts the hash back, after a place and after a clearRows
+		long before = a.hash64();
+		a.place(square, 2, 2);
+		assertNotEquals(before, a.hash64());
+		a.undo();
+		assertEquals(before, a.hash64());
+		a.place(stick, 3, 0);
+		a.clearRows();
+		long cleared = a.hash64();
+		a.undo();
+		assertEquals(before, a.hash64());
+
+		// clearing the two bottom rows leaves the top of the stick
+		Board d = new Board(4, 8);
+		d.getGrid()[0][0] = d.getGrid()[0][1] = d.getGrid()[3][0] = d.getGrid()[3][1] = true;
+		d.updateWidthsHeights();
+		assertEquals(d.hash64(), cleared);
+
+		Board e = new Board(4, 8);
+		e.copyFrom(a);
+		assertEquals(a.hash64(), e.hash64());
+	}
+
+	@Test
+	public void testDropHeight() {
+		Board b = new Board(5, 8);
+		Piece pyr = new Piece(Piece.PYRAMID_STR);
+		b.place(pyr, 0, 0);
+		b.commit();
+
+		// the S rests on the tip of the pyramid, the stick beside it
+		Piece s = new Piece(Piece.S1_STR);
+		assertEquals(2, b.dropHeight(s, 0));
+		assertEquals(2, b.dropHeight(s, 1));
+		assertEquals(1, b.dropHeight(s, 2));
+		assertEquals(0, b.dropHeight(new Piece(Piece.STICK_STR), 3));
+
+		int[] drops = new int[b.getWidth()];
+		assertEquals(3, b.dropHeights(s, drops));
+		for (int x = 0; x < 3; x++) {
+			assertEquals(b.dropHeight(s, x), drops[x]);
+		}
+	}
+
+	@Test
+	public void testCopy() {
+		Board a = new Board(4, 8);
+		a.place(new Piece(Piece.STICK_STR), 0, 0);
+		a.commit();
+		Board b = a.copy();
+		assertEquals(a.hash64(), b.hash64());
+		assertEquals(a.toString(), b.toString());
+
+		// the snapshot changes on its own, unlike a Board(Board) view
+		Board view = new Board(a);
+		b.place(new Piece(Piece.SQUARE_STR), 1, 0);
+		b.commit();
+		assertFalse(a.getGrid(1, 0));
+		assertTrue(b.getGrid(1, 0));
+		view.place(new Piece(Piece.SQUARE_STR), 2, 0);
+		assertTrue(a.getGrid(2, 0));
+		view.undo();
+		assertEquals(a.hash64(), a.copy().hash64());
+	}
+
+	@Test
+	public void testEncoding() {
+		Board a = new Board(10, 24);
+		a.place(new Piece(Piece.STICK_STR), 9, 0);
+		a.commit();
+		a.place(new Piece(Piece.PYRAMID_STR), 0, 0);
+		a.commit();
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		a.writeTo(buffer);
+		assertEquals(a.getEncodedSize(false), buffer.position());
+		assertEquals(7 + 4 * 2, buffer.position()); // 4 rows of 2 bytes
+		a.writeTo(buffer, true);
+		assertEquals(2 * a.getEncodedSize(false) + 20, buffer.position());
+
+		buffer.flip();
+		Board b = Board.readFrom(buffer);
+		assertEquals(a.toString(), b.toString());
+		assertEquals(a.hash64(), b.hash64());
+		assertEquals(4, b.getColumnHeight(9));
+
+		// with its heights, into a board that had blocks of its own
+		Board c = new Board(10, 24);
+		c.place(new Piece(Piece.SQUARE_STR), 4, 10);
+		c.read(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(a.toString(), c.toString());
+		assertEquals(a.hash64(), c.hash64());
+		assertEquals(2, c.getColumnHeight(1));
+
+		// the board read goes on like the original
+		assertEquals(Board.PLACE_OK, c.place(new Piece(Piece.STICK_STR).fastRotation(), 3, 0));
+		c.commit();
+		assertEquals(Board.PLACE_ROW_FILLED, c.place(new Piece(Piece.SQUARE_STR), 7, 0));
+		assertEquals(1, c.clearRows());
+
+		// an empty board is its header alone, and a wrong size is refused
+		buffer.clear();
+		new Board(10, 24).writeTo(buffer);
+		assertEquals(7, buffer.position());
+		buffer.flip();
+		try {
+			new Board(8, 24).read(buffer);
+			fail("board of another size read");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
 }
@@ -1,4 +1,5 @@
 // DefaultBrain.java
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Provided code. A simple Brain implementation. bestMove() iterates through all
@@ -9,15 +10,150 @@
  * board is and it just remembers the play with the lowest score. Undo() is used
  * to back-out each play before trying the next. To experiment with writing your
  * own brain -- just subclass off DefaultBrain and override rateBoard().
+ * 
+ * In parallel mode, when a piece has enough possible plays, bestMove() rates
+ * them on the common fork-join pool instead, each task on its own copy of the
+ * board, and returns the same move as the sequential search would. rateBoard()
+ * must then be safe to call from several threads at once.
+ *
+ * With a TranspositionTable set, boards are rated through it: a board that
+ * several plays lead to, or that comes back later in the game, is rated once.
+ *
+ * With a FeatureEvaluator set, rateBoard() is the evaluator's weighted sum of
+ * board features instead of the simple formula below.
+ *
+ * In reachable mode, the plays come from a MoveGenerator instead of straight
+ * drops: only the positions the piece can reach from where it appears, which
+ * include slides and rotations under overhangs. Each thread gets a generator
+ * of its own, so the brain can still be called from several threads.
+ *
+ * In batched mode, bestMove() places and rates all the plays of the piece at
+ * once in a BoardBatch, with the same scores and so the same move. It rates
+ * with the built in formula or the evaluator, never through an overridden
+ * rateBoard() or the transposition table. Each thread gets a batch of its
+ * own, of the size of the last board it rated.
  */
 
 public class DefaultBrain implements Brain {
+
+	private boolean parallel = false;
+	private int parallelThreshold = 48;
+	private TranspositionTable table;
+	private ThreadLocal<MoveGenerator> generators; // reachable mode when not null
+	private FeatureEvaluator evaluator;
+	private boolean batched = false;
+	private final ThreadLocal<BoardBatch> batches = new ThreadLocal<BoardBatch>(); // batched mode
+
+	/**
+	 * Turns the parallel mode of bestMove() on or off. It is off by default.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * Sets the number of possible plays below which bestMove() stays
+	 * sequential in parallel mode, since forking only pays off with enough
+	 * work to share.
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Turns the reachable mode of bestMove() on or off. It is off by default.
+	 */
+	public void setReachableOnly(boolean reachableOnly) {
+		if (!reachableOnly) {
+			this.generators = null;
+		} else if (this.generators == null) {
+			this.generators = new ThreadLocal<MoveGenerator>() {
+				protected MoveGenerator initialValue() {
+					return new MoveGenerator();
+				}
+			};
+		}
+	}
+
+	public boolean isReachableOnly() {
+		return this.generators != null;
+	}
+
+	/**
+	 * Turns the batched mode of bestMove() on or off. It is off by default.
+	 * Parallel mode, when it forks, comes first.
+	 */
+	public void setBatched(boolean batched) {
+		this.batched = batched;
+	}
+
+	public boolean isBatched() {
+		return this.batched;
+	}
+
+	/**
+	 * Sets the evaluator rateBoard() uses, or null for the built in formula
+	 * (the default).
+	 */
+	public void setEvaluator(FeatureEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	public FeatureEvaluator getEvaluator() {
+		return this.evaluator;
+	}
+
+	/**
+	 * Sets the table that caches rateBoard() scores, or null for none (the
+	 * default). The table may be shared with other brains of the same kind.
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	public TranspositionTable getTranspositionTable() {
+		return this.table;
+	}
+
+	/**
+	 * Returns rateBoard(board), looked up by the board's hash in the
+	 * transposition table when there is one, and stored there after a miss.
+	 * The rows the play just cleared are part of the key, since rateBoard()
+	 * may rate them (FeatureEvaluator.LINES_CLEARED) and the blocks left do
+	 * not show them.
+	 */
+	protected double cachedRateBoard(Board board) {
+		if (this.table == null) {
+			return rateBoard(board);
+		}
+		long key = board.hash64();
+		if (board.getRowsCleared() > 0) {
+			// a key below the board, where no block or piece can be
+			key ^= Board.zobristKey(board.getRowsCleared(), -1);
+		}
+		double score = this.table.probe(key, 0);
+		if (Double.isNaN(score)) {
+			score = rateBoard(board);
+			this.table.store(key, 0, score);
+		}
+		return score;
+	}
+
 	/**
 	 * Given a piece and a board, returns a move object that represents the best
 	 * play for that piece, or returns null if no play is possible. See the
 	 * Brain interface for details.
 	 */
 	public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+		boolean fork = this.parallel && countPlays(board, piece) >= this.parallelThreshold;
+		if (fork || this.generators != null || this.batched) {
+			return listedBestMove(board, piece, limitHeight, fork);
+		}
+
 		Brain.Move move = new Brain.Move();
 		board = new Board(board);
 
@@ -26,17 +162,18 @@ public class DefaultBrain implements Brain {
 		int bestY = 0;
 		Piece bestPiece = null;
 		Piece current = new Piece(piece);
+		int[] drops = new int[board.getWidth()];
 
 		board.commit();
 
 		// loop through all the rotations
 		while (true) {
 			final int yBound = limitHeight - current.getHeight() + 1;
-			final int xBound = board.getWidth() - current.getWidth() + 1;
+			final int xBound = board.dropHeights(current, drops);
 
 			// For current rotation, try all the possible columns
 			for (int x = 0; x < xBound; x++) {
-				int y = board.dropHeight(current, x);
+				int y = drops[x];
 				if (y > yBound) { // piece does stick up too far
 					continue;
 				}
@@ -46,7 +183,7 @@ public class DefaultBrain implements Brain {
 						board.clearRows();
 					}
 
-					double score = rateBoard(board);
+					double score = cachedRateBoard(board);
 					if (score < bestScore) {
 						bestScore = score;
 						bestX = x;
@@ -58,7 +195,7 @@ public class DefaultBrain implements Brain {
 				board.undo();
 			}
 			
-			current = current.computeNextRotation();
+			current = current.fastRotation();
 			if (current.equals(piece)) {
 				break; // break if back to original rotation
 			}
@@ -75,12 +212,201 @@ public class DefaultBrain implements Brain {
 		}
 	}
 
+	/**
+	 * Returns the number of (rotation, x) plays bestMove() considers for the
+	 * given piece before checking where they land. In reachable mode, returns
+	 * MoveGenerator.maxMoves() instead, a bound that does not depend on the
+	 * blocks of the board either.
+	 */
+	protected int countPlays(Board board, Piece piece) {
+		if (this.generators != null) {
+			return MoveGenerator.maxMoves(board, piece);
+		}
+		int count = 0;
+		Piece current = piece;
+		do {
+			count += board.getWidth() - current.getWidth() + 1;
+			current = current.fastRotation();
+		} while (!current.equals(piece));
+		return count;
+	}
+
+	/**
+	 * Lists the plays of the piece that do not stick up too far, in the order
+	 * bestMove() tries them: rotation by rotation, then left to right. Stores
+	 * each play's rotation, x and landing y at the same index of the given
+	 * arrays, which must hold countPlays() entries, and returns the number of
+	 * plays listed. In reachable mode, lists the reachable positions in the
+	 * order of the MoveGenerator.
+	 */
+	protected int listPlays(Board board, Piece piece, int limitHeight, Piece[] pieces, int[] xs, int[] ys) {
+		return listPlays(board, piece, limitHeight, pieces, xs, ys, new int[board.getWidth()]);
+	}
+
+	/**
+	 * Same as above, with a buffer of board.getWidth() drop heights to work
+	 * in, for searches that list plays at every node and allocate nothing.
+	 */
+	protected int listPlays(Board board, Piece piece, int limitHeight, Piece[] pieces, int[] xs, int[] ys,
+			int[] drops) {
+		int n = 0;
+		ThreadLocal<MoveGenerator> generators = this.generators;
+		if (generators != null) {
+			MoveGenerator generator = generators.get();
+			int count = generator.generate(board, piece);
+			for (int i = 0; i < count; i++) {
+				Piece current = generator.getPiece(i);
+				if (generator.getY(i) <= limitHeight - current.getHeight() + 1) {
+					pieces[n] = current;
+					xs[n] = generator.getX(i);
+					ys[n] = generator.getY(i);
+					n++;
+				}
+			}
+			return n;
+		}
+
+		Piece current = piece;
+		do {
+			final int yBound = limitHeight - current.getHeight() + 1;
+			final int xBound = board.dropHeights(current, drops);
+			for (int x = 0; x < xBound; x++) {
+				if (drops[x] <= yBound) {
+					pieces[n] = current;
+					xs[n] = x;
+					ys[n] = drops[x];
+					n++;
+				}
+			}
+			current = current.fastRotation();
+		} while (!current.equals(piece));
+		return n;
+	}
+
+	/**
+	 * The version of bestMove() for parallel, reachable and batched modes.
+	 * Lists the plays with listPlays(), rates them into an array of scores --
+	 * on the fork-join pool when fork is true, in a BoardBatch in batched mode
+	 * -- and then picks the first lowest score in list order, so ties are
+	 * broken exactly as in the sequential loops.
+	 */
+	protected Brain.Move listedBestMove(Board board, Piece piece, int limitHeight, boolean fork) {
+		int count = countPlays(board, piece);
+		Piece[] pieces = new Piece[count];
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+
+		double[] scores = new double[n];
+		if (fork) {
+			new RateTask(board, pieces, xs, ys, scores, 0, n).invoke();
+		} else if (this.batched) {
+			BoardBatch batch = this.batches.get();
+			if (batch == null || batch.getWidth() != board.getWidth() || batch.getHeight() != board.getHeight()
+					|| batch.getCapacity() < n) {
+				batch = new BoardBatch(board.getWidth(), board.getHeight(), Math.max(n, count));
+				this.batches.set(batch);
+			}
+			batch.fill(board, n);
+			batch.placeAll(pieces, xs, ys, n);
+			batch.clearRowsAll(n);
+			batch.rateAll(this.evaluator, scores, n);
+		} else {
+			Board scratch = new Board(board);
+			scratch.commit();
+			ratePlays(scratch, pieces, xs, ys, scores, 0, n);
+		}
+
+		double bestScore = 1e20;
+		int best = -1;
+		for (int i = 0; i < n; i++) {
+			if (scores[i] < bestScore) {
+				bestScore = scores[i];
+				best = i;
+			}
+		}
+
+		if (best < 0) {
+			return null; // could not find a play at all!
+		}
+		Brain.Move move = new Brain.Move();
+		move.x = xs[best];
+		move.y = ys[best];
+		move.piece = pieces[best];
+		move.score = bestScore;
+		return move;
+	}
+
+	/**
+	 * Rates plays [from, to) of the list into scores, splitting the range in
+	 * halves down to a few plays per task. Each leaf plays on its own copy of
+	 * the board.
+	 */
+	private class RateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int LEAF_SIZE = 8;
+
+		private final Board board;
+		private final Piece[] pieces;
+		private final int[] xs;
+		private final int[] ys;
+		private final double[] scores;
+		private final int from;
+		private final int to;
+
+		RateTask(Board board, Piece[] pieces, int[] xs, int[] ys, double[] scores, int from, int to) {
+			this.board = board;
+			this.pieces = pieces;
+			this.xs = xs;
+			this.ys = ys;
+			this.scores = scores;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > LEAF_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RateTask(board, pieces, xs, ys, scores, from, middle),
+						new RateTask(board, pieces, xs, ys, scores, middle, to));
+				return;
+			}
+
+			Board scratch = new Board(board.getWidth(), board.getHeight());
+			scratch.copyFrom(board);
+			ratePlays(scratch, pieces, xs, ys, scores, from, to);
+		}
+	}
+
+	/**
+	 * Rates plays [from, to) of the list into scores on the committed board,
+	 * undoing each one. Plays that cannot be placed get an infinite score.
+	 */
+	private void ratePlays(Board board, Piece[] pieces, int[] xs, int[] ys, double[] scores, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int result = board.place(pieces[i], xs[i], ys[i]);
+			if (result <= Board.PLACE_ROW_FILLED) {
+				if (result == Board.PLACE_ROW_FILLED) {
+					board.clearRows();
+				}
+				scores[i] = cachedRateBoard(board);
+			} else {
+				scores[i] = Double.POSITIVE_INFINITY;
+			}
+			board.undo();
+		}
+	}
+
 	/*
 	 * A simple brain function. Given a board, produce a number that rates that
 	 * board position -- larger numbers for worse boards. This version just
 	 * counts the height and the number of "holes" in the board.
 	 */
 	public double rateBoard(Board board) {
+		if (this.evaluator != null) {
+			return this.evaluator.rate(board);
+		}
+
 		final int width = board.getWidth();
 		final int maxHeight = board.getMaxHeight();
 
@@ -0,0 +1,368 @@
+// ExpectimaxBrain.java
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A brain that plans for the pieces it cannot see yet. The game draws every
+ * piece uniformly from Piece.getPieces(), so each play of the current piece
+ * is rated by the average, over the 7 pieces that may come next, of the best
+ * reply of that piece: an expectimax search, whose chance nodes average over
+ * the pieces and whose other nodes keep the best play. With a depth of d, the
+ * search goes d unknown pieces deep; preview pieces, when given, are played
+ * first, as known pieces, before the unknown ones.
+ *
+ * Each level multiplies the work by 7 pieces times 10-30 plays, so like
+ * LookaheadBrain only the top-K plays of a piece, as rated by rateBoard() on
+ * their own, are searched further. Chance nodes are memoized by the hash of
+ * their board in a TranspositionTable owned by the brain, which stays valid
+ * from one move to the next. In parallel mode, the default, the chance nodes
+ * under the kept plays of the current piece are searched on the common
+ * fork-join pool, one task per kept play and next piece; each thread searches
+ * on scratch boards and play lists of its own, allocated once per thread.
+ * Only the root allocates on every call: its play lists, the boards its kept
+ * plays leave and the tasks. The search gives the same move in both modes,
+ * reachable mode included.
+ */
+public class ExpectimaxBrain extends LookaheadBrain {
+
+	/**
+	 * The score of a board on which the next piece cannot be played: worse
+	 * than any board rateBoard() gives, but finite so that averages still
+	 * tell a likely loss from a certain one.
+	 */
+	public static final double GAME_OVER = 1e6;
+
+	private int depth = 1;
+	private final TranspositionTable memo;
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+	/**
+	 * Creates a brain searching 1 unknown piece deep, with room for 65536
+	 * chance nodes in its memo.
+	 */
+	public ExpectimaxBrain() {
+		this(1 << 16);
+	}
+
+	/**
+	 * Creates a brain whose memo holds the given number of chance nodes.
+	 */
+	public ExpectimaxBrain(int memoCapacity) {
+		this.memo = new TranspositionTable(memoCapacity);
+		setParallel(true);
+	}
+
+	/**
+	 * Sets how many unknown pieces deep the search goes. 1 by default; each
+	 * more costs about 7 * topK times the work.
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth must be at least 1");
+		}
+		this.depth = depth;
+	}
+
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Returns the table the chance nodes are memoized in.
+	 */
+	public TranspositionTable getMemo() {
+		return this.memo;
+	}
+
+	// the settings below change the value of the chance nodes: forget them
+
+	public void setTopK(int topK) {
+		super.setTopK(topK);
+		this.memo.clear();
+	}
+
+	public void setEvaluator(FeatureEvaluator evaluator) {
+		super.setEvaluator(evaluator);
+		this.memo.clear();
+	}
+
+	public void setReachableOnly(boolean reachableOnly) {
+		super.setReachableOnly(reachableOnly);
+		this.memo.clear();
+	}
+
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+		return bestMove(board, piece, null, limitHeight);
+	}
+
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight) {
+		final Piece[] known = (preview == null) ? new Piece[0] : preview;
+		final int width = board.getWidth();
+		final int height = board.getHeight();
+
+		int count = countPlays(board, piece);
+		Piece[] pieces = new Piece[count];
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+
+		Board root = new Board(width, height);
+		root.copyFrom(board);
+		double[] scores = new double[n];
+		for (int i = 0; i < n; i++) {
+			scores[i] = ratePlay(root, pieces[i], xs[i], ys[i]);
+		}
+		int[] kept = new int[Math.min(getTopK(), n)];
+		int size = keepBest(scores, n, kept);
+		if (size == 0) {
+			return null; // could not find a play at all!
+		}
+
+		Board[] children = new Board[size];
+		for (int j = 0; j < size; j++) {
+			int i = kept[j];
+			children[j] = new Board(width, height);
+			children[j].copyFrom(board);
+			if (children[j].place(pieces[i], xs[i], ys[i]) == Board.PLACE_ROW_FILLED) {
+				children[j].clearRows();
+			}
+			children[j].commit();
+		}
+		double[] values = searchChildren(children, known, limitHeight);
+
+		double bestScore = Double.POSITIVE_INFINITY;
+		int best = kept[0];
+		for (int j = 0; j < size; j++) {
+			if (values[j] < bestScore) {
+				bestScore = values[j];
+				best = kept[j];
+			}
+		}
+		Brain.Move move = new Brain.Move();
+		move.x = xs[best];
+		move.y = ys[best];
+		move.piece = pieces[best];
+		move.score = bestScore;
+		return move;
+	}
+
+	/**
+	 * Returns the value of each board left by a kept play of the current
+	 * piece, searching them on the fork-join pool in parallel mode.
+	 */
+	private double[] searchChildren(Board[] children, Piece[] known, int limitHeight) {
+		final int size = children.length;
+		double[] values = new double[size];
+		List<NodeTask> tasks = new ArrayList<NodeTask>();
+
+		if (known.length > 0) {
+			// the next piece is known: one task per child
+			for (int j = 0; j < size; j++) {
+				tasks.add(new NodeTask(children[j], known[0], known, this.depth, limitHeight, values, j));
+			}
+			run(tasks);
+			return values;
+		}
+
+		// a chance node per child: one task per child and piece, save for
+		// the children found in the memo
+		Piece[] all = Piece.getPieces();
+		double[][] replies = new double[size][];
+		long[] keys = new long[size];
+		for (int j = 0; j < size; j++) {
+			keys[j] = chanceKey(children[j], this.depth, limitHeight);
+			values[j] = this.memo.probe(keys[j], 0);
+			if (Double.isNaN(values[j])) {
+				replies[j] = new double[all.length];
+				for (int p = 0; p < all.length; p++) {
+					tasks.add(new NodeTask(children[j], all[p], known, this.depth - 1, limitHeight, replies[j], p));
+				}
+			}
+		}
+		run(tasks);
+		for (int j = 0; j < size; j++) {
+			if (replies[j] != null) {
+				values[j] = average(replies[j]);
+				this.memo.store(keys[j], 0, values[j]);
+			}
+		}
+		return values;
+	}
+
+	private void run(List<NodeTask> tasks) {
+		if (isParallel() && tasks.size() > 1) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			for (NodeTask task : tasks) {
+				task.invoke();
+			}
+		}
+	}
+
+	/**
+	 * Plays a piece on the board a kept play of the current piece left, at
+	 * ply 1 of the search, and stores the value of the best line into
+	 * out[index]. The board is only read, so tasks can share it.
+	 */
+	private class NodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Board board;
+		private final Piece piece;
+		private final Piece[] known;
+		private final int chance;
+		private final int limitHeight;
+		private final double[] out;
+		private final int index;
+
+		NodeTask(Board board, Piece piece, Piece[] known, int chance, int limitHeight, double[] out, int index) {
+			this.board = board;
+			this.piece = piece;
+			this.known = known;
+			this.chance = chance;
+			this.limitHeight = limitHeight;
+			this.out = out;
+			this.index = index;
+		}
+
+		protected void compute() {
+			Scratch s = scratch(board, known.length + depth + 2);
+			s.boards[1].copyFrom(board);
+			out[index] = value(s, 1, piece, known, chance, limitHeight);
+		}
+	}
+
+	/**
+	 * Returns the value of playing the piece on s.boards[ply]: the best score
+	 * of its plays once the known pieces after ply and then chance more
+	 * unknown pieces are played, or GAME_OVER if it cannot be played.
+	 * s.boards[ply + 1] and up are scratch space.
+	 */
+	private double value(Scratch s, int ply, Piece piece, Piece[] known, int chance, int limitHeight) {
+		Board board = s.boards[ply];
+		s.reserve(ply, countPlays(board, piece));
+		Piece[] pieces = s.pieces[ply];
+		int[] xs = s.xs[ply];
+		int[] ys = s.ys[ply];
+
+		if (ply >= known.length && chance == 0) {
+			double best = bestReply(board, piece, limitHeight, pieces, xs, ys);
+			return (best == Double.POSITIVE_INFINITY) ? GAME_OVER : best;
+		}
+
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+		double[] scores = s.scores[ply];
+		for (int i = 0; i < n; i++) {
+			scores[i] = ratePlay(board, pieces[i], xs[i], ys[i]);
+		}
+		int[] kept = s.kept[ply];
+		int size = keepBest(scores, n, kept);
+
+		double best = GAME_OVER;
+		Board child = s.boards[ply + 1];
+		for (int j = 0; j < size; j++) {
+			int i = kept[j];
+			child.copyFrom(board);
+			if (child.place(pieces[i], xs[i], ys[i]) == Board.PLACE_ROW_FILLED) {
+				child.clearRows();
+			}
+			child.commit();
+
+			double score = (ply < known.length) ? value(s, ply + 1, known[ply], known, chance, limitHeight)
+					: chanceValue(s, ply + 1, known, chance, limitHeight);
+			best = Math.min(best, score);
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the average over the 7 pieces of the value of playing each on
+	 * s.boards[ply] and then chance - 1 more unknown pieces, looked up in the
+	 * memo first.
+	 */
+	private double chanceValue(Scratch s, int ply, Piece[] known, int chance, int limitHeight) {
+		Board board = s.boards[ply];
+		long key = chanceKey(board, chance, limitHeight);
+		double cached = this.memo.probe(key, 0);
+		if (!Double.isNaN(cached)) {
+			return cached;
+		}
+
+		Piece[] all = Piece.getPieces();
+		double sum = 0;
+		for (Piece p : all) {
+			sum += value(s, ply, p, known, chance - 1, limitHeight);
+		}
+		double result = sum / all.length;
+		this.memo.store(key, 0, result);
+		return result;
+	}
+
+	/**
+	 * Hashes a chance node: its board with the number of unknown pieces left
+	 * and the height limit, as a key of a block far above the board, where
+	 * neither the board nor positionKey() put any.
+	 */
+	private static long chanceKey(Board board, int chance, int limitHeight) {
+		return board.hash64() ^ Board.zobristKey(chance, board.getHeight() + 4 + limitHeight);
+	}
+
+	private static double average(double[] values) {
+		double sum = 0;
+		for (double v : values) {
+			sum += v;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * Returns the scratch space of the current thread, allocating it when the
+	 * thread has none yet or when it is too small for the board, the number
+	 * of plies or the top-K setting.
+	 */
+	private Scratch scratch(Board board, int plies) {
+		Scratch s = this.scratch.get();
+		if (s == null || s.boards.length < plies || s.boards[0].getWidth() != board.getWidth()
+				|| s.boards[0].getHeight() != board.getHeight() || s.kept[0].length != getTopK()) {
+			s = new Scratch(board.getWidth(), board.getHeight(), plies, getTopK());
+			this.scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * One board and one set of play lists per ply of the search.
+	 */
+	private static class Scratch {
+		final Board[] boards;
+		final Piece[][] pieces;
+		final int[][] xs;
+		final int[][] ys;
+		final double[][] scores;
+		final int[][] kept;
+
+		Scratch(int width, int height, int plies, int topK) {
+			this.boards = new Board[plies];
+			this.pieces = new Piece[plies][0];
+			this.xs = new int[plies][0];
+			this.ys = new int[plies][0];
+			this.scores = new double[plies][0];
+			this.kept = new int[plies][topK];
+			for (int i = 0; i < plies; i++) {
+				this.boards[i] = new Board(width, height);
+			}
+		}
+
+		// makes room for count plays at the given ply
+		void reserve(int ply, int count) {
+			if (this.xs[ply].length < count) {
+				this.pieces[ply] = new Piece[count];
+				this.xs[ply] = new int[count];
+				this.ys[ply] = new int[count];
+				this.scores[ply] = new double[count];
+			}
+		}
+	}
+}
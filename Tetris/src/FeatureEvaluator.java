@@ -0,0 +1,214 @@
+// FeatureEvaluator.java
+
+/**
+ * Rates boards as a weighted sum of features, lower being better, like
+ * DefaultBrain.rateBoard() but with more features and weights given at
+ * construction instead of built in. The features of a board are computed
+ * together, in one pass over the blocks of each column and one pass over the
+ * row masks, into a double[] of FEATURE_COUNT values indexed by the constants
+ * below:
+ *
+ * <ul>
+ * <li>MAX_HEIGHT: the height of the tallest column.
+ * <li>AGGREGATE_HEIGHT: the sum of the column heights.
+ * <li>HOLES: empty blocks with a filled block above them in their column.
+ * <li>BUMPINESS: the sum of the height differences of neighbor columns.
+ * <li>ROW_TRANSITIONS: filled/empty changes along the rows below the top of
+ * the stack, the side walls counting as filled.
+ * <li>COLUMN_TRANSITIONS: filled/empty changes up each column, from the floor,
+ * which counts as filled, to the top of the column.
+ * <li>WELLS: for each column lower than both its neighbors (or neighbor and
+ * wall), 1 + 2 + ... + its depth, since deep wells cost more than shallow
+ * ones.
+ * <li>COVERED: for each hole, the filled blocks above it in its column.
+ * <li>LINES_CLEARED: Board.getRowsCleared(), the rows the play just cleared.
+ * </ul>
+ *
+ * An evaluator has no state besides its weights, so one may be shared by
+ * threads; rate(Board) keeps one feature buffer per thread so that rating a
+ * board allocates nothing.
+ */
+public class FeatureEvaluator {
+
+	public static final int MAX_HEIGHT = 0;
+	public static final int AGGREGATE_HEIGHT = 1;
+	public static final int HOLES = 2;
+	public static final int BUMPINESS = 3;
+	public static final int ROW_TRANSITIONS = 4;
+	public static final int COLUMN_TRANSITIONS = 5;
+	public static final int WELLS = 6;
+	public static final int COVERED = 7;
+	public static final int LINES_CLEARED = 8;
+	public static final int FEATURE_COUNT = 9;
+
+	private static final String[] NAMES = { "maxHeight", "aggregateHeight", "holes", "bumpiness",
+			"rowTransitions", "columnTransitions", "wells", "covered", "linesCleared" };
+
+	private static final ThreadLocal<double[]> BUFFER = new ThreadLocal<double[]>() {
+		protected double[] initialValue() {
+			return new double[FEATURE_COUNT];
+		}
+	};
+
+	private final double[] weights;
+
+	/**
+	 * Creates an evaluator with one weight per feature, indexed like the
+	 * features. The weights are copied.
+	 */
+	public FeatureEvaluator(double[] weights) {
+		if (weights.length != FEATURE_COUNT) {
+			throw new IllegalArgumentException("expected " + FEATURE_COUNT + " weights, got " + weights.length);
+		}
+		this.weights = weights.clone();
+	}
+
+	/**
+	 * Returns the weights that make rate() give the same scores as
+	 * DefaultBrain.rateBoard() on boards of the given width, up to rounding:
+	 * 8 * maxHeight + 40 * averageHeight + 1.25 * holes.
+	 */
+	public static double[] defaultWeights(int width) {
+		double[] weights = new double[FEATURE_COUNT];
+		weights[MAX_HEIGHT] = 8;
+		weights[AGGREGATE_HEIGHT] = 40.0 / width;
+		weights[HOLES] = 1.25;
+		return weights;
+	}
+
+	/**
+	 * Returns weights after Pierre Dellacherie's hand tuned player, which
+	 * rates holes, transitions and wells, and rewards cleared lines. His
+	 * landing height feature is left out, since it belongs to the play rather
+	 * than to the board.
+	 */
+	public static double[] dellacherieWeights() {
+		double[] weights = new double[FEATURE_COUNT];
+		weights[HOLES] = 7.9;
+		weights[ROW_TRANSITIONS] = 3.2;
+		weights[COLUMN_TRANSITIONS] = 9.3;
+		weights[WELLS] = 3.4;
+		weights[LINES_CLEARED] = -3.4;
+		return weights;
+	}
+
+	/**
+	 * Returns a copy of the weights.
+	 */
+	public double[] getWeights() {
+		return this.weights.clone();
+	}
+
+	/**
+	 * Returns the name of the given feature, e.g. "holes".
+	 */
+	public static String getName(int feature) {
+		return NAMES[feature];
+	}
+
+	/**
+	 * Rates the board: the sum of its features times their weights.
+	 */
+	public double rate(Board board) {
+		return rate(board, BUFFER.get());
+	}
+
+	/**
+	 * Same as above, leaving the features of the board in the given array.
+	 */
+	public double rate(Board board, double[] features) {
+		computeFeatures(board, features);
+		double score = 0;
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			score += this.weights[i] * features[i];
+		}
+		return score;
+	}
+
+	/**
+	 * Computes the features of the board into the given array, which must
+	 * hold FEATURE_COUNT values.
+	 */
+	public static void computeFeatures(Board board, double[] features) {
+		final int width = board.getWidth();
+		final long[] rows = board.rows;
+
+		int maxHeight = 0;
+		int aggregateHeight = 0;
+		int holes = 0;
+		int bumpiness = 0;
+		int columnTransitions = 0;
+		int wells = 0;
+		int covered = 0;
+
+		// one pass down each column, top block first
+		int left = Integer.MAX_VALUE; // the wall
+		for (int x = 0; x < width; x++) {
+			final int height = board.getColumnHeight(x);
+			final long bit = 1L << x;
+			maxHeight = Math.max(maxHeight, height);
+			aggregateHeight += height;
+
+			int filled = 0; // blocks above y
+			boolean above = true; // is (x, y + 1) filled
+			for (int y = height - 1; y >= 0; y--) {
+				final boolean block = (rows[y] & bit) != 0;
+				if (block) {
+					filled++;
+				} else {
+					holes++;
+					covered += filled;
+				}
+				if (block != above) {
+					columnTransitions++;
+				}
+				above = block;
+			}
+			if (!above) {
+				columnTransitions++; // the floor
+			}
+
+			int right = (x + 1 < width) ? board.getColumnHeight(x + 1) : Integer.MAX_VALUE;
+			if (x + 1 < width) {
+				bumpiness += Math.abs(height - right);
+			}
+			int depth = Math.min(left, right) - height;
+			if (depth > 0 && depth < Integer.MAX_VALUE - height) {
+				wells += depth * (depth + 1) / 2;
+			}
+			left = height;
+		}
+
+		// row transitions from the row masks, walls counted as filled
+		int rowTransitions = 0;
+		final long inner = (width == Board.MAX_WIDTH) ? -1L >>> 1 : (1L << (width - 1)) - 1;
+		for (int y = 0; y < maxHeight; y++) {
+			long row = rows[y];
+			rowTransitions += Long.bitCount((row ^ (row >>> 1)) & inner);
+			if ((row & 1) == 0) {
+				rowTransitions++;
+			}
+			if ((row >>> (width - 1) & 1) == 0) {
+				rowTransitions++;
+			}
+		}
+
+		features[MAX_HEIGHT] = maxHeight;
+		features[AGGREGATE_HEIGHT] = aggregateHeight;
+		features[HOLES] = holes;
+		features[BUMPINESS] = bumpiness;
+		features[ROW_TRANSITIONS] = rowTransitions;
+		features[COLUMN_TRANSITIONS] = columnTransitions;
+		features[WELLS] = wells;
+		features[COVERED] = covered;
+		features[LINES_CLEARED] = board.getRowsCleared();
+	}
+
+	public String toString() {
+		StringBuilder buff = new StringBuilder();
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			buff.append(i == 0 ? "" : ", ").append(NAMES[i]).append('=').append(this.weights[i]);
+		}
+		return buff.toString();
+	}
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FeatureEvaluatorTest {
+
+	@Test
+	public void testFeatures() {
+		// |     |
+		// | +   |
+		// |++ + |
+		// |+ ++ |
+		// -------
+		Board b = new Board(5, 6);
+		b.getGrid()[0][0] = b.getGrid()[0][1] = true;
+		b.getGrid()[1][1] = b.getGrid()[1][2] = true;
+		b.getGrid()[2][0] = true;
+		b.getGrid()[3][0] = b.getGrid()[3][1] = true;
+		b.updateWidthsHeights();
+
+		double[] features = new double[FeatureEvaluator.FEATURE_COUNT];
+		FeatureEvaluator.computeFeatures(b, features);
+		assertEquals(3, features[FeatureEvaluator.MAX_HEIGHT], 0);
+		assertEquals(2 + 3 + 1 + 2 + 0, features[FeatureEvaluator.AGGREGATE_HEIGHT], 0);
+		assertEquals(1, features[FeatureEvaluator.HOLES], 0);
+		assertEquals(1 + 2 + 1 + 2, features[FeatureEvaluator.BUMPINESS], 0);
+		// rows from the bottom: |+ ++ | |++ + | | +   |
+		assertEquals(4 + 4 + 4, features[FeatureEvaluator.ROW_TRANSITIONS], 0);
+		// only column 1 changes: the hole, then the floor
+		assertEquals(2, features[FeatureEvaluator.COLUMN_TRANSITIONS], 0);
+		// columns 0 and 2 are 1 deep, column 4 is 2 deep against the wall
+		assertEquals(1 + 1 + 3, features[FeatureEvaluator.WELLS], 0);
+		assertEquals(2, features[FeatureEvaluator.COVERED], 0);
+		assertEquals(0, features[FeatureEvaluator.LINES_CLEARED], 0);
+
+		double[] weights = new double[FeatureEvaluator.FEATURE_COUNT];
+		weights[FeatureEvaluator.HOLES] = 10;
+		weights[FeatureEvaluator.WELLS] = -1;
+		assertEquals(5, new FeatureEvaluator(weights).rate(b), 0);
+	}
+
+	@Test
+	public void testLinesCleared() {
+		Board b = new Board(4, 8);
+		b.place(new Piece(Piece.SQUARE_STR), 0, 0);
+		b.commit();
+		b.place(new Piece(Piece.SQUARE_STR), 2, 0);
+		b.clearRows();
+		double[] features = new double[FeatureEvaluator.FEATURE_COUNT];
+		FeatureEvaluator.computeFeatures(b, features);
+		assertEquals(2, features[FeatureEvaluator.LINES_CLEARED], 0);
+		assertEquals(0, features[FeatureEvaluator.MAX_HEIGHT], 0);
+		b.undo();
+		assertEquals(0, b.getRowsCleared());
+	}
+
+	@Test
+	public void testDefaultWeights() {
+		// the default weights rate boards like DefaultBrain does
+		DefaultBrain brain = new DefaultBrain();
+		FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.defaultWeights(10));
+		Random random = new Random(7);
+		for (int n = 0; n < 50; n++) {
+			Board b = new Board(10, 24);
+			for (int x = 0; x < 10; x++) {
+				for (int y = random.nextInt(12); y >= 0; y--) {
+					b.getGrid()[x][y] = random.nextInt(4) > 0;
+				}
+			}
+			b.updateWidthsHeights();
+			assertEquals(brain.rateBoard(b), evaluator.rate(b), 1e-9);
+		}
+
+		// and play the same game
+		DefaultBrain weighted = new DefaultBrain();
+		weighted.setEvaluator(evaluator);
+		BatchSimulator sim = new BatchSimulator(10, 20, 300, 1);
+		long[] seeds = BatchSimulator.seeds(3, 2);
+		assertArrayEquals(sim.run(DefaultBrain::new, seeds).scores, sim.run(() -> weighted, seeds).scores);
+	}
+}
@@ -0,0 +1,696 @@
+// GameEngine.java
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * GameEngine plays a game of tetris without any display: it owns the board,
+ * the random generator and the score, and applies the same rules JTetris
+ * shows on screen -- spawning, moving, landing and scoring pieces. JTetris
+ * delegates to it, and since nothing here waits on a timer, simulations can
+ * call step() or dropWithBrain() as fast as the CPU allows.
+ *
+ * Typical headless client code looks like...
+ *
+ * <pre>
+ * GameEngine engine = new GameEngine(10, 20);
+ * engine.startGame(new Random(seed));
+ * while (engine.dropWithBrain(brain)) {
+ * }
+ * int score = engine.getScore();
+ * </pre>
+ */
+public class GameEngine {
+
+	// Verbs for step()
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	// Extra blocks at the top for pieces to start.
+	// If a piece is sticking up into this area
+	// when it has landed -- game over!
+	public static final int TOP_SPACE = 4;
+
+	// Board data structures
+	protected Board board;
+	protected Piece[] pieces;
+	protected Random random;
+
+	// The current piece in play or null
+	protected Piece currentPiece;
+	protected int currentX;
+	protected int currentY;
+	protected boolean moved; // did the player move the piece
+
+	// The piece we're thinking about playing
+	// -- set by computeNewPosition
+	protected Piece newPiece;
+	protected int newX;
+	protected int newY;
+
+	// State of the game
+	protected boolean gameOn; // true if we are playing
+	protected int count; // how many pieces played so far
+	protected int placed; // how many pieces landed so far
+	protected int score;
+	protected int lines; // how many rows cleared so far
+	protected int lastCleared; // rows cleared by the last step
+	protected int pieceLimit; // stop after that many pieces, 0 for no limit
+
+	// The next pieces, drawn ahead of time, preview[0] coming first
+	protected Piece[] preview = new Piece[0];
+
+	protected long seed; // of the random generator, when startGame() got one
+	protected GameListener listener;
+
+	/**
+	 * Creates an engine for a board of the given width and playing height,
+	 * measured in blocks. The board gets TOP_SPACE extra rows on top of the
+	 * playing height for new pieces to start in.
+	 */
+	public GameEngine(int width, int height) {
+		this.pieces = Piece.getPieces();
+		this.board = new Board(width, height + TOP_SPACE);
+	}
+
+	/**
+	 * Starts a new game on an empty board, drawing pieces from a random
+	 * generator made from the given seed, which getSeed() then returns -- and
+	 * replays record.
+	 */
+	public void startGame(long seed) {
+		startGame(new SeededRandom(seed), seed);
+	}
+
+	/**
+	 * Starts a new game on an empty board, drawing pieces from the given random
+	 * generator, and adds the first piece.
+	 */
+	public void startGame(Random random) {
+		startGame(random, 0);
+	}
+
+	private void startGame(Random random, long seed) {
+		this.seed = seed;
+		this.board = new Board(this.board.getWidth(), this.board.getHeight());
+		this.random = random;
+		this.currentPiece = null;
+		this.moved = false;
+		this.count = 0;
+		this.placed = 0;
+		this.score = 0;
+		this.lines = 0;
+		this.lastCleared = 0;
+		this.gameOn = true;
+		if (this.listener != null) {
+			this.listener.gameStarted(this);
+		}
+
+		for (int i = 0; i < this.preview.length; i++) {
+			this.preview[i] = drawPiece();
+		}
+		addNewPiece();
+	}
+
+	/**
+	 * Stops the game. step() and dropWithBrain() do nothing afterwards.
+	 */
+	public void stopGame() {
+		if (this.gameOn && this.listener != null) {
+			this.listener.gameStopped(this);
+		}
+		this.gameOn = false;
+	}
+
+	/**
+	 * Sets the number of pieces after which the game stops by itself, or 0 to
+	 * play until the board fills up.
+	 */
+	public void setPieceLimit(int pieceLimit) {
+		this.pieceLimit = pieceLimit;
+	}
+
+	public int getPieceLimit() {
+		return this.pieceLimit;
+	}
+
+	/**
+	 * Sets how many of the next pieces are drawn ahead of time and shown to
+	 * brains that implement PreviewBrain. Pieces are still drawn in the same
+	 * order, so a seed gives the same pieces whatever the preview length.
+	 * Takes effect at the next startGame().
+	 */
+	public void setPreviewLength(int length) {
+		this.preview = new Piece[length];
+	}
+
+	/**
+	 * Given a piece, tries to install that piece into the board and set it to
+	 * be the current piece. If the placement is not possible, then the
+	 * placement is undone, and the board is not changed. The board should be in
+	 * the committed state when this is called. Returns the same error code as
+	 * Board.place().
+	 */
+	public int setCurrent(Piece piece, int x, int y) {
+		int result = this.board.place(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			this.currentPiece = piece;
+			this.currentX = x;
+			this.currentY = y;
+		} else {
+			this.board.undo();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Selects the next piece to play. Draws uniformly from the random generator
+	 * set in startGame(); subclasses may override this to choose pieces some
+	 * other way.
+	 */
+	public Piece pickNextPiece() {
+		return randomPiece();
+	}
+
+	/**
+	 * Draws one of the standard pieces uniformly from the random generator set
+	 * in startGame().
+	 */
+	public Piece randomPiece() {
+		int pieceNum = (int) (this.pieces.length * this.random.nextDouble());
+		return this.pieces[pieceNum];
+	}
+
+	/**
+	 * Returns the next piece to play: the head of the preview queue, which is
+	 * then refilled, or a fresh pick when there is no preview.
+	 */
+	private Piece takeNextPiece() {
+		if (this.preview.length == 0) {
+			return drawPiece();
+		}
+		Piece piece = this.preview[0];
+		System.arraycopy(this.preview, 1, this.preview, 0, this.preview.length - 1);
+		this.preview[this.preview.length - 1] = drawPiece();
+		return piece;
+	}
+
+	// pickNextPiece(), told to the listener
+	private Piece drawPiece() {
+		Piece piece = pickNextPiece();
+		if (this.listener != null) {
+			this.listener.pieceDrawn(this, piece);
+		}
+		return piece;
+	}
+
+	/**
+	 * Tries to add a new piece at the top of the board. Ends the game if it's
+	 * not possible, or if the piece limit has been reached.
+	 */
+	public void addNewPiece() {
+		this.count++;
+		this.score++;
+
+		if (this.pieceLimit > 0 && this.count == this.pieceLimit + 1) {
+			stopGame();
+			return;
+		}
+
+		// commit things the way they are
+		this.board.commit();
+		this.currentPiece = null;
+
+		Piece piece = takeNextPiece();
+
+		// Center it up at the top
+		int px = (this.board.getWidth() - piece.getWidth()) / 2;
+		int py = this.board.getHeight() - piece.getHeight();
+
+		// add the new piece to be in play
+		int result = setCurrent(piece, px, py);
+
+		// This probably never happens, since
+		// the blocks at the top allow space
+		// for new pieces to at least be added.
+		if (result > Board.PLACE_ROW_FILLED) {
+			stopGame();
+		}
+	}
+
+	/**
+	 * Figures a new position for the current piece based on the given verb
+	 * (LEFT, RIGHT, ...). The board should be in the committed state -- i.e.
+	 * the piece should not be in the board at the moment. This is necessary so
+	 * dropHeight() may be called without the piece "hitting itself" on the way
+	 * down.
+	 *
+	 * Sets newX, newY, and newPiece to hold what it thinks the new piece
+	 * position should be.
+	 */
+	public void computeNewPosition(int verb) {
+		// As a starting point, the new position is the same as the old
+		this.newPiece = this.currentPiece;
+		this.newX = this.currentX;
+		this.newY = this.currentY;
+
+		// Make changes based on the verb
+		switch (verb) {
+		case LEFT:
+			this.newX--;
+			break;
+
+		case RIGHT:
+			this.newX++;
+			break;
+
+		case ROTATE:
+			this.newPiece = this.newPiece.fastRotation();
+
+			// tricky: make the piece appear to rotate about its center
+			// can't just leave it at the same lower-left origin as the
+			// previous piece.
+			this.newX = this.newX + this.currentPiece.getRotationOffsetX();
+			this.newY = this.newY + this.currentPiece.getRotationOffsetY();
+			break;
+
+		case DOWN:
+			this.newY--;
+			break;
+
+		case DROP:
+			this.newY = this.board.dropHeight(this.newPiece, this.newX);
+
+			// trick: avoid the case where the drop would cause
+			// the piece to appear to move up
+			if (this.newY > this.currentY) {
+				this.newY = this.currentY;
+			}
+			break;
+
+		default:
+			throw new RuntimeException("Bad verb");
+		}
+
+	}
+
+	/**
+	 * Moves the current piece according to the given verb: LEFT RIGHT ROTATE
+	 * DROP for the player moves, and DOWN to move the piece down one square.
+	 * When a DOWN hits something and the previous verb was also a DOWN, the
+	 * piece has landed: full rows are cleared and scored, and the next piece
+	 * is added unless the board is too tall. Returns the Board.place() code of
+	 * the attempted move.
+	 */
+	public int step(int verb) {
+		this.lastCleared = 0;
+		if (!this.gameOn) {
+			return Board.PLACE_BAD;
+		}
+		if (this.listener != null) {
+			this.listener.stepped(this, verb);
+		}
+
+		if (this.currentPiece != null) {
+			this.board.undo(); // remove the piece from its old position
+		}
+
+		// Sets the newXXX fields
+		computeNewPosition(verb);
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(this.newPiece, this.newX, this.newY);
+
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+		// if it didn't work, put it back the way it was
+		if (failed && this.currentPiece != null) {
+			this.board.place(this.currentPiece, this.currentX, this.currentY);
+		}
+
+		/*
+		 * How to detect when a piece has landed: if this move hits something on
+		 * its DOWN verb, and the previous verb was also DOWN (i.e. the player
+		 * was not still moving it), then the previous position must be the
+		 * correct "landed" position, so we're done with the falling of this
+		 * piece.
+		 */
+		if (failed && verb == DOWN && !this.moved) { // it's landed
+			landPiece();
+		}
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next step()
+		this.moved = (!failed && verb != DOWN);
+		return result;
+	}
+
+	/**
+	 * Plays the current piece where the given brain suggests, lands it and
+	 * adds the next piece. Returns true if the game goes on, or false if it is
+	 * over -- including when the brain finds no possible play. A PreviewBrain
+	 * also gets the preview queue.
+	 */
+	public boolean dropWithBrain(Brain brain) {
+		this.lastCleared = 0;
+		if (!this.gameOn) {
+			return false;
+		}
+
+		// the brain wants the board without the falling piece
+		this.board.undo();
+		Brain.Move move = askBrain(brain);
+		if (move == null) {
+			// the game stops with the piece where it appeared, as a replay
+			// of it does
+			this.board.place(this.currentPiece, this.currentX, this.currentY);
+			stopGame();
+			return false;
+		}
+		return drop(move.piece, move.x, move.y);
+	}
+
+	/**
+	 * Lands the current piece at the given place, in the given rotation of
+	 * it, and adds the next piece, like dropWithBrain() does with the move of
+	 * its brain. The board may hold the falling piece or be committed. Returns
+	 * true if the game goes on, or false if it is over -- including when the
+	 * piece does not fit there.
+	 */
+	public boolean drop(Piece piece, int x, int y) {
+		this.lastCleared = 0;
+		if (!this.gameOn) {
+			return false;
+		}
+		this.board.undo(); // the falling piece, if it is in the board
+		if (this.listener != null) {
+			this.listener.dropped(this, piece, x, y);
+		}
+		if (setCurrent(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			stopGame();
+			return false;
+		}
+
+		landPiece();
+		return this.gameOn;
+	}
+
+	/**
+	 * Returns where the given brain would play the current piece, or null if
+	 * there is no current piece or the brain finds no possible play. Unlike
+	 * dropWithBrain(), the piece is left where it is, for callers that move it
+	 * there step by step.
+	 */
+	public Brain.Move suggestMove(Brain brain) {
+		if (!this.gameOn || this.currentPiece == null) {
+			return null;
+		}
+		this.board.undo();
+		Brain.Move move = askBrain(brain);
+		this.board.place(this.currentPiece, this.currentX, this.currentY);
+		return move;
+	}
+
+	// Asks the brain where to play the current piece on the committed board.
+	private Brain.Move askBrain(Brain brain) {
+		int limitHeight = this.board.getHeight() - TOP_SPACE;
+		if (brain instanceof PreviewBrain) {
+			return ((PreviewBrain) brain).bestMove(this.board, this.currentPiece, this.preview, limitHeight);
+		}
+		return brain.bestMove(this.board, this.currentPiece, limitHeight);
+	}
+
+	/**
+	 * Finishes the current piece where it is: clears and scores full rows,
+	 * then adds the next piece, or stops the game if the board is too tall.
+	 */
+	protected void landPiece() {
+		this.placed++;
+		if (this.listener != null) {
+			this.listener.pieceLanded(this, this.currentPiece, this.currentX, this.currentY);
+		}
+		int cleared = this.board.clearRows();
+		if (cleared > 0) {
+			// score goes up by 5, 10, 20, 40 for row clearing
+			switch (cleared) {
+			case 1:
+				this.score += 5;
+				break;
+			case 2:
+				this.score += 10;
+				break;
+			case 3:
+				this.score += 20;
+				break;
+			case 4:
+				this.score += 40;
+				break;
+			default:
+				this.score += 50; // could happen with non-standard pieces
+			}
+			this.lines += cleared;
+		}
+		this.lastCleared = cleared;
+
+		// if the board is too tall, we've lost
+		if (this.board.getMaxHeight() > this.board.getHeight() - TOP_SPACE) {
+			stopGame();
+		} else {
+			// Otherwise add a new piece and keep playing
+			addNewPiece();
+		}
+	}
+
+	public Board getBoard() {
+		return this.board;
+	}
+
+	// flags of a snapshot
+	private static final int SNAPSHOT_GAME_ON = 1;
+	private static final int SNAPSHOT_MOVED = 2;
+	private static final int SNAPSHOT_SEEDED = 4;
+
+	public static final int SNAPSHOT_MAGIC = 0x54534E50; // "TSNP"
+
+	/**
+	 * Returns the largest number of bytes writeSnapshot() may write for the
+	 * game as it is.
+	 */
+	public int getSnapshotSize() {
+		return 4 + 1 + 6 * 4 + 8 + 8 + 1 + 2 + 2 + 1 + this.preview.length + 7
+				+ this.board.getHeight() * ((this.board.getWidth() + 7) >>> 3);
+	}
+
+	/**
+	 * Writes the state of the game to the buffer, to go on with it later
+	 * from readSnapshot(), maybe in another engine or process: the board,
+	 * the piece in play, the preview queue, the counters and the piece
+	 * limit, and the random generator of a game started with
+	 * startGame(long), as its seed and the number of values drawn from it.
+	 * Allocates nothing; the buffer must have getSnapshotSize() bytes left.
+	 * The listener is not part of the snapshot, nor is the state of a
+	 * subclass that picks pieces some other way.
+	 */
+	public void writeSnapshot(ByteBuffer buffer) {
+		boolean seeded = (this.random instanceof SeededRandom);
+		boolean falling = this.gameOn && this.currentPiece != null;
+		buffer.putInt(SNAPSHOT_MAGIC);
+		buffer.put((byte) ((this.gameOn ? SNAPSHOT_GAME_ON : 0) | (this.moved ? SNAPSHOT_MOVED : 0)
+				| (seeded ? SNAPSHOT_SEEDED : 0)));
+		buffer.putInt(this.count);
+		buffer.putInt(this.placed);
+		buffer.putInt(this.score);
+		buffer.putInt(this.lines);
+		buffer.putInt(this.lastCleared);
+		buffer.putInt(this.pieceLimit);
+		buffer.putLong(this.seed);
+		buffer.putLong(seeded ? ((SeededRandom) this.random).draws : 0);
+		buffer.put((byte) (falling ? Replay.pieceCode(Replay.DRAW, this.currentPiece) : -1));
+		buffer.putShort((short) this.currentX);
+		buffer.putShort((short) this.currentY);
+		buffer.put((byte) this.preview.length);
+		for (Piece piece : this.preview) {
+			buffer.put((byte) Replay.pieceCode(Replay.DRAW, piece));
+		}
+
+		// the board without the piece in play, which is put back after
+		if (falling) {
+			this.board.undo();
+		}
+		this.board.writeTo(buffer);
+		if (falling) {
+			this.board.place(this.currentPiece, this.currentX, this.currentY);
+		}
+	}
+
+	/**
+	 * Replaces the game of this engine with the one of a snapshot written by
+	 * writeSnapshot(), which then goes on as the original would have: the
+	 * same pieces come, and the same moves give the same scores. The random
+	 * generator is restored only for a game started with startGame(long);
+	 * otherwise the engine keeps its own. The listener is not told. Throws an
+	 * IllegalArgumentException if the buffer holds no valid snapshot.
+	 */
+	public void readSnapshot(ByteBuffer buffer) {
+		if (buffer.getInt() != SNAPSHOT_MAGIC) {
+			throw new IllegalArgumentException("not a game snapshot");
+		}
+		int flags = buffer.get();
+		int count = buffer.getInt();
+		int placed = buffer.getInt();
+		int score = buffer.getInt();
+		int lines = buffer.getInt();
+		int lastCleared = buffer.getInt();
+		int pieceLimit = buffer.getInt();
+		long seed = buffer.getLong();
+		long draws = buffer.getLong();
+		int current = buffer.get();
+		int x = buffer.getShort();
+		int y = buffer.getShort();
+		Piece[] preview = new Piece[buffer.get()];
+		for (int i = 0; i < preview.length; i++) {
+			preview[i] = snapshotPiece(buffer.get());
+		}
+		Board board = Board.readFrom(buffer);
+		Piece piece = (current < 0) ? null : snapshotPiece(current);
+		if (piece != null && board.place(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			throw new IllegalArgumentException("the piece in play does not fit the board of the snapshot");
+		}
+
+		this.board = board;
+		this.currentPiece = piece;
+		this.currentX = x;
+		this.currentY = y;
+		this.gameOn = (flags & SNAPSHOT_GAME_ON) != 0;
+		this.moved = (flags & SNAPSHOT_MOVED) != 0;
+		this.count = count;
+		this.placed = placed;
+		this.score = score;
+		this.lines = lines;
+		this.lastCleared = lastCleared;
+		this.pieceLimit = pieceLimit;
+		this.preview = preview;
+		this.seed = seed;
+		if ((flags & SNAPSHOT_SEEDED) != 0) {
+			SeededRandom random = new SeededRandom(seed);
+			random.skip(draws);
+			this.random = random;
+		}
+	}
+
+	private static Piece snapshotPiece(int code) {
+		if (code < 0 || code >>> 2 >= Piece.getPieces().length) {
+			throw new IllegalArgumentException("bad piece " + code + " in a game snapshot");
+		}
+		return Replay.piece(code);
+	}
+
+	/**
+	 * The random generator of startGame(long): a java.util.Random that
+	 * counts the values drawn from it, whoever draws them, so that a
+	 * snapshot can make the same generator again from the seed.
+	 */
+	private static class SeededRandom extends Random {
+		private static final long serialVersionUID = 1L;
+
+		long draws;
+
+		SeededRandom(long seed) {
+			super(seed);
+		}
+
+		protected int next(int bits) {
+			this.draws++;
+			return super.next(bits);
+		}
+
+		// draws n values, each of which moves the generator one step
+		void skip(long n) {
+			for (long i = 0; i < n; i++) {
+				next(32);
+			}
+		}
+	}
+
+	public Random getRandom() {
+		return this.random;
+	}
+
+	/**
+	 * Returns the seed given to startGame(long), or 0 when the game was
+	 * started with a random generator.
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * Sets the listener told about the games of this engine, or null for
+	 * none (the default).
+	 */
+	public void setListener(GameListener listener) {
+		this.listener = listener;
+	}
+
+	public Piece[] getPieces() {
+		return this.pieces;
+	}
+
+	/**
+	 * Returns a copy of the preview queue, the next piece first.
+	 */
+	public Piece[] getPreview() {
+		return this.preview.clone();
+	}
+
+	public Piece getCurrentPiece() {
+		return this.currentPiece;
+	}
+
+	public int getCurrentX() {
+		return this.currentX;
+	}
+
+	public int getCurrentY() {
+		return this.currentY;
+	}
+
+	public boolean isGameOn() {
+		return this.gameOn;
+	}
+
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the number of pieces that have landed since the start of the
+	 * game. Unlike getCount(), this does not include the piece in play.
+	 */
+	public int getPlaced() {
+		return this.placed;
+	}
+
+	public int getScore() {
+		return this.score;
+	}
+
+	/**
+	 * Returns the number of rows cleared since the start of the game.
+	 */
+	public int getLines() {
+		return this.lines;
+	}
+
+	/**
+	 * Returns the number of rows cleared by the last step() or dropWithBrain(),
+	 * 0 if that call did not land a piece.
+	 */
+	public int getLastCleared() {
+		return this.lastCleared;
+	}
+}
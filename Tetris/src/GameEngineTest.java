@@ -0,0 +1,158 @@
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GameEngineTest {
+
+	@Test
+	public void testDropLands() {
+		GameEngine engine = new GameEngine(10, 20);
+		engine.startGame(new Random(0));
+		assertEquals(1, engine.getCount());
+
+		// a DROP then two DOWNs: the first DOWN fails but the piece was just
+		// moved, the second one lands it
+		engine.step(GameEngine.DROP);
+		assertEquals(0, engine.getCurrentY());
+		engine.step(GameEngine.DOWN);
+		assertEquals(1, engine.getCount());
+		engine.step(GameEngine.DOWN);
+		assertEquals(2, engine.getCount());
+		assertTrue(engine.getBoard().getMaxHeight() > 0);
+	}
+
+	@Test
+	public void testRotateAndMove() {
+		GameEngine engine = new GameEngine(10, 20);
+		engine.startGame(new Random(0));
+		Piece piece = engine.getCurrentPiece();
+		int x = engine.getCurrentX();
+
+		engine.step(GameEngine.ROTATE);
+		assertSame(piece.fastRotation(), engine.getCurrentPiece());
+		assertEquals(x + piece.getRotationOffsetX(), engine.getCurrentX());
+
+		// walking into the left wall leaves the piece where it is
+		for (int i = 0; i < 12; i++) {
+			engine.step(GameEngine.LEFT);
+		}
+		assertEquals(0, engine.getCurrentX());
+	}
+
+	@Test
+	public void testBrainGame() {
+		GameEngine engine = new GameEngine(10, 20);
+		engine.setPieceLimit(100);
+		engine.startGame(new Random(0));
+		Brain brain = new DefaultBrain();
+		while (engine.dropWithBrain(brain)) {
+		}
+		assertEquals(101, engine.getCount());
+		assertTrue(engine.getLines() > 20);
+
+		// same seed, same game
+		GameEngine again = new GameEngine(10, 20);
+		again.setPieceLimit(100);
+		again.startGame(new Random(0));
+		while (again.dropWithBrain(brain)) {
+		}
+		assertEquals(engine.getScore(), again.getScore());
+		assertEquals(engine.getBoard().toString(), again.getBoard().toString());
+	}
+
+	@Test
+	public void testPreview() {
+		GameEngine plain = new GameEngine(10, 20);
+		plain.startGame(new Random(5));
+		GameEngine engine = new GameEngine(10, 20);
+		engine.setPreviewLength(2);
+		engine.startGame(new Random(5));
+		Brain brain = new DefaultBrain();
+
+		// the preview shows the pieces that come next, in the same order as
+		// without a preview
+		for (int n = 0; n < 20; n++) {
+			assertSame(plain.getCurrentPiece(), engine.getCurrentPiece());
+			Piece[] preview = engine.getPreview();
+			assertEquals(2, preview.length);
+			engine.dropWithBrain(brain);
+			plain.dropWithBrain(brain);
+			assertSame(preview[0], engine.getCurrentPiece());
+			assertSame(preview[1], engine.getPreview()[0]);
+		}
+	}
+
+	@Test
+	public void testSuggestMove() {
+		GameEngine engine = new GameEngine(10, 20);
+		engine.startGame(new Random(2));
+		Brain brain = new DefaultBrain();
+		for (int n = 0; n < 10; n++) {
+			engine.step(GameEngine.DOWN);
+		}
+		String before = engine.getBoard().toString();
+		Piece piece = engine.getCurrentPiece();
+		int y = engine.getCurrentY();
+
+		// the suggestion leaves the falling piece where it is
+		Brain.Move move = engine.suggestMove(brain);
+		assertEquals(before, engine.getBoard().toString());
+		assertSame(piece, engine.getCurrentPiece());
+		assertEquals(y, engine.getCurrentY());
+
+		// and it is where dropWithBrain() plays
+		engine.dropWithBrain(brain);
+		assertTrue(engine.getBoard().getGrid(move.x + move.piece.getBodyX()[0], move.y + move.piece.getBodyY()[0]));
+	}
+
+	@Test
+	public void testSnapshot() {
+		GameEngine engine = new GameEngine(10, 20);
+		engine.setPreviewLength(2);
+		engine.startGame(11);
+		Brain brain = new DefaultBrain();
+		for (int i = 0; i < 40; i++) {
+			engine.dropWithBrain(brain);
+		}
+		// in the middle of a piece moved by hand
+		engine.step(GameEngine.ROTATE);
+		engine.step(GameEngine.LEFT);
+		engine.step(GameEngine.DOWN);
+
+		ByteBuffer buffer = ByteBuffer.allocate(engine.getSnapshotSize());
+		engine.writeSnapshot(buffer);
+		buffer.flip();
+		long hash = engine.getBoard().hash64();
+
+		GameEngine copy = new GameEngine(4, 4); // its size comes with the snapshot
+		copy.readSnapshot(buffer);
+		assertEquals(hash, engine.getBoard().hash64());
+		assertEquals(hash, copy.getBoard().hash64());
+		assertEquals(engine.getCount(), copy.getCount());
+		assertEquals(engine.getScore(), copy.getScore());
+		assertSame(engine.getCurrentPiece(), copy.getCurrentPiece());
+		assertArrayEquals(engine.getPreview(), copy.getPreview());
+
+		// both go on with the same pieces and the same moves
+		for (int i = 0; i < 60; i++) {
+			engine.step(GameEngine.DOWN);
+			copy.step(GameEngine.DOWN);
+			engine.dropWithBrain(brain);
+			copy.dropWithBrain(brain);
+			assertSame(engine.getCurrentPiece(), copy.getCurrentPiece());
+			assertEquals(engine.getBoard().hash64(), copy.getBoard().hash64());
+		}
+		assertEquals(engine.getScore(), copy.getScore());
+		assertEquals(engine.getLines(), copy.getLines());
+		assertEquals(engine.isGameOn(), copy.isGameOn());
+
+		try {
+			copy.readSnapshot(ByteBuffer.allocate(64));
+			fail("snapshot read from nothing");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
@@ -0,0 +1,44 @@
+// GameListener.java
+
+/**
+ * Hears what a GameEngine does, in the order it does it, for recorders such
+ * as ReplayWriter. The engine calls the listener on the thread that drives
+ * the game, from inside startGame(), step(), drop() and stopGame(), so a
+ * listener sees the landing and the pieces drawn by a move right after the
+ * move itself.
+ */
+public interface GameListener {
+
+	/**
+	 * Called by startGame() on the new empty board, before the first pieces
+	 * are drawn.
+	 */
+	public void gameStarted(GameEngine engine);
+
+	/**
+	 * Called each time the engine draws a piece with pickNextPiece(), for the
+	 * preview queue or to play right away.
+	 */
+	public void pieceDrawn(GameEngine engine, Piece piece);
+
+	/**
+	 * Called by step() before it applies the verb.
+	 */
+	public void stepped(GameEngine engine, int verb);
+
+	/**
+	 * Called by drop() before it lands the current piece at the given place.
+	 */
+	public void dropped(GameEngine engine, Piece piece, int x, int y);
+
+	/**
+	 * Called when the current piece lands at the given place, whether a step()
+	 * or a drop() landed it, before its full rows are cleared.
+	 */
+	public void pieceLanded(GameEngine engine, Piece piece, int x, int y);
+
+	/**
+	 * Called when a game that was on stops, with the board as it is left.
+	 */
+	public void gameStopped(GameEngine engine);
+}
@@ -21,11 +21,36 @@ public class JBrainTetris extends JTetris{
 	
 	protected JCheckBox brainMode;
 	
+	// Le brain qui joue en mode brain, et le coup qu'il a choisi pour la
+	// pice numro targetCount.
+	protected AnytimeBrain brain;
+	private Brain.Move target;
+	private int targetCount;
+	
+	// Note les plateaux pour l'adversaire, comme DefaultBrain.
+	protected FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.defaultWeights(WIDTH));
+	
+	// L'adversaire choisit, pour un pourcentage des pices donn par le
+	// slider, la pice la pire pour le joueur.
+	protected Adversary adversary;
+	protected JSlider adversarySlider;
+	protected JLabel adversaryStatus;
+	
+	
+	// Nombre de pices suivantes que le brain peut voir.
+	public static final int PREVIEW = 2;
+	
 	
 	//le constructeur
 	
 	public JBrainTetris(int pixels) {
 		super(pixels);
+		brain = new AnytimeBrain();
+		engine.setPreviewLength(PREVIEW);
+		
+		DefaultBrain player = new DefaultBrain();
+		player.setEvaluator(evaluator);
+		adversary = new Adversary(player);
 	}
 	
 	
@@ -35,8 +60,41 @@ public class JBrainTetris extends JTetris{
 	 * Sets the enabling of the start/stop buttons based on the gameOn state.
 	 */
 	private void enableButtons() {
-		startButton.setEnabled(!gameOn);
-		stopButton.setEnabled(gameOn);
+		startButton.setEnabled(!engine.isGameOn());
+		stopButton.setEnabled(engine.isGameOn());
+	}
+	
+	
+	public void startGame() {
+		targetCount = 0;
+		super.startGame();
+	}
+	
+	
+	/**
+	 * In brain mode, each tick(DOWN) from the timer first moves the piece one
+	 * step towards where the brain wants it: one rotation, or else one column
+	 * left or right. The brain is asked once per piece, with half a tick to
+	 * answer, so the answer is there before the next tick.
+	 */
+	public void tick(int verb) {
+		if (verb == DOWN && brainMode.isSelected() && engine.isGameOn()) {
+			if (targetCount != engine.getCount()) {
+				brain.setTimeBudget(Math.max(1, timer.getDelay() / 2) * 1000000L);
+				target = engine.suggestMove(brain);
+				targetCount = engine.getCount();
+			}
+			if (target != null) {
+				if (!engine.getCurrentPiece().equals(target.piece)) {
+					super.tick(ROTATE);
+				} else if (engine.getCurrentX() < target.x) {
+					super.tick(RIGHT);
+				} else if (engine.getCurrentX() > target.x) {
+					super.tick(LEFT);
+				}
+			}
+		}
+		super.tick(verb);
 	}
 	
 	
@@ -52,11 +110,16 @@ public class JBrainTetris extends JTetris{
 		
 		
 		// ADVERSAIRE
-		panel.add(new JLabel("Adversaire:"));
-		brainMode = new JCheckBox("Brain active");
-		panel.add(brainMode);
+		JPanel little = new JPanel();
+		little.add(new JLabel("Adversaire:"));
+		adversarySlider = new JSlider(0, 100, 0); // min, max, current
+		adversarySlider.setPreferredSize(new Dimension(100, 15));
+		little.add(adversarySlider);
+		panel.add(little);
 		
-		// SLIDER
+		// STATUS : "*ok*" quand l'adversaire a choisi la dernire pice
+		adversaryStatus = new JLabel("ok");
+		panel.add(adversaryStatus);
 		
 
 		// COUNT
@@ -124,145 +187,68 @@ public class JBrainTetris extends JTetris{
 	
 	/*
 	 * A simple brain function. Given a board, produce a number that rates that
-	 * board position -- larger numbers for worse boards. This version just
-	 * counts the height and the number of "holes" in the board.
+	 * board position -- larger numbers for worse boards. Same as
+	 * DefaultBrain.rateBoard(): the height and the number of "holes" in the
+	 * board.
 	 */
 	public double rateBoard(Board board) {
-		final int width = board.getWidth();
-		final int maxHeight = board.getMaxHeight();
-
-		int sumHeight = 0;
-		int holes = 0;
-
-		// Count the holes, and sum up the heights
-		for (int x = 0; x < width; x++) {
-			final int colHeight = board.getColumnHeight(x);
-			sumHeight += colHeight;
-
-			int y = colHeight - 2; // addr of first possible hole
-
-			while (y >= 0) {
-				if (!board.getGrid(x, y)) {
-					holes++;
-				}
-				y--;
-			}
-		}
-
-		double avgHeight = ((double) sumHeight) / width;
-
-		// Add up the counts to make an overall score
-		// The weights, 8, 40, etc., are just made up numbers that appear to
-		// work
-		return (8 * maxHeight + 40 * avgHeight + 1.25 * holes);
+		return evaluator.rate(board);
 	}
 	
 	
 	
 	
 	/**
-	 * Given a piece and a board, returns a move object that represents the best
-	 * play for that piece, or returns null if no play is possible. See the
-	 * Brain interface for details.
+	 * Selects the next piece with the adversary slider: the adversary picks
+	 * slider percent of the pieces, and the others are drawn at random.
 	 */
-	public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
-		Brain.Move move = new Brain.Move();
-		board = new Board(board);
-
-		double bestScore = 1e20;
-		int bestX = 0;
-		int bestY = 0;
-		Piece bestPiece = null;
-		Piece current = new Piece(piece);
-
-		board.commit();
-
-		// loop through all the rotations
-		while (true) {
-			final int yBound = limitHeight - current.getHeight() + 1;
-			final int xBound = board.getWidth() - current.getWidth() + 1;
-
-			// For current rotation, try all the possible columns
-			for (int x = 0; x < xBound; x++) {
-				int y = board.dropHeight(current, x);
-				if (y > yBound) { // piece does stick up too far
-					continue;
-				}
-				int result = board.place(current, x, y);
-				if (result <= Board.PLACE_ROW_FILLED) {
-					if (result == Board.PLACE_ROW_FILLED) {
-						board.clearRows();
-					}
-
-					double score = rateBoard(board);
-					if (score < bestScore) {
-						bestScore = score;
-						bestX = x;
-						bestY = y;
-						bestPiece = current;
-					}
-				}
-
-				board.undo();
-			}
-			
-			current = current.computeNextRotation();
-			if (current.equals(piece)) {
-				break; // break if back to original rotation
-			}
-		}
-
-		if (bestPiece == null) {
-			return null; // could not find a play at all!
-		} else {
-			move.x = bestX;
-			move.y = bestY;
-			move.piece = bestPiece;
-			move.score = bestScore;
-			return move;
+	public Piece pickNextPiece() {
+		if (adversarySlider == null) {
+			return super.pickNextPiece();
 		}
+		return pickNextPiece(adversarySlider.getValue(), engine.getBoard().getHeight() - TOP_SPACE);
 	}
 	
 	
-	
-	
 	/**
-	 * Selects the next piece to use using the random generator set in
-	 * startGame().
+	 * Selects the next piece using the random generator set in startGame():
+	 * with a probability of slider percent, the piece worst for the player on
+	 * the current board, as chosen by the adversary; otherwise a random piece.
+	 * With a preview, the piece picked now comes after the preview pieces, so
+	 * the adversary judges it on the board as it is, an approximation.
 	 */
 	public Piece pickNextPiece(int slider, int limitHeight) {
 		
-		int rand = (int) (100 * random.nextDouble());
+		int rand = (int) (100 * engine.getRandom().nextDouble());
 		
 		
 		//Choix alatoire.
-		if(rand < slider) {
-		int pieceNum;
-
-		pieceNum = (int) (pieces.length * random.nextDouble());
-
-		Piece piece = pieces[pieceNum];
-
-		return (piece);
+		if(rand >= slider) {
+			setStatus("ok");
+			return engine.randomPiece();
 		}
 		
 		
-		//Choix de la pice la plus dsavantageuse pas l'adversaire.
+		//Choix de la pice la plus dsavantageuse pour le joueur.
 		else {
-			
-			Brain.Move move = bestMove(this.board, this.currentPiece, limitHeight);
-			return move.piece;
-			
-			
+			setStatus("*ok*");
+			return adversary.worstPiece(engine.getBoard(), limitHeight);
 		}
 	}
 	
 	
 	
+	// Affiche qui a choisi la dernire pice, s'il y a un panneau.
+	private void setStatus(String status) {
+		if (adversaryStatus != null) {
+			adversaryStatus.setText(status);
+		}
+	}
+	
+	
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
 		
-		DefaultBrain DBrain = new DefaultBrain();
 	    JBrainTetris JBTetris = new JBrainTetris(16);
 		JFrame frame = createFrame(JBTetris);
 		frame.setVisible(true);
@@ -8,6 +8,9 @@ import java.awt.event.*;
 import javax.swing.event.*;
 
 import java.awt.Toolkit;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * JTetris presents a tetris game in a window. It handles the
@@ -21,12 +24,12 @@ import java.awt.Toolkit;
  */
 
 /*
- * Implementation notes: -The "currentPiece" points to a piece that is currently
- * falling, or is null when there is no piece. -tick() moves the current piece
+ * Implementation notes: -The game rules live in the GameEngine, JTetris only
+ * draws its board and forwards the moves. -tick() moves the current piece
  * -a timer object calls tick(DOWN) periodically -keystrokes call tick() with
- * LEFT, RIGHT, etc. -Board.undo() is used to remove the piece from its old
- * position and then Board.place() is used to install the piece in its new
- * position.
+ * LEFT, RIGHT, etc. -GameEngine.step() uses Board.undo() to remove the piece
+ * from its old position and then Board.place() to install the piece in its
+ * new position.
  */
 
 public class JTetris extends JComponent {
@@ -39,7 +42,7 @@ public class JTetris extends JComponent {
 	// Extra blocks at the top for pieces to start.
 	// If a piece is sticking up into this area
 	// when it has landed -- game over!
-	public static final int TOP_SPACE = 4;
+	public static final int TOP_SPACE = GameEngine.TOP_SPACE;
 
 	// When this is true, plays a fixed sequence of 100 pieces
 	protected boolean testMode = false;
@@ -49,33 +52,18 @@ public class JTetris extends JComponent {
 	// (default false, so debugging is easier)
 	protected boolean DRAW_OPTIMIZE = false;
 
-	// Board data structures
-	protected Board board;
-	protected Piece[] pieces;
-
-	// The current piece in play or null
-	protected Piece currentPiece;
-	protected int currentX;
-	protected int currentY;
-	protected boolean moved; // did the player move the piece
-
-	// The piece we're thinking about playing
-	// -- set by computeNewPosition
-	// (storing this in members is slightly questionable style)
-	protected Piece newPiece;
-	protected int newX;
-	protected int newY;
-
-	// State of the game
-	protected boolean gameOn; // true if we are playing
-	protected int count; // how many pieces played so far
+	// The game itself: board, current piece, score
+	protected GameEngine engine;
 	protected long startTime; // used to measure elapsed time
-	protected Random random; // the random generator for new pieces
+
+	// Each game is recorded as a replay in this directory, when the
+	// tetris.replays system property names one
+	protected static final String REPLAY_DIR = System.getProperty("tetris.replays");
+	protected ReplayWriter recorder;
 
 	// Controls
 	protected JLabel countLabel;
 	protected JLabel scoreLabel;
-	protected int score;
 	protected JLabel timeLabel;
 	protected JButton startButton;
 	protected JButton stopButton;
@@ -95,10 +83,14 @@ public class JTetris extends JComponent {
 		// Set component size to allow given pixels for each block plus
 		// a 1 pixel border around the whole thing.
 		setPreferredSize(new Dimension((WIDTH * pixels) + 2, (HEIGHT + TOP_SPACE) * pixels + 2));
-		this.gameOn = false;
 
-		this.pieces = Piece.getPieces();
-		this.board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		// the engine asks this component for new pieces, so that subclasses
+		// can override pickNextPiece()
+		this.engine = new GameEngine(WIDTH, HEIGHT) {
+			public Piece pickNextPiece() {
+				return JTetris.this.pickNextPiece();
+			}
+		};
 
 		/*
 		 * Register key handlers that call tick with the appropriate constant.
@@ -171,79 +163,101 @@ public class JTetris extends JComponent {
 	 * Sets the internal state and starts the timer so the game is happening.
 	 */
 	public void startGame() {
-		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
-
-		// draw the new board state once
-		repaint();
-
-		count = 0;
-		score = 0;
-		updateCounters();
-		gameOn = true;
-
 		// Set mode based on checkbox at start of game
 		testMode = testButton.isSelected();
+		engine.setPieceLimit(testMode ? TEST_LIMIT : 0);
 
+		timeLabel.setText(" ");
+		startRecording();
 		if (testMode)
-			random = new Random(0); // same seq every time
+			engine.startGame(0L); // same seq every time
 		else
-			random = new Random(); // diff seq each game
+			engine.startGame(new Random().nextLong()); // diff seq each game
+
+		// draw the new board state once
+		repaint();
+		updateCounters();
 
 		enableButtons();
-		timeLabel.setText(" ");
-		addNewPiece();
 		timer.start();
 		startTime = System.currentTimeMillis();
 	}
 
+	/**
+	 * Starts recording the game to a new replay file in REPLAY_DIR, if it is
+	 * set, closing the replay of the previous game.
+	 */
+	private void startRecording() {
+		stopRecording();
+		if (REPLAY_DIR == null) {
+			return;
+		}
+		try {
+			recorder = new ReplayWriter(new File(REPLAY_DIR, "tetris-" + System.currentTimeMillis() + ".replay"));
+			engine.setListener(recorder);
+		} catch (IOException e) {
+			recordingFailed(e);
+		}
+	}
+
+	/**
+	 * Closes the replay of the game, which the engine has ended with its END
+	 * record if the game was on.
+	 */
+	private void stopRecording() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			recordingFailed(e);
+		} catch (UncheckedIOException e) {
+			recordingFailed(e.getCause());
+		} finally {
+			recorder = null;
+			engine.setListener(null);
+		}
+	}
+
+	/**
+	 * Shows in the time label that the replay of the game could not be
+	 * written.
+	 */
+	private void recordingFailed(IOException e) {
+		timeLabel.setText("Replay not saved: " + e.getMessage());
+	}
+
 	/**
 	 * Sets the enabling of the start/stop buttons based on the gameOn state.
 	 */
 	private void enableButtons() {
-		startButton.setEnabled(!gameOn);
-		stopButton.setEnabled(gameOn);
+		startButton.setEnabled(!engine.isGameOn());
+		stopButton.setEnabled(engine.isGameOn());
 	}
 
 	/**
 	 * Stops the game.
 	 */
 	public void stopGame() {
-		gameOn = false;
+		engine.stopGame();
 		enableButtons();
 		timer.stop();
 
 		long delta = (System.currentTimeMillis() - startTime) / 10;
 		timeLabel.setText(Double.toString(delta / 100.0) + " seconds");
-
+		stopRecording();
 	}
 
 	/**
-	 * Given a piece, tries to install that piece into the board and set it to
-	 * be the current piece. Does the necessary repaints. If the placement is
-	 * not possible, then the placement is undone, and the board is not changed.
-	 * The board should be in the committed state when this is called. Returns
-	 * the same error code as Board.place().
+	 * Stops the game before the program exits, so that its replay is
+	 * complete.
 	 */
-	public int setCurrent(Piece piece, int x, int y) {
-		int result = board.place(piece, x, y);
-
-		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-			// repaint the rect where it used to be
-			if (this.currentPiece != null) {
-				repaintPiece(currentPiece, currentX, currentY);
-			}
-
-			currentPiece = piece;
-			currentX = x;
-			currentY = y;
-			// repaint the rect where it is now
-			repaintPiece(currentPiece, currentX, currentY);
-		} else {
-			board.undo();
+	public void quit() {
+		if (engine.isGameOn()) {
+			stopGame();
 		}
-
-		return result;
+		stopRecording();
 	}
 
 	/**
@@ -251,122 +265,22 @@ public class JTetris extends JComponent {
 	 * startGame().
 	 */
 	public Piece pickNextPiece() {
-		int pieceNum;
-
-		pieceNum = (int) (pieces.length * random.nextDouble());
-
-		Piece piece = pieces[pieceNum];
-
-		return (piece);
-	}
-
-	/**
-	 * Tries to add a new random piece at the top of the board. Ends the game if
-	 * it's not possible.
-	 */
-	public void addNewPiece() {
-		count++;
-		score++;
-
-		if (testMode && count == TEST_LIMIT + 1) {
-			stopGame();
-			return;
-		}
-
-		// commit things the way they are
-		board.commit();
-		currentPiece = null;
-
-		Piece piece = this.pickNextPiece();
-
-		// Center it up at the top
-		int px = (board.getWidth() - piece.getWidth()) / 2;
-		int py = board.getHeight() - piece.getHeight();
-
-		// add the new piece to be in play
-		int result = setCurrent(piece, px, py);
-
-		// This probably never happens, since
-		// the blocks at the top allow space
-		// for new pieces to at least be added.
-		if (result > Board.PLACE_ROW_FILLED) {
-			stopGame();
-		}
-
-		updateCounters();
+		return engine.randomPiece();
 	}
 
 	/**
 	 * Updates the count/score labels with the latest values.
 	 */
 	private void updateCounters() {
-		countLabel.setText("Pieces " + count);
-		scoreLabel.setText("Score " + score);
+		countLabel.setText("Pieces " + engine.getCount());
+		scoreLabel.setText("Score " + engine.getScore());
 	}
 
-	/**
-	 * Figures a new position for the current piece based on the given verb
-	 * (LEFT, RIGHT, ...). The board should be in the committed state -- i.e.
-	 * the piece should not be in the board at the moment. This is necessary so
-	 * dropHeight() may be called without the piece "hitting itself" on the way
-	 * down.
-	 * 
-	 * Sets the ivars newX, newY, and newPiece to hold what it thinks the new
-	 * piece position should be. (Storing an intermediate result like that in
-	 * ivars is a little tacky.)
-	 */
-	public void computeNewPosition(int verb) {
-		// As a starting point, the new position is the same as the old
-		newPiece = currentPiece;
-		this.newX = currentX;
-		this.newY = currentY;
-
-		// Make changes based on the verb
-		switch (verb) {
-		case LEFT:
-			this.newX--;
-			break;
-
-		case RIGHT:
-			this.newX++;
-			break;
-
-		case ROTATE:
-			// newPiece = newPiece.fastRotation();
-			newPiece = newPiece.computeNextRotation();
-
-			// tricky: make the piece appear to rotate about its center
-			// can't just leave it at the same lower-left origin as the
-			// previous piece.
-			newX = newX + (currentPiece.getWidth() - newPiece.getWidth()) / 2;
-			newY = newY + (currentPiece.getHeight() - newPiece.getHeight()) / 2;
-			break;
-
-		case DOWN:
-			this.newY--;
-			break;
-
-		case DROP:
-			this.newY = board.dropHeight(this.newPiece, this.newX);
-
-			// trick: avoid the case where the drop would cause
-			// the piece to appear to move up
-			if (this.newY > currentY) {
-				this.newY = currentY;
-			}
-			break;
-
-		default:
-			throw new RuntimeException("Bad verb");
-		}
-
-	}
-
-	public static final int ROTATE = 0;
-	public static final int LEFT = 1;
-	public static final int RIGHT = 2;
-	public static final int DROP = 3;
-	public static final int DOWN = 4;
+	public static final int ROTATE = GameEngine.ROTATE;
+	public static final int LEFT = GameEngine.LEFT;
+	public static final int RIGHT = GameEngine.RIGHT;
+	public static final int DROP = GameEngine.DROP;
+	public static final int DOWN = GameEngine.DOWN;
 
 	/**
 	 * Called to change the position of the current piece. Each key press calls
@@ -379,19 +293,24 @@ public class JTetris extends JComponent {
 	 * Overriden by the brain when it plays.
 	 */
 	public void tick(int verb) {
-		if (!this.gameOn) {
+		if (!engine.isGameOn()) {
 			return;
 		}
 
-		if (currentPiece != null) {
-			this.board.undo(); // remove the piece from its old position
-		}
+		Piece oldPiece = engine.getCurrentPiece();
+		int oldX = engine.getCurrentX();
+		int oldY = engine.getCurrentY();
+		int oldCount = engine.getCount();
 
-		// Sets the newXXX ivars
-		this.computeNewPosition(verb);
+		int result = engine.step(verb);
 
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
+		// repaint the rect where the piece used to be and where it is now
+		if (oldPiece != null) {
+			repaintPiece(oldPiece, oldX, oldY);
+		}
+		if (engine.getCurrentPiece() != null) {
+			repaintPiece(engine.getCurrentPiece(), engine.getCurrentX(), engine.getCurrentY());
+		}
 
 		// if row clearing is going to happen, draw the
 		// whole board so the green row shows up
@@ -399,62 +318,22 @@ public class JTetris extends JComponent {
 			this.repaint();
 		}
 
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) {
-				board.place(currentPiece, currentX, currentY);
+		if (engine.getLastCleared() > 0) {
+			// clearing 4 gets you a beep!
+			if (engine.getLastCleared() == 4) {
+				Toolkit.getDefaultToolkit().beep();
 			}
-			repaintPiece(currentPiece, currentX, currentY);
+			repaint(); // repaint to show the result of the row clearing
 		}
 
-		/*
-		 * How to detect when a piece has landed: if this move hits something on
-		 * its DOWN verb, and the previous verb was also DOWN (i.e. the player
-		 * was not still moving it), then the previous position must be the
-		 * correct "landed" position, so we're done with the falling of this
-		 * piece.
-		 */
-		if (failed && verb == DOWN && !moved) { // it's landed
-
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-				case 1:
-					score += 5;
-					break;
-				case 2:
-					score += 10;
-					break;
-				case 3:
-					score += 20;
-					break;
-				case 4:
-					score += 40;
-					Toolkit.getDefaultToolkit().beep();
-					break;
-				default:
-					score += 50; // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint(); // repaint to show the result of the row clearing
-			}
-
-			// if the board is too tall, we've lost
-			if (this.board.getMaxHeight() > this.board.getHeight() - TOP_SPACE) {
-				this.stopGame();
-			} else {
-				// Otherwise add a new piece and keep playing
-				this.addNewPiece();
-			}
+		if (engine.getCount() != oldCount || engine.getLastCleared() > 0) {
+			updateCounters();
 		}
 
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb != DOWN);
+		// the engine stops by itself when the board is too tall
+		if (!engine.isGameOn()) {
+			this.stopGame();
+		}
 	}
 
 	/**
@@ -488,12 +367,12 @@ public class JTetris extends JComponent {
 
 	// width in pixels of a block
 	private final float dX() {
-		return (((float) (getWidth() - 2)) / board.getWidth());
+		return (((float) (getWidth() - 2)) / engine.getBoard().getWidth());
 	}
 
 	// height in pixels of a block
 	private final float dY() {
-		return (((float) (getHeight() - 2)) / board.getHeight());
+		return (((float) (getHeight() - 2)) / engine.getBoard().getHeight());
 	}
 
 	// the x pixel coord of the left side of a block
@@ -512,6 +391,7 @@ public class JTetris extends JComponent {
 	 * rows that are filled all the way across in green.
 	 */
 	public void paintComponent(Graphics g) {
+		final Board board = engine.getBoard();
 
 		// Draw a rect around the whole thing
 		g.drawRect(0, 0, getWidth() - 1, getHeight() - 1);
@@ -663,10 +543,17 @@ public class JTetris extends JComponent {
 		controls.add(quit);
 		quit.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
+				tetris.quit();
 				System.exit(0);
 			}
 		});
 
+		// runs before EXIT_ON_CLOSE exits
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) {
+				tetris.quit();
+			}
+		});
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.pack();
 
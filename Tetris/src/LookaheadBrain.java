@@ -0,0 +1,211 @@
+// LookaheadBrain.java
+
+/**
+ * A two-ply brain: rates each play of the current piece by the best board it
+ * leaves after also playing the first preview piece. Trying every pair of
+ * plays would cost the square of the 10-30 single plays in rateBoard() calls,
+ * so only the top-K plays of the current piece, as rated by rateBoard() on
+ * their own, are expanded to the second ply. With a time budget, expansion
+ * stops once the budget is spent, and the best line found so far is played;
+ * the best single play is always expanded, so a tight budget degrades to
+ * DefaultBrain and never to no move at all.
+ *
+ * Without a preview, bestMove() is the greedy DefaultBrain search. With a
+ * TranspositionTable, the best reply to each expanded play is cached too, at
+ * depth 1, keyed by the board with the preview piece just above it.
+ */
+public class LookaheadBrain extends DefaultBrain implements PreviewBrain {
+
+	private int topK = 5;
+	private long timeBudget = 0;
+
+	/**
+	 * Sets how many plays of the current piece are expanded to the second
+	 * ply. 5 by default.
+	 */
+	public void setTopK(int topK) {
+		if (topK < 1) {
+			throw new IllegalArgumentException("topK must be at least 1");
+		}
+		this.topK = topK;
+	}
+
+	public int getTopK() {
+		return this.topK;
+	}
+
+	/**
+	 * Sets the time bestMove() may spend on one move, in nanoseconds, or 0
+	 * for no limit (the default). With a limit, the move may depend on the
+	 * speed of the machine.
+	 */
+	public void setTimeBudget(long nanos) {
+		this.timeBudget = nanos;
+	}
+
+	public long getTimeBudget() {
+		return this.timeBudget;
+	}
+
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight) {
+		if (preview == null || preview.length == 0) {
+			return bestMove(board, piece, limitHeight);
+		}
+		final long start = System.nanoTime();
+
+		int count = countPlays(board, piece);
+		Piece[] pieces = new Piece[count];
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+
+		Board scratch = new Board(board.getWidth(), board.getHeight());
+		scratch.copyFrom(board);
+
+		// first ply: rate every play on its own and keep the K best
+		double[] scores = new double[n];
+		for (int i = 0; i < n; i++) {
+			scores[i] = ratePlay(scratch, pieces[i], xs[i], ys[i]);
+		}
+		int[] kept = new int[Math.min(this.topK, n)];
+		int size = keepBest(scores, n, kept);
+		if (size == 0) {
+			return null; // could not find a play at all!
+		}
+
+		// second ply: the best reply of the preview piece to each kept play
+		Piece next = preview[0];
+		int replies = countPlays(board, next);
+		Piece[] replyPieces = new Piece[replies];
+		int[] replyXs = new int[replies];
+		int[] replyYs = new int[replies];
+
+		double bestScore = 1e20;
+		int best = -1;
+		for (int j = 0; j < size; j++) {
+			if (j > 0 && this.timeBudget > 0 && System.nanoTime() - start >= this.timeBudget) {
+				break;
+			}
+			int i = kept[j];
+			scratch.copyFrom(board);
+			if (scratch.place(pieces[i], xs[i], ys[i]) == Board.PLACE_ROW_FILLED) {
+				scratch.clearRows();
+			}
+			int cleared = scratch.getRowsCleared();
+			scratch.commit();
+
+			double score = bestReply(scratch, next, limitHeight, replyPieces, replyXs, replyYs) + rateCleared(cleared);
+			if (score < bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+
+		// no kept play leaves room for the next piece: play the best single one
+		if (best < 0) {
+			best = kept[0];
+			bestScore = scores[best];
+		}
+		Brain.Move move = new Brain.Move();
+		move.x = xs[best];
+		move.y = ys[best];
+		move.piece = pieces[best];
+		move.score = bestScore;
+		return move;
+	}
+
+	/**
+	 * Stores in kept the indexes of the kept.length lowest finite scores among
+	 * the first n, from best to worst, earlier plays first on equal scores.
+	 * Returns the number of indexes stored, fewer when fewer plays are finite.
+	 */
+	protected static int keepBest(double[] scores, int n, int[] kept) {
+		int k = kept.length;
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (scores[i] == Double.POSITIVE_INFINITY || (size == k && scores[i] >= scores[kept[k - 1]])) {
+				continue;
+			}
+			int j = (size < k) ? size++ : k - 1;
+			while (j > 0 && scores[kept[j - 1]] > scores[i]) {
+				kept[j] = kept[j - 1];
+				j--;
+			}
+			kept[j] = i;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the best score of any play of the piece on the committed board,
+	 * or an infinite score if it cannot be played. The arrays are scratch
+	 * space for listPlays().
+	 */
+	protected double bestReply(Board board, Piece piece, int limitHeight, Piece[] pieces, int[] xs, int[] ys) {
+		TranspositionTable table = getTranspositionTable();
+		long key = 0;
+		if (table != null) {
+			key = positionKey(board, piece);
+			double cached = table.probe(key, 1);
+			if (!Double.isNaN(cached)) {
+				return cached;
+			}
+		}
+
+		double best = Double.POSITIVE_INFINITY;
+		int n = listPlays(board, piece, limitHeight, pieces, xs, ys);
+		for (int i = 0; i < n; i++) {
+			best = Math.min(best, ratePlay(board, pieces[i], xs[i], ys[i]));
+		}
+		if (table != null) {
+			table.store(key, 1, best);
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the rating of rows cleared by an earlier ply, which the board
+	 * forgets on commit() and so cannot give to rateBoard() in the next ply:
+	 * the LINES_CLEARED term of the evaluator, or 0 without an evaluator.
+	 */
+	protected double rateCleared(int rows) {
+		FeatureEvaluator evaluator = getEvaluator();
+		if (evaluator == null || rows == 0) {
+			return 0;
+		}
+		return evaluator.getWeights()[FeatureEvaluator.LINES_CLEARED] * rows;
+	}
+
+	/**
+	 * Hashes the board together with the piece to play on it, by adding the
+	 * Zobrist keys of the piece blocks as if they sat right above the board,
+	 * where no block of the board can be.
+	 */
+	protected static long positionKey(Board board, Piece piece) {
+		long key = board.hash64();
+		int[] bodyX = piece.getBodyX();
+		int[] bodyY = piece.getBodyY();
+		for (int i = 0; i < bodyX.length; i++) {
+			key ^= Board.zobristKey(bodyX[i], board.getHeight() + bodyY[i]);
+		}
+		return key;
+	}
+
+	/**
+	 * Places the piece on the committed board, clears its rows, rates the
+	 * result and undoes it all. Returns an infinite score for plays that
+	 * cannot be placed.
+	 */
+	protected double ratePlay(Board board, Piece piece, int x, int y) {
+		double score = Double.POSITIVE_INFINITY;
+		int result = board.place(piece, x, y);
+		if (result <= Board.PLACE_ROW_FILLED) {
+			if (result == Board.PLACE_ROW_FILLED) {
+				board.clearRows();
+			}
+			score = cachedRateBoard(board);
+		}
+		board.undo();
+		return score;
+	}
+}
@@ -0,0 +1,228 @@
+// MoveGenerator.java
+import java.util.Arrays;
+
+/**
+ * Lists the resting positions a piece can actually reach from where it
+ * starts, by the moves GameEngine.step() allows: LEFT, RIGHT, ROTATE about
+ * the rotation offsets, and DOWN. Unlike the straight drops of
+ * Board.dropHeight(), this finds the plays that slide or rotate the piece
+ * under an overhang ("tucks" and "spins"), and leaves out the drops that a
+ * wall or an overhang makes impossible to reach. The piece is assumed to have
+ * time for any number of moves before it falls one row, as a brain does.
+ *
+ * <p>
+ * generate() does a breadth-first search over the (rotation, x, y) states of
+ * the piece. A state is tested against the board with one bit mask per piece
+ * row and the board's row masks, and the states already seen are kept in a
+ * bit set. A resting state is one where DOWN fails; each is listed once, in
+ * order of rotation, then x, then y, into a flat int buffer of (rotation, x,
+ * y) triples. On a board without overhangs that is the order of the straight
+ * drops.
+ *
+ * <p>
+ * A generator reuses its buffers from call to call, so it is not thread
+ * safe: use one per thread.
+ *
+ * <pre>
+ * MoveGenerator generator = new MoveGenerator();
+ * int n = generator.generate(board, piece);
+ * for (int i = 0; i &lt; n; i++) {
+ * 	board.place(generator.getPiece(i), generator.getX(i), generator.getY(i));
+ * 	...
+ * 	board.undo();
+ * }
+ * </pre>
+ */
+public class MoveGenerator {
+
+	private Piece[] rotations = new Piece[4];
+	private int rotationCount;
+	private long[][] masks = new long[4][4]; // masks[r][j]: the blocks of row j of rotation r
+
+	private long[] visited = new long[0];
+	private int[] queue = new int[0];
+	private int[] moves = new int[0];
+
+	// the board being searched
+	private long[] rows;
+	private int width;
+	private int height;
+
+	/**
+	 * Lists the resting positions the piece can reach from where
+	 * GameEngine.addNewPiece() puts it: centered at the top of the board.
+	 * The board must be committed, without the piece. Returns the number of
+	 * positions.
+	 */
+	public int generate(Board board, Piece piece) {
+		return generate(board, piece, (board.getWidth() - piece.getWidth()) / 2, board.getHeight() - piece.getHeight());
+	}
+
+	/**
+	 * Same as above, from the given position of the piece, e.g. where it is
+	 * falling. Returns 0 if the piece does not fit there.
+	 */
+	public int generate(Board board, Piece piece, int x, int y) {
+		setUp(board, piece);
+		final int states = this.rotationCount * this.width * this.height;
+		if (!fits(0, x, y)) {
+			return 0;
+		}
+
+		int head = 0;
+		int tail = 0;
+		this.queue[tail++] = index(0, x, y);
+		mark(this.queue[0]);
+		while (head < tail) {
+			int state = this.queue[head++];
+			int r = state / (this.width * this.height);
+			int sx = (state / this.height) % this.width;
+			int sy = state % this.height;
+
+			// LEFT, RIGHT, DOWN, then ROTATE
+			tail = visit(r, sx - 1, sy, tail);
+			tail = visit(r, sx + 1, sy, tail);
+			tail = visit(r, sx, sy - 1, tail);
+			Piece p = this.rotations[r];
+			int next = (r + 1 == this.rotationCount) ? 0 : r + 1;
+			tail = visit(next, sx + p.getRotationOffsetX(), sy + p.getRotationOffsetY(), tail);
+		}
+
+		// the resting states, in index order
+		int count = 0;
+		for (int w = 0; w < (states + 63) >>> 6; w++) {
+			long bits = this.visited[w];
+			while (bits != 0) {
+				int state = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int r = state / (this.width * this.height);
+				int sx = (state / this.height) % this.width;
+				int sy = state % this.height;
+				if (!fits(r, sx, sy - 1)) {
+					this.moves[3 * count] = r;
+					this.moves[3 * count + 1] = sx;
+					this.moves[3 * count + 2] = sy;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the rotation of the i-th position found by the last generate().
+	 */
+	public Piece getPiece(int i) {
+		return this.rotations[this.moves[3 * i]];
+	}
+
+	public int getX(int i) {
+		return this.moves[3 * i + 1];
+	}
+
+	public int getY(int i) {
+		return this.moves[3 * i + 2];
+	}
+
+	/**
+	 * Returns the buffer of the last generate(): for position i, the rotation
+	 * number (0 for the piece given, 1 for its fastRotation(), ...) at 3 * i,
+	 * then x and y. Only the entries of the positions found are meaningful.
+	 */
+	public int[] getMoves() {
+		return this.moves;
+	}
+
+	/**
+	 * Returns an upper bound of the number of positions generate() can find
+	 * for the piece on a board of that size: the number of positions of its
+	 * rotations inside the board.
+	 */
+	public static int maxMoves(Board board, Piece piece) {
+		int count = 0;
+		Piece current = piece;
+		do {
+			count += Math.max(0, board.getWidth() - current.getWidth() + 1)
+					* Math.max(0, board.getHeight() - current.getHeight() + 1);
+			current = current.fastRotation();
+		} while (!current.equals(piece));
+		return count;
+	}
+
+	// Lists the rotations of the piece with their row masks, and makes the
+	// buffers big enough for the board.
+	private void setUp(Board board, Piece piece) {
+		this.rows = board.rows;
+		this.width = board.getWidth();
+		this.height = board.getHeight();
+
+		this.rotationCount = 0;
+		Piece current = piece;
+		do {
+			if (this.rotationCount == this.rotations.length) {
+				this.rotations = Arrays.copyOf(this.rotations, 2 * this.rotationCount);
+				this.masks = Arrays.copyOf(this.masks, 2 * this.rotationCount);
+			}
+			long[] mask = this.masks[this.rotationCount];
+			if (mask == null || mask.length < current.getHeight()) {
+				mask = new long[current.getHeight()];
+				this.masks[this.rotationCount] = mask;
+			}
+			Arrays.fill(mask, 0L);
+			int[] bodyX = current.getBodyX();
+			int[] bodyY = current.getBodyY();
+			for (int i = 0; i < bodyX.length; i++) {
+				mask[bodyY[i]] |= 1L << bodyX[i];
+			}
+			this.rotations[this.rotationCount++] = current;
+			current = current.fastRotation();
+		} while (!current.equals(piece));
+
+		int states = this.rotationCount * this.width * this.height;
+		int words = (states + 63) >>> 6;
+		if (this.queue.length < states) {
+			this.visited = new long[words];
+			this.queue = new int[states];
+			this.moves = new int[3 * states];
+		} else {
+			Arrays.fill(this.visited, 0, words, 0L);
+		}
+	}
+
+	// Adds the state to the queue if the piece fits there and it was not
+	// seen yet. Returns the new tail of the queue.
+	private int visit(int r, int x, int y, int tail) {
+		if (fits(r, x, y)) {
+			int state = index(r, x, y);
+			if ((this.visited[state >>> 6] & (1L << state)) == 0) {
+				mark(state);
+				this.queue[tail++] = state;
+			}
+		}
+		return tail;
+	}
+
+	// True if rotation r fits at (x, y): inside the board and clear of its
+	// blocks.
+	private boolean fits(int r, int x, int y) {
+		Piece p = this.rotations[r];
+		if (x < 0 || y < 0 || x + p.getWidth() > this.width || y + p.getHeight() > this.height) {
+			return false;
+		}
+		long[] mask = this.masks[r];
+		for (int j = 0; j < p.getHeight(); j++) {
+			if ((this.rows[y + j] & (mask[j] << x)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int index(int r, int x, int y) {
+		return (r * this.width + x) * this.height + y;
+	}
+
+	private void mark(int state) {
+		this.visited[state >>> 6] |= 1L << state;
+	}
+}
@@ -0,0 +1,111 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MoveGeneratorTest {
+
+	// Returns the index of the position (piece, x, y) among the n found, or -1.
+	private static int find(MoveGenerator generator, int n, Piece piece, int x, int y) {
+		for (int i = 0; i < n; i++) {
+			if (generator.getPiece(i).equals(piece) && generator.getX(i) == x && generator.getY(i) == y) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testOpenBoard() {
+		// without overhangs, the reachable positions are the straight drops,
+		// in the same order
+		Board b = new Board(10, 24);
+		b.place(new Piece(Piece.PYRAMID_STR), 3, 0);
+		b.commit();
+		b.place(new Piece(Piece.STICK_STR), 9, 0);
+		b.commit();
+		MoveGenerator generator = new MoveGenerator();
+		for (Piece root : Piece.getPieces()) {
+			int n = generator.generate(b, root);
+			int i = 0;
+			Piece p = root;
+			do {
+				for (int x = 0; x + p.getWidth() <= b.getWidth(); x++) {
+					assertSame(p, generator.getPiece(i));
+					assertEquals(x, generator.getX(i));
+					assertEquals(b.dropHeight(p, x), generator.getY(i));
+					i++;
+				}
+				p = p.fastRotation();
+			} while (p != root);
+			assertEquals(i, n);
+		}
+	}
+
+	@Test
+	public void testTuck() {
+		// a lying stick slides under the overhang of row 2
+		Board b = new Board(6, 10);
+		for (int x = 2; x < 6; x++) {
+			b.getGrid()[x][2] = true;
+		}
+		b.updateWidthsHeights();
+		Piece lying = Piece.getPieces()[0].fastRotation();
+		MoveGenerator generator = new MoveGenerator();
+		int n = generator.generate(b, lying);
+		assertEquals(3, b.dropHeight(lying, 2));
+		assertTrue(find(generator, n, lying, 2, 3) >= 0);
+		assertTrue(find(generator, n, lying, 2, 0) >= 0);
+		assertTrue(find(generator, n, lying, 0, 0) >= 0);
+		// every position listed rests on something
+		for (int i = 0; i < n; i++) {
+			Piece p = generator.getPiece(i);
+			assertEquals(Board.PLACE_OK, b.place(p, generator.getX(i), generator.getY(i)));
+			b.undo();
+			assertTrue(b.place(p, generator.getX(i), generator.getY(i) - 1) > Board.PLACE_ROW_FILLED);
+			b.undo();
+		}
+	}
+
+	@Test
+	public void testWall() {
+		// the wall at x = 1 keeps the stick from the left column, which a
+		// straight drop would reach
+		Board b = new Board(6, 8);
+		for (int y = 0; y < 7; y++) {
+			b.getGrid()[1][y] = true;
+		}
+		b.updateWidthsHeights();
+		Piece stick = Piece.getPieces()[0];
+		MoveGenerator generator = new MoveGenerator();
+		int n = generator.generate(b, stick);
+		assertEquals(0, b.dropHeight(stick, 0));
+		assertEquals(-1, find(generator, n, stick, 0, 0));
+		assertTrue(find(generator, n, stick, 2, 0) >= 0);
+
+		// nowhere to start from
+		assertEquals(0, generator.generate(b, stick, 1, 0));
+	}
+
+	@Test
+	public void testReachableBrain() {
+		DefaultBrain brain = new DefaultBrain();
+		brain.setReachableOnly(true);
+		GameEngine engine = new GameEngine(10, 20);
+		engine.setPieceLimit(100);
+		engine.startGame(new Random(0));
+		MoveGenerator generator = new MoveGenerator();
+		while (engine.isGameOn()) {
+			// the brain only plays positions the piece can reach
+			Board board = engine.getBoard();
+			board.undo();
+			Brain.Move move = brain.bestMove(board, engine.getCurrentPiece(), 20);
+			int n = generator.generate(board, engine.getCurrentPiece());
+			assertTrue(find(generator, n, move.piece, move.x, move.y) >= 0);
+			board.place(engine.getCurrentPiece(), engine.getCurrentX(), engine.getCurrentY());
+			engine.dropWithBrain(brain);
+		}
+		assertEquals(101, engine.getCount());
+	}
+}
@@ -32,6 +32,19 @@ public class Piece {
 	private List<Integer> skirt;
 	private int width;
 	private int height;
+
+	// The same body and skirt as primitive arrays for the hot paths of Board
+	// and the brains, plus the top profile: for each x, the highest y + 1.
+	private int[] bodyX;
+	private int[] bodyY;
+	private int[] skirtArray;
+	private int[] top;
+
+	// Next rotation in the circular list built by getPieces(), and the offsets
+	// that make the move to it appear to turn about the center of the piece.
+	private Piece next;
+	private int rotationOffsetX;
+	private int rotationOffsetY;
 	
 	static private Piece[] pieces; // singleton static array of first rotations
 	
@@ -84,6 +97,24 @@ public class Piece {
 			}
 		}	
 		
+		//Copie du body et de skirt dans des tableaux d'entiers.
+		
+		this.bodyX = new int[points.size()];
+		this.bodyY = new int[points.size()];
+		this.skirtArray = new int[this.skirt.size()];
+		this.top = new int[this.width];
+		for(int i = 0; i<points.size(); i++) {
+			TPoint p = points.get(i);
+			this.bodyX[i] = p.x;
+			this.bodyY[i] = p.y;
+			if(p.y + 1 > this.top[p.x]) {
+				this.top[p.x] = p.y + 1;
+			}
+		}
+		for(int i = 0; i<this.skirtArray.length; i++) {
+			this.skirtArray[i] = this.skirt.get(i);
+		}
+		
 	}
 	
 	/**
@@ -102,6 +133,13 @@ public class Piece {
 		this.height = piece.height;
 		this.width = piece.width;
 		this.skirt = piece.skirt;
+		this.bodyX = piece.bodyX;
+		this.bodyY = piece.bodyY;
+		this.skirtArray = piece.skirtArray;
+		this.top = piece.top;
+		this.next = piece.next;
+		this.rotationOffsetX = piece.rotationOffsetX;
+		this.rotationOffsetY = piece.rotationOffsetY;
 	}
 	
 	
@@ -163,6 +201,39 @@ public class Piece {
 	public List<Integer> getSkirt() {
 		return this.skirt;
 	}
+
+	/**
+	 * Returns the x values of the points of the body, in the same order as
+	 * getBody(). The caller should not modify this array.
+	 */
+	public int[] getBodyX() {
+		return this.bodyX;
+	}
+
+	/**
+	 * Returns the y values of the points of the body, in the same order as
+	 * getBody(). The caller should not modify this array.
+	 */
+	public int[] getBodyY() {
+		return this.bodyY;
+	}
+
+	/**
+	 * Returns the skirt as an int array, without the boxing of getSkirt(). The
+	 * caller should not modify this array.
+	 */
+	public int[] getSkirtArray() {
+		return this.skirtArray;
+	}
+
+	/**
+	 * Returns the top profile of the piece: for each x value across the piece,
+	 * the highest y value in the body + 1. The caller should not modify this
+	 * array.
+	 */
+	public int[] getTopProfile() {
+		return this.top;
+	}
 	
 	/**
 	 * Returns a new piece that is 90 degrees counter-clockwise rotated from the
@@ -246,6 +317,63 @@ public class Piece {
 	    
 	}
 
+	/**
+	 * Returns the next 90 degrees counter-clockwise rotation of the receiver,
+	 * like computeNextRotation(), but from the rotations precomputed by
+	 * getPieces() so that it costs a field read. Pieces that were not obtained
+	 * from getPieces() are linked to the matching precomputed rotation on their
+	 * first call.
+	 */
+	public Piece fastRotation() {
+		if (this.next == null) {
+			link();
+		}
+		return this.next;
+	}
+
+	/**
+	 * Returns the amount to add to the x of the receiver so that its
+	 * fastRotation() appears to rotate about its center, as JTetris does.
+	 */
+	public int getRotationOffsetX() {
+		if (this.next == null) {
+			link();
+		}
+		return this.rotationOffsetX;
+	}
+
+	/**
+	 * Returns the amount to add to the y of the receiver so that its
+	 * fastRotation() appears to rotate about its center, as JTetris does.
+	 */
+	public int getRotationOffsetY() {
+		if (this.next == null) {
+			link();
+		}
+		return this.rotationOffsetY;
+	}
+
+	// Sets the next rotation of a piece built outside of getPieces() from the
+	// equal precomputed rotation, or computes it for a non-standard piece.
+	private void link() {
+		for (Piece root : getPieces()) {
+			Piece p = root;
+			do {
+				if (p.equals(this)) {
+					this.rotationOffsetX = p.rotationOffsetX;
+					this.rotationOffsetY = p.rotationOffsetY;
+					this.next = p.next;
+					return;
+				}
+				p = p.next;
+			} while (p != root);
+		}
+		Piece rotated = computeNextRotation();
+		this.rotationOffsetX = (this.width - rotated.width) / 2;
+		this.rotationOffsetY = (this.height - rotated.height) / 2;
+		this.next = rotated;
+	}
+
 	/**
 	 * Returns true if two pieces are the same -- their bodies contain the same
 	 * points. Interestingly, this is not the same as having exactly the same
@@ -309,10 +437,10 @@ public class Piece {
 	 * through all the rotations until eventually getting back to the first
 	 * rotation. (provided code)
 	 */
-	public static Piece[] getPieces() {
+	public static synchronized Piece[] getPieces() {
 		// lazy evaluation -- create static array if needed
 		if (Piece.pieces == null) {
-			Piece.pieces = new Piece[] { 
+			Piece[] roots = new Piece[] { 
 					new Piece(STICK_STR), 
 					new Piece(L1_STR),
 					new Piece(L2_STR), 
@@ -320,9 +448,35 @@ public class Piece {
 					new Piece(S2_STR),
 					new Piece(SQUARE_STR),
 					new Piece(PYRAMID_STR)};
+			for (Piece root : roots) {
+				makeFastRotations(root);
+			}
+			Piece.pieces = roots;
 		}
 
 		return Piece.pieces;
 	}
 
+	/**
+	 * Given the first rotation of a piece, computes all its distinct rotations
+	 * and links them in a circular list through their next fields, along with
+	 * the offsets of each rotation step.
+	 */
+	private static void makeFastRotations(Piece root) {
+		Piece current = root;
+		while (true) {
+			Piece rotated = current.computeNextRotation();
+			if (rotated.equals(root)) {
+				rotated = root;
+			}
+			current.next = rotated;
+			current.rotationOffsetX = (current.width - rotated.width) / 2;
+			current.rotationOffsetY = (current.height - rotated.height) / 2;
+			if (rotated == root) {
+				break;
+			}
+			current = rotated;
+		}
+	}
+
 }
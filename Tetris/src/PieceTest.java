@@ -66,4 +66,42 @@ public class PieceTest {
 	}
 	
 	
+	@Test
+	public void testFastRotation() {
+		// STICK, L1, L2, S1, S2, SQUARE, PYRAMID
+		int[] counts = { 2, 4, 4, 2, 2, 1, 4 };
+		Piece[] pieces = Piece.getPieces();
+		for (int i = 0; i < pieces.length; i++) {
+			Piece p = pieces[i];
+			int n = 0;
+			do {
+				assertEquals(p.computeNextRotation(), p.fastRotation());
+				assertEquals((p.getWidth() - p.fastRotation().getWidth()) / 2, p.getRotationOffsetX());
+				assertEquals((p.getHeight() - p.fastRotation().getHeight()) / 2, p.getRotationOffsetY());
+				p = p.fastRotation();
+				n++;
+			} while (p != pieces[i]);
+			assertEquals(counts[i], n);
+		}
+
+		// pieces built by hand join the precomputed rotations
+		Piece pyr2 = new Piece(Piece.PYRAMID_STR).fastRotation();
+		assertSame(pieces[6].fastRotation(), pyr2);
+		Piece l = new Piece("1 2 1 1 1 0 0 2");
+		assertEquals(l.computeNextRotation(), l.fastRotation());
+	}
+	
+	@Test
+	public void testPrimitiveArrays() {
+		Piece s = new Piece(Piece.S1_STR);
+		assertArrayEquals(new int[] { 0, 1, 1, 2 }, s.getBodyX());
+		assertArrayEquals(new int[] { 0, 0, 1, 1 }, s.getBodyY());
+		assertArrayEquals(new int[] { 0, 0, 1 }, s.getSkirtArray());
+		assertArrayEquals(new int[] { 1, 2, 2 }, s.getTopProfile());
+
+		Piece pyr3 = Piece.getPieces()[6].fastRotation().fastRotation();
+		assertArrayEquals(new int[] { 1, 0, 1 }, pyr3.getSkirtArray());
+		assertArrayEquals(new int[] { 2, 2, 2 }, pyr3.getTopProfile());
+	}
+	
 }
@@ -0,0 +1,16 @@
+// PreviewBrain.java
+
+/**
+ * A Brain that can also look at the pieces coming after the current one, the
+ * way a player looks at the "next" box. GameEngine.dropWithBrain() calls the
+ * preview version of bestMove() for such brains.
+ */
+public interface PreviewBrain extends Brain {
+
+	/**
+	 * Same as Brain.bestMove(), given also the next pieces in the order they
+	 * will be played, preview[0] being the piece right after the current one.
+	 * The preview may be empty, and must not be modified.
+	 */
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight);
+}
@@ -0,0 +1,96 @@
+// Replay.java
+
+/**
+ * The binary replay format written by ReplayWriter and read by ReplayReader:
+ * everything needed to play a game again without its random generator, its
+ * player or its adversary. All numbers are big-endian.
+ *
+ * <pre>
+ * header:  int MAGIC, byte VERSION, short width, short height,
+ *          byte preview length, int piece limit, long seed, long start time
+ *          (System.currentTimeMillis())
+ * records: DRAW + code             1 byte   a piece drawn by pickNextPiece()
+ *          VERB + verb, delta      2+ bytes a step(verb), delta being the
+ *                                           milliseconds since the previous
+ *                                           verb, as an unsigned varint
+ *          DROP + code, x, y       3 bytes  a drop(piece, x, y)
+ *          END, footer             1 byte   the game stopped
+ * footer:  int count, int placed, int score, int lines, long board hash64()
+ * </pre>
+ *
+ * The first byte of a record gives its type and the piece or verb: the piece
+ * is coded as its root's index in Piece.getPieces() times 4, plus the number
+ * of rotations from the root. The height is the playing height, as given to
+ * the GameEngine, which must leave at most 256 rows with the TOP_SPACE. A
+ * replay cut short, with no END, still replays as far as it goes.
+ */
+public class Replay {
+
+	public static final int MAGIC = 0x54524550; // "TREP"
+	public static final int VERSION = 1;
+
+	// Record types, from the first byte of a record
+	public static final int DRAW = 0x00;
+	public static final int VERB = 0x20;
+	public static final int DROP = 0x40;
+	public static final int END = 0x7F;
+	public static final int EOF = -1; // no more records, no END either
+
+	// bytes of the header and of the footer
+	public static final int HEADER_SIZE = 4 + 1 + 2 + 2 + 1 + 4 + 8 + 8;
+	public static final int FOOTER_SIZE = 4 * 4 + 8;
+
+	// the pieces of fastRotation(), at the index of their code: root i << 2
+	// | rotation, a piece with fewer than 4 rotations coming back as it
+	// turns
+	private static final Piece[] CODES = new Piece[4 * Piece.getPieces().length];
+
+	static {
+		Piece[] roots = Piece.getPieces();
+		for (int i = 0; i < roots.length; i++) {
+			Piece current = roots[i];
+			for (int rotation = 0; rotation < 4; rotation++) {
+				CODES[i << 2 | rotation] = current;
+				current = current.fastRotation();
+			}
+		}
+	}
+
+	private Replay() {
+	}
+
+	/**
+	 * Returns the first byte of a DRAW or DROP record of the piece.
+	 */
+	public static int pieceCode(int type, Piece piece) {
+		// the pieces of the engine are the ones of fastRotation(), so that
+		// comparing references is enough but for other copies of them
+		for (int code = 0; code < CODES.length; code++) {
+			if (CODES[code] == piece) {
+				return type | code;
+			}
+		}
+		Piece[] roots = Piece.getPieces();
+		for (int i = 0; i < roots.length; i++) {
+			Piece current = roots[i];
+			for (int rotation = 0; rotation < 4; rotation++) {
+				if (current.equals(piece)) {
+					return type | i << 2 | rotation;
+				}
+				current = current.fastRotation();
+			}
+		}
+		throw new IllegalArgumentException("not a standard piece: " + piece);
+	}
+
+	/**
+	 * Returns the piece of the first byte of a DRAW or DROP record.
+	 */
+	public static Piece piece(int code) {
+		Piece piece = Piece.getPieces()[(code & 0x1F) >>> 2];
+		for (int rotation = code & 3; rotation > 0; rotation--) {
+			piece = piece.fastRotation();
+		}
+		return piece;
+	}
+}
@@ -0,0 +1,291 @@
+// ReplayArchive.java
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Many replays in one file, written by ReplayArchiveWriter and read here
+ * through memory mapping: a trainer or an analyzer can go to game N, or to
+ * piece K of a game, without reading anything before it. All numbers are
+ * big-endian.
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, long reserved
+ * games:   per game, its replay as written by ReplayWriter, then its
+ *          landing table: 3 bytes per piece placed, the piece code of
+ *          Replay.pieceCode(Replay.DROP, piece), x and y
+ * index:   ENTRY_SIZE bytes per game: long replay offset, int replay length,
+ *          long landing table offset, int pieces placed, int score,
+ *          int lines, long seed
+ * trailer: long index offset, int game count, int MAGIC
+ * </pre>
+ *
+ * The trailer is the last TRAILER_SIZE bytes of the file. An archive that a
+ * writer added games to after it was closed also has the index and trailer
+ * of the earlier close between its games, unused.
+ *
+ * The landing table is where each piece landed, whatever moves brought it
+ * there, so a game of verbs seeks as fast as a game of drops: play() reads
+ * it straight from the mapped file into Board.place() calls, without
+ * decoding the replay or creating an object per piece.
+ *
+ * The file is mapped in chunks of 1 GB, each overlapping the next by MARGIN
+ * bytes, so anything shorter than MARGIN -- an index entry, a replay or a
+ * landing table -- lies whole in the chunk where it starts. The archive only
+ * reads the mapping, with absolute gets, so any number of threads may share
+ * it. It must not be used while a ReplayArchiveWriter appends to its file.
+ */
+public class ReplayArchive {
+
+	public static final int MAGIC = 0x54415243; // "TARC"
+	public static final int VERSION = 1;
+
+	// bytes of the header, an index entry and the trailer
+	public static final int HEADER_SIZE = 4 + 4 + 8;
+	public static final int ENTRY_SIZE = 8 + 4 + 8 + 4 + 4 + 4 + 8;
+	public static final int TRAILER_SIZE = 8 + 4 + 4;
+
+	// the largest replay, and landing table, of an archive
+	public static final int MARGIN = 1 << 24;
+
+	// offsets of the fields of an index entry
+	static final int REPLAY_OFFSET = 0;
+	static final int REPLAY_LENGTH = 8;
+	static final int LANDINGS_OFFSET = 12;
+	static final int PIECES = 20;
+	static final int SCORE = 24;
+	static final int LINES = 28;
+	static final int SEED = 32;
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	private final String name;
+	private final MappedByteBuffer[] chunks;
+	private final long indexOffset;
+	private final int count;
+
+	/**
+	 * Maps the archive and checks its trailer. Throws an IOException if the
+	 * file is not an archive of this version, or was not closed by its writer.
+	 */
+	public ReplayArchive(File file) throws IOException {
+		this.name = file.toString();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			int n = (int) ((size + CHUNK_MASK) >>> CHUNK_BITS);
+			this.chunks = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				long start = (long) i << CHUNK_BITS;
+				this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(size - start, CHUNK_MASK + 1 + MARGIN));
+			}
+			// the mappings stay valid once the channel is closed
+
+			if (size < HEADER_SIZE + TRAILER_SIZE || getInt(0) != MAGIC) {
+				throw new IOException("not a replay archive: " + this.name);
+			}
+			if (getInt(4) != VERSION) {
+				throw new IOException("unknown replay archive version " + getInt(4) + ": " + this.name);
+			}
+			long trailer = size - TRAILER_SIZE;
+			this.indexOffset = getLong(trailer);
+			this.count = getInt(trailer + 8);
+			if (getInt(trailer + 12) != MAGIC || this.count < 0 || this.indexOffset < HEADER_SIZE
+					|| this.indexOffset + (long) this.count * ENTRY_SIZE != trailer) {
+				throw new IOException("replay archive not closed: " + this.name);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	public int getGameCount() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the number of pieces placed in the game, the length of its
+	 * landing table.
+	 */
+	public int getPieces(int game) {
+		return getInt(entry(game) + PIECES);
+	}
+
+	public int getScore(int game) {
+		return getInt(entry(game) + SCORE);
+	}
+
+	public int getLines(int game) {
+		return getInt(entry(game) + LINES);
+	}
+
+	public long getSeed(int game) {
+		return getLong(entry(game) + SEED);
+	}
+
+	public int getWidth(int game) {
+		return getShort(getLong(entry(game) + REPLAY_OFFSET) + 5);
+	}
+
+	/**
+	 * Returns the playing height of the game, without the
+	 * GameEngine.TOP_SPACE.
+	 */
+	public int getHeight(int game) {
+		return getShort(getLong(entry(game) + REPLAY_OFFSET) + 7);
+	}
+
+	/**
+	 * Returns an empty board of the size of the game's, TOP_SPACE included,
+	 * for play().
+	 */
+	public Board createBoard(int game) {
+		return new Board(getWidth(game), getHeight(game) + GameEngine.TOP_SPACE);
+	}
+
+	/**
+	 * Returns the replay of the game, a read-only buffer over the mapped file
+	 * for a ReplayReader.
+	 */
+	public ByteBuffer getReplay(int game) {
+		long entry = entry(game);
+		long offset = getLong(entry + REPLAY_OFFSET);
+		int length = getInt(entry + REPLAY_LENGTH);
+		ByteBuffer replay = this.chunks[(int) (offset >>> CHUNK_BITS)].asReadOnlyBuffer();
+		int start = (int) (offset & CHUNK_MASK);
+		replay.limit(start + length).position(start);
+		return replay.slice();
+	}
+
+	/**
+	 * Returns the piece placed k-th in the game, counting from 0, in the
+	 * rotation it landed in.
+	 */
+	public Piece getPiece(int game, int k) {
+		return Replay.piece(get(landing(game, k)));
+	}
+
+	/**
+	 * Returns where the k-th piece of the game landed.
+	 */
+	public int getX(int game, int k) {
+		return get(landing(game, k) + 1) & 0xFF;
+	}
+
+	public int getY(int game, int k) {
+		return get(landing(game, k) + 2) & 0xFF;
+	}
+
+	/**
+	 * Places the first pieces of the game on the given committed board, as
+	 * they landed, clearing full rows and committing after each one, and
+	 * returns the number of rows cleared. On the empty board of
+	 * createBoard(), this is the board of the game after those pieces;
+	 * after all of them, it is the board at the END of the replay, but for
+	 * a piece still falling or a last drop that did not fit. Throws an
+	 * IllegalStateException if a piece does not fit the board.
+	 */
+	public int play(int game, int pieces, Board board) {
+		return play(game, 0, pieces, board);
+	}
+
+	/**
+	 * Same as above, for the pieces from the given one, counting from 0, to
+	 * the other, excluded: on the board of the game before piece from, this
+	 * gives the board of the game before piece to.
+	 */
+	public int play(int game, int from, int to, Board board) {
+		long entry = entry(game);
+		if (from < 0 || from > to || to > getInt(entry + PIECES)) {
+			throw new IndexOutOfBoundsException("game " + game + " has no pieces " + from + " to " + to);
+		}
+		long offset = getLong(entry + LANDINGS_OFFSET);
+		MappedByteBuffer chunk = this.chunks[(int) (offset >>> CHUNK_BITS)];
+		int start = (int) (offset & CHUNK_MASK);
+		int end = start + 3 * to;
+		int cleared = 0;
+		for (int i = start + 3 * from; i < end; i += 3) {
+			int result = board.place(Replay.piece(chunk.get(i)), chunk.get(i + 1) & 0xFF, chunk.get(i + 2) & 0xFF);
+			if (result == Board.PLACE_ROW_FILLED) {
+				cleared += board.clearRows();
+			} else if (result != Board.PLACE_OK) {
+				board.undo();
+				throw new IllegalStateException(
+						"piece " + (i - start) / 3 + " of game " + game + " does not fit: " + this.name);
+			}
+			board.commit();
+		}
+		return cleared;
+	}
+
+	// the position of the index entry of the game
+	private long entry(int game) {
+		if (game < 0 || game >= this.count) {
+			throw new IndexOutOfBoundsException("no game " + game + " in " + this.name);
+		}
+		return this.indexOffset + (long) game * ENTRY_SIZE;
+	}
+
+	// the position of the landing of the k-th piece of the game
+	private long landing(int game, int k) {
+		long entry = entry(game);
+		if (k < 0 || k >= getInt(entry + PIECES)) {
+			throw new IndexOutOfBoundsException("game " + game + " has no piece " + k);
+		}
+		return getLong(entry + LANDINGS_OFFSET) + 3L * k;
+	}
+
+	private byte get(long pos) {
+		return this.chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+	}
+
+	private int getShort(long pos) {
+		return this.chunks[(int) (pos >>> CHUNK_BITS)].getShort((int) (pos & CHUNK_MASK));
+	}
+
+	private int getInt(long pos) {
+		return this.chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+	}
+
+	private long getLong(long pos) {
+		return this.chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+	}
+
+	/**
+	 * Appends the given replay files, or the replays of the given
+	 * directories, to the archive named first, then plays every game of the
+	 * archive from its landing table and prints the rate.
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = new File(args[0]);
+		if (args.length > 1) {
+			ReplayArchiveWriter writer = new ReplayArchiveWriter(file);
+			try {
+				for (int i = 1; i < args.length; i++) {
+					File arg = new File(args[i]);
+					for (File f : arg.isDirectory() ? arg.listFiles() : new File[] { arg }) {
+						writer.add(f);
+					}
+				}
+			} finally {
+				writer.close();
+			}
+		}
+
+		ReplayArchive archive = new ReplayArchive(file);
+		long pieces = 0;
+		long start = System.nanoTime();
+		for (int game = 0; game < archive.getGameCount(); game++) {
+			archive.play(game, archive.getPieces(game), archive.createBoard(game));
+			pieces += archive.getPieces(game);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games, %d pieces, %.0f placements/s%n", archive.getGameCount(), pieces,
+				pieces / seconds);
+	}
+}
@@ -0,0 +1,208 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReplayArchiveTest {
+
+	// a recorded game, and the engine that played it
+	private static class Game {
+		File file;
+		GameEngine engine;
+	}
+
+	private static Game brainGame(long seed, int limit) throws IOException {
+		Game game = new Game();
+		game.file = File.createTempFile("brain", ".replay");
+		game.engine = new GameEngine(10, 20);
+		game.engine.setPieceLimit(limit);
+		ReplayWriter writer = new ReplayWriter(game.file);
+		game.engine.setListener(writer);
+		game.engine.startGame(seed);
+		Brain brain = new DefaultBrain();
+		while (game.engine.dropWithBrain(brain)) {
+		}
+		writer.close();
+		return game;
+	}
+
+	private static Game verbGame(long seed) throws IOException {
+		Game game = new Game();
+		game.file = File.createTempFile("verbs", ".replay");
+		game.engine = new GameEngine(8, 16);
+		ReplayWriter writer = new ReplayWriter(game.file);
+		game.engine.setListener(writer);
+		game.engine.startGame(seed);
+		Random random = new Random(seed);
+		// plays until the board fills up, so that no piece is left falling
+		while (game.engine.isGameOn()) {
+			game.engine.step(random.nextInt(4) == 0 ? random.nextInt(4) : GameEngine.DOWN);
+		}
+		writer.close();
+		return game;
+	}
+
+	@Test
+	public void testArchive() throws Exception {
+		File file = File.createTempFile("games", ".tarc");
+		file.delete(); // created by the writer
+		List<Game> games = new ArrayList<Game>();
+		try {
+			ReplayArchiveWriter writer = new ReplayArchiveWriter(file);
+			for (int i = 0; i < 3; i++) {
+				games.add(brainGame(i, 50 + 100 * i));
+				assertEquals(i, writer.add(games.get(i).file));
+			}
+			games.add(verbGame(5));
+			assertEquals(3, writer.add(games.get(3).file));
+			writer.close();
+
+			// opened again, the archive keeps its games and takes more
+			writer = new ReplayArchiveWriter(file);
+			assertEquals(4, writer.getGameCount());
+			games.add(brainGame(9, 0));
+			assertEquals(4, writer.add(games.get(4).file));
+			writer.close();
+
+			ReplayArchive archive = new ReplayArchive(file);
+			assertEquals(games.size(), archive.getGameCount());
+			for (int g = 0; g < games.size(); g++) {
+				GameEngine engine = games.get(g).engine;
+				assertEquals(engine.getPlaced(), archive.getPieces(g));
+				assertEquals(engine.getScore(), archive.getScore(g));
+				assertEquals(engine.getLines(), archive.getLines(g));
+				assertEquals(engine.getSeed(), archive.getSeed(g));
+				assertEquals(engine.getBoard().getWidth(), archive.getWidth(g));
+				assertEquals(engine.getBoard().getHeight() - GameEngine.TOP_SPACE, archive.getHeight(g));
+
+				Board board = archive.createBoard(g);
+				assertEquals(engine.getLines(), archive.play(g, archive.getPieces(g), board));
+				assertEquals(engine.getBoard().hash64(), board.hash64());
+
+				// the replay in the archive plays like its file
+				ReplayPlayer.Result result = ReplayPlayer.play(new ReplayReader(archive.getReplay(g)), null);
+				assertTrue(result.complete);
+				assertEquals(engine.getScore(), result.score);
+			}
+		} finally {
+			file.delete();
+			for (Game game : games) {
+				game.file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testSeek() throws Exception {
+		File file = File.createTempFile("games", ".tarc");
+		file.delete();
+		Game game = brainGame(3, 200);
+		try {
+			ReplayArchiveWriter writer = new ReplayArchiveWriter(file);
+			writer.add(game.file);
+			writer.close();
+			ReplayArchive archive = new ReplayArchive(file);
+
+			// plays the game again, checking each landing against the archive
+			final Board expected = archive.createBoard(0);
+			final ReplayArchive a = archive;
+			final int[] k = { 0 };
+			ReplayPlayer.play(new ReplayReader(archive.getReplay(0)), new GameListener() {
+				public void gameStarted(GameEngine engine) {
+				}
+
+				public void pieceDrawn(GameEngine engine, Piece piece) {
+				}
+
+				public void stepped(GameEngine engine, int verb) {
+				}
+
+				public void dropped(GameEngine engine, Piece piece, int x, int y) {
+				}
+
+				public void pieceLanded(GameEngine engine, Piece piece, int x, int y) {
+					assertEquals(piece, a.getPiece(0, k[0]));
+					assertEquals(x, a.getX(0, k[0]));
+					assertEquals(y, a.getY(0, k[0]));
+					k[0]++;
+					if (k[0] == 60) {
+						expected.copyFrom(engine.getBoard());
+					}
+				}
+
+				public void gameStopped(GameEngine engine) {
+				}
+			});
+			assertEquals(archive.getPieces(0), k[0]);
+
+			// the board after piece 60, before its rows are cleared
+			Board board = archive.createBoard(0);
+			archive.play(0, 59, board);
+			board.place(archive.getPiece(0, 59), archive.getX(0, 59), archive.getY(0, 59));
+			assertEquals(expected.hash64(), board.hash64());
+
+			try {
+				archive.getPiece(0, archive.getPieces(0));
+				fail("piece past the end of the game");
+			} catch (IndexOutOfBoundsException expectedException) {
+			}
+		} finally {
+			file.delete();
+			game.file.delete();
+		}
+	}
+
+	@Test
+	public void testNotClosed() throws Exception {
+		File file = File.createTempFile("games", ".tarc");
+		file.delete();
+		Game game = brainGame(1, 20);
+		try {
+			ReplayArchiveWriter writer = new ReplayArchiveWriter(file);
+			writer.add(ByteBuffer.wrap(Files.readAllBytes(game.file.toPath())));
+			try {
+				new ReplayArchive(file);
+				fail("archive read before its index was written");
+			} catch (IOException expected) {
+			}
+			writer.close();
+			assertEquals(1, new ReplayArchive(file).getGameCount());
+
+			// opened again, not closed: the file ends with a game, not a trailer
+			long size = file.length();
+			writer = new ReplayArchiveWriter(file);
+			writer.add(game.file);
+			try {
+				new ReplayArchive(file);
+				fail("archive read before its new index was written");
+			} catch (IOException expected) {
+			}
+			// the first game and its index are still there, as they were
+			ByteBuffer before = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			before.position((int) size - ReplayArchive.TRAILER_SIZE);
+			assertEquals(size - ReplayArchive.TRAILER_SIZE - ReplayArchive.ENTRY_SIZE, before.getLong());
+			assertEquals(1, before.getInt());
+			assertEquals(ReplayArchive.MAGIC, before.getInt());
+			writer.close();
+			ReplayArchive archive = new ReplayArchive(file);
+			assertEquals(2, archive.getGameCount());
+			assertEquals(archive.getPieces(0), archive.getPieces(1));
+
+			// and closed without games, it stays as it was
+			size = file.length();
+			new ReplayArchiveWriter(file).close();
+			assertEquals(size, file.length());
+			assertEquals(2, new ReplayArchive(file).getGameCount());
+		} finally {
+			file.delete();
+			game.file.delete();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+// ReplayArchiveWriter.java
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends replays to a ReplayArchive file. Each replay is played again with
+ * ReplayPlayer, which checks it and gives where its pieces landed; the
+ * replay and its landing table are then written at the end of the file. The
+ * index is kept in memory and written after them, with the trailer, by
+ * close(): an archive being written, or whose writer did not close, cannot
+ * be read.
+ *
+ * <p>
+ * An archive opened again keeps its index and trailer where they are, and
+ * the new games go after its trailer, so the earlier games are never
+ * overwritten: close() writes an index of all the games, old and new, at the
+ * new end of the file. The old index is then left unused in the middle of
+ * the file, ENTRY_SIZE bytes per game.
+ *
+ * <pre>
+ * ReplayArchiveWriter writer = new ReplayArchiveWriter(new File("games.tarc"));
+ * for (File replay : replays) {
+ *     writer.add(replay);
+ * }
+ * writer.close();
+ * </pre>
+ */
+public class ReplayArchiveWriter implements Closeable {
+
+	private final FileChannel channel;
+	private ByteBuffer index; // the entries, in the order of the games
+	private long end; // where the next game goes
+	private boolean changed; // since the file was opened, so close() writes
+	private final Landings landings = new Landings();
+
+	/**
+	 * Opens the archive to add games to it, or creates it if the file does not
+	 * exist or is empty. Throws an IOException if the file is not an archive
+	 * of this version, or was not closed by its writer.
+	 */
+	public ReplayArchiveWriter(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (this.channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(ReplayArchive.HEADER_SIZE);
+				header.putInt(ReplayArchive.MAGIC).putInt(ReplayArchive.VERSION).putLong(0).flip();
+				write(header, 0);
+				this.index = ByteBuffer.allocate(64 * ReplayArchive.ENTRY_SIZE);
+				this.end = ReplayArchive.HEADER_SIZE;
+				this.changed = true;
+			} else {
+				openIndex(file);
+			}
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	// reads the index of an existing archive, whose games, index and trailer
+	// are then kept as they are
+	private void openIndex(File file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ReplayArchive.HEADER_SIZE);
+		ByteBuffer trailer = ByteBuffer.allocate(ReplayArchive.TRAILER_SIZE);
+		long size = this.channel.size();
+		if (size < ReplayArchive.HEADER_SIZE + ReplayArchive.TRAILER_SIZE || !read(header, 0)
+				|| header.getInt(0) != ReplayArchive.MAGIC) {
+			throw new IOException("not a replay archive: " + file);
+		}
+		if (header.getInt(4) != ReplayArchive.VERSION) {
+			throw new IOException("unknown replay archive version " + header.getInt(4) + ": " + file);
+		}
+		long trailerOffset = size - ReplayArchive.TRAILER_SIZE;
+		read(trailer, trailerOffset);
+		long indexOffset = trailer.getLong(0);
+		int count = trailer.getInt(8);
+		if (trailer.getInt(12) != ReplayArchive.MAGIC || count < 0 || indexOffset < ReplayArchive.HEADER_SIZE
+				|| indexOffset + (long) count * ReplayArchive.ENTRY_SIZE != trailerOffset) {
+			throw new IOException("replay archive not closed: " + file);
+		}
+		this.index = ByteBuffer.allocate(Math.max(64, 2 * count) * ReplayArchive.ENTRY_SIZE);
+		this.index.limit(count * ReplayArchive.ENTRY_SIZE);
+		read(this.index, indexOffset);
+		this.index.limit(this.index.capacity()).position(count * ReplayArchive.ENTRY_SIZE);
+		this.end = size;
+	}
+
+	/**
+	 * Appends the replay in the file and returns its game number in the
+	 * archive.
+	 */
+	public int add(File replay) throws IOException {
+		return add(ByteBuffer.wrap(Files.readAllBytes(replay.toPath())));
+	}
+
+	/**
+	 * Appends the replay between the position and the limit of the buffer,
+	 * which are left as they are, and returns its game number in the archive.
+	 * A replay cut short is archived as far as it goes. Throws an
+	 * IllegalStateException, and archives nothing, if the replay does not
+	 * play as it was recorded.
+	 */
+	public int add(ByteBuffer replay) throws IOException {
+		ReplayReader reader = new ReplayReader(replay.duplicate());
+		this.landings.buffer.clear();
+		ReplayPlayer.Result result = ReplayPlayer.play(reader, this.landings);
+		ByteBuffer table = this.landings.buffer;
+		table.flip();
+		int length = replay.remaining();
+		if (length > ReplayArchive.MARGIN || table.remaining() > ReplayArchive.MARGIN) {
+			throw new IllegalArgumentException("replay too long for an archive: " + result.pieces + " pieces");
+		}
+
+		long replayOffset = this.end;
+		this.changed = true;
+		write(replay.duplicate(), replayOffset);
+		long landingsOffset = replayOffset + length;
+		write(table, landingsOffset);
+		this.end = landingsOffset + 3L * result.pieces;
+
+		if (this.index.remaining() < ReplayArchive.ENTRY_SIZE) {
+			ByteBuffer bigger = ByteBuffer.allocate(2 * this.index.capacity());
+			this.index.flip();
+			bigger.put(this.index);
+			this.index = bigger;
+		}
+		this.index.putLong(replayOffset);
+		this.index.putInt(length);
+		this.index.putLong(landingsOffset);
+		this.index.putInt(result.pieces);
+		this.index.putInt(result.score);
+		this.index.putInt(result.lines);
+		this.index.putLong(reader.getSeed());
+		return getGameCount() - 1;
+	}
+
+	public int getGameCount() {
+		return this.index.position() / ReplayArchive.ENTRY_SIZE;
+	}
+
+	/**
+	 * Writes the index and the trailer after the games, and closes the file.
+	 * An archive opened again and given no games is left as it was.
+	 */
+	public void close() throws IOException {
+		try {
+			if (!this.changed) {
+				return;
+			}
+			int count = getGameCount();
+			ByteBuffer entries = this.index.duplicate();
+			entries.flip();
+			write(entries, this.end);
+			long trailerOffset = this.end + (long) count * ReplayArchive.ENTRY_SIZE;
+			ByteBuffer trailer = ByteBuffer.allocate(ReplayArchive.TRAILER_SIZE);
+			trailer.putLong(this.end).putInt(count).putInt(ReplayArchive.MAGIC).flip();
+			write(trailer, trailerOffset);
+			this.channel.truncate(trailerOffset + ReplayArchive.TRAILER_SIZE);
+			this.channel.force(false);
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += this.channel.write(buffer, position);
+		}
+	}
+
+	// fills the buffer from the given position, or returns false at the end
+	// of the file
+	private boolean read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = this.channel.read(buffer, position);
+			if (n < 0) {
+				return false;
+			}
+			position += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Hears where the pieces of a replay land, and writes them as a landing
+	 * table.
+	 */
+	private static class Landings implements GameListener {
+		ByteBuffer buffer = ByteBuffer.allocate(3 * 4096);
+
+		public void gameStarted(GameEngine engine) {
+		}
+
+		public void pieceDrawn(GameEngine engine, Piece piece) {
+		}
+
+		public void stepped(GameEngine engine, int verb) {
+		}
+
+		public void dropped(GameEngine engine, Piece piece, int x, int y) {
+		}
+
+		public void pieceLanded(GameEngine engine, Piece piece, int x, int y) {
+			if (this.buffer.remaining() < 3) {
+				ByteBuffer bigger = ByteBuffer.allocate(2 * this.buffer.capacity());
+				this.buffer.flip();
+				bigger.put(this.buffer);
+				this.buffer = bigger;
+			}
+			this.buffer.put((byte) Replay.pieceCode(Replay.DROP, piece));
+			this.buffer.put((byte) x);
+			this.buffer.put((byte) y);
+		}
+
+		public void gameStopped(GameEngine engine) {
+		}
+	}
+}
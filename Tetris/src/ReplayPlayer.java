@@ -0,0 +1,149 @@
+// ReplayPlayer.java
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Plays replays again on a GameEngine, without Swing or timers: each DRAW
+ * record is the piece the engine gets from pickNextPiece(), each VERB record
+ * a step() and each DROP record a drop(), as fast as the CPU allows. At the
+ * END of the replay, the engine must have the recorded count, score and
+ * lines, and its board the recorded hash; play() throws an
+ * IllegalStateException otherwise, the game having gone another way.
+ *
+ * The random generator is not used, so a game replays the same whatever chose
+ * its pieces -- the seed, an adversary, or a test.
+ */
+public class ReplayPlayer {
+
+	/**
+	 * Plays the replay in the file and returns what happened.
+	 */
+	public static Result play(File file) throws IOException {
+		ReplayReader reader = new ReplayReader(file);
+		try {
+			return play(reader, file.toString(), null);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Plays the rest of the replay of an open reader, telling the given
+	 * listener, if not null, what the engine does -- such as where each piece
+	 * lands -- and returns what happened.
+	 */
+	public static Result play(ReplayReader reader, GameListener listener) throws IOException {
+		return play(reader, "replay", listener);
+	}
+
+	private static Result play(final ReplayReader reader, String name, GameListener listener) throws IOException {
+		GameEngine engine = new GameEngine(reader.getWidth(), reader.getHeight()) {
+			public Piece pickNextPiece() {
+				try {
+					if (reader.next() != Replay.DRAW) {
+						throw new IOException("replay has no piece for the engine to draw");
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return reader.getPiece();
+			}
+		};
+		engine.setPreviewLength(reader.getPreviewLength());
+		engine.setPieceLimit(reader.getPieceLimit());
+		engine.setListener(listener);
+
+		Result result = new Result();
+		long start = System.nanoTime();
+		try {
+			engine.startGame(reader.getSeed());
+			int type;
+			while ((type = reader.next()) != Replay.END && type != Replay.EOF) {
+				switch (type) {
+				case Replay.VERB:
+					engine.step(reader.getVerb());
+					result.verbs++;
+					result.recordedMillis += reader.getDelta();
+					break;
+
+				case Replay.DROP:
+					engine.drop(reader.getPiece(), reader.getX(), reader.getY());
+					result.drops++;
+					break;
+
+				default:
+					throw new IOException("replay draws a piece the engine did not ask for");
+				}
+			}
+			result.complete = (type == Replay.END);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		result.elapsedNanos = System.nanoTime() - start;
+		result.pieces = engine.getPlaced();
+		result.score = engine.getScore();
+		result.lines = engine.getLines();
+		result.hash = engine.getBoard().hash64();
+
+		if (result.complete
+				&& (engine.getCount() != reader.getCount() || engine.getPlaced() != reader.getPlaced()
+						|| engine.getScore() != reader.getScore() || engine.getLines() != reader.getLines()
+						|| result.hash != reader.getHash())) {
+			throw new IllegalStateException(name + " diverged: recorded " + reader.getPlaced()
+					+ " pieces, score " + reader.getScore() + ", hash " + Long.toHexString(reader.getHash())
+					+ ", replayed " + engine.getPlaced() + " pieces, score " + engine.getScore() + ", hash "
+					+ Long.toHexString(result.hash));
+		}
+		return result;
+	}
+
+	/**
+	 * What a replay did: pieces placed, score, lines and final board hash,
+	 * the moves replayed, and whether the replay reached its END and was
+	 * checked against it.
+	 */
+	public static class Result {
+		public int pieces;
+		public int score;
+		public int lines;
+		public long hash;
+		public int verbs;
+		public int drops;
+		public long recordedMillis; // the sum of the verb deltas
+		public boolean complete;
+		public long elapsedNanos;
+
+		public double getPlacementsPerSecond() {
+			return this.pieces / (this.elapsedNanos / 1e9);
+		}
+
+		public String toString() {
+			return String.format("%d pieces, score %d, %d lines, %d verbs, %d drops, %s in %.3f ms (%.0f placements/s)",
+					pieces, score, lines, verbs, drops, complete ? "verified" : "cut short", elapsedNanos / 1e6,
+					getPlacementsPerSecond());
+		}
+	}
+
+	/**
+	 * Plays the given replay files, or the replays of the given directories,
+	 * and prints what each did.
+	 */
+	public static void main(String[] args) throws IOException {
+		long pieces = 0;
+		long nanos = 0;
+		for (String arg : args) {
+			File file = new File(arg);
+			File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+			for (File f : files) {
+				Result result = play(f);
+				System.out.println(f.getName() + ": " + result);
+				pieces += result.pieces;
+				nanos += result.elapsedNanos;
+			}
+		}
+		if (nanos > 0) {
+			System.out.printf("total: %d pieces, %.0f placements/s%n", pieces, pieces / (nanos / 1e9));
+		}
+	}
+}
@@ -0,0 +1,276 @@
+// ReplayReader.java
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a replay in the Replay format: the header when it opens, then one
+ * record per call to next(), whose fields the getters give until the next
+ * call. A file is read through a 64 KB buffer; a replay already in memory,
+ * such as one of a ReplayArchive, is read in place.
+ *
+ * <pre>
+ * ReplayReader reader = new ReplayReader(file);
+ * int type;
+ * while ((type = reader.next()) != Replay.END &amp;&amp; type != Replay.EOF) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class ReplayReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel; // null for a replay in memory
+	private final ByteBuffer buffer;
+
+	// the header
+	private int width;
+	private int height;
+	private int previewLength;
+	private int pieceLimit;
+	private long seed;
+	private long startTime;
+
+	// the last record
+	private Piece piece;
+	private int verb;
+	private long delta;
+	private int x;
+	private int y;
+
+	// the footer, after END
+	private int count;
+	private int placed;
+	private int score;
+	private int lines;
+	private long hash;
+
+	/**
+	 * Opens the replay and reads its header. Throws an IOException if the
+	 * file is not a replay of this version.
+	 */
+	public ReplayReader(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.flip(); // empty
+		try {
+			readHeader(file.toString());
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the replay between the position and the limit of the buffer,
+	 * which the reader then moves through.
+	 */
+	public ReplayReader(ByteBuffer replay) throws IOException {
+		this.channel = null;
+		this.buffer = replay;
+		readHeader("buffer");
+	}
+
+	// checks the magic number and version, and reads the header fields
+	private void readHeader(String name) throws IOException {
+		if (!fill(Replay.HEADER_SIZE) || this.buffer.getInt() != Replay.MAGIC) {
+			throw new IOException("not a replay: " + name);
+		}
+		int version = this.buffer.get();
+		if (version != Replay.VERSION) {
+			throw new IOException("unknown replay version " + version + ": " + name);
+		}
+		this.width = this.buffer.getShort();
+		this.height = this.buffer.getShort();
+		this.previewLength = this.buffer.get();
+		this.pieceLimit = this.buffer.getInt();
+		this.seed = this.buffer.getLong();
+		this.startTime = this.buffer.getLong();
+	}
+
+	/**
+	 * Reads the next record and returns its type: Replay.DRAW, VERB, DROP or
+	 * END, or Replay.EOF at the end of a replay cut short. Throws an
+	 * IOException if the record is not valid.
+	 */
+	public int next() throws IOException {
+		if (!fill(1)) {
+			return Replay.EOF;
+		}
+		int code = this.buffer.get() & 0xFF;
+		if (code == Replay.END) {
+			if (!fill(Replay.FOOTER_SIZE)) {
+				throw new IOException("replay footer cut short");
+			}
+			this.count = this.buffer.getInt();
+			this.placed = this.buffer.getInt();
+			this.score = this.buffer.getInt();
+			this.lines = this.buffer.getInt();
+			this.hash = this.buffer.getLong();
+			return Replay.END;
+		}
+
+		if (code > Replay.END) {
+			throw new IOException("bad replay record " + code);
+		}
+		int type = code & 0x60;
+		int arg = code & 0x1F;
+		switch (type) {
+		case Replay.DRAW:
+			checkPiece(code);
+			this.piece = Replay.piece(code);
+			return Replay.DRAW;
+
+		case Replay.VERB:
+			if (arg > GameEngine.DOWN) {
+				throw new IOException("bad replay verb " + arg);
+			}
+			this.verb = arg;
+			this.delta = 0;
+			for (int shift = 0;; shift += 7) {
+				if (shift > 63 || !fill(1)) {
+					throw new IOException("bad replay verb delta");
+				}
+				int b = this.buffer.get();
+				this.delta |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			return Replay.VERB;
+
+		case Replay.DROP:
+			checkPiece(code);
+			if (!fill(2)) {
+				throw new IOException("replay drop cut short");
+			}
+			this.piece = Replay.piece(code);
+			this.x = this.buffer.get() & 0xFF;
+			this.y = this.buffer.get() & 0xFF;
+			return Replay.DROP;
+
+		default:
+			throw new IOException("bad replay record " + code);
+		}
+	}
+
+	private static void checkPiece(int code) throws IOException {
+		if ((code & 0x1F) >>> 2 >= Piece.getPieces().length) {
+			throw new IOException("bad replay piece " + code);
+		}
+	}
+
+	// makes n bytes available in the buffer, or returns false at the end of
+	// the file
+	private boolean fill(int n) throws IOException {
+		if (this.buffer.remaining() >= n) {
+			return true;
+		}
+		if (this.channel == null) {
+			return false;
+		}
+		this.buffer.compact();
+		try {
+			while (this.buffer.position() < n) {
+				if (this.channel.read(this.buffer) < 0) {
+					return false;
+				}
+			}
+		} finally {
+			this.buffer.flip();
+		}
+		return true;
+	}
+
+	public void close() throws IOException {
+		if (this.channel != null) {
+			this.channel.close();
+		}
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Returns the playing height, without the GameEngine.TOP_SPACE.
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getPreviewLength() {
+		return this.previewLength;
+	}
+
+	public int getPieceLimit() {
+		return this.pieceLimit;
+	}
+
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * Returns when the game was recorded, in System.currentTimeMillis() time.
+	 */
+	public long getStartTime() {
+		return this.startTime;
+	}
+
+	/**
+	 * Returns the piece of the last DRAW or DROP record.
+	 */
+	public Piece getPiece() {
+		return this.piece;
+	}
+
+	/**
+	 * Returns the verb of the last VERB record.
+	 */
+	public int getVerb() {
+		return this.verb;
+	}
+
+	/**
+	 * Returns the milliseconds between the last VERB record and the one
+	 * before it, or the start of the game.
+	 */
+	public long getDelta() {
+		return this.delta;
+	}
+
+	public int getX() {
+		return this.x;
+	}
+
+	public int getY() {
+		return this.y;
+	}
+
+	// the footer, after END
+
+	public int getCount() {
+		return this.count;
+	}
+
+	public int getPlaced() {
+		return this.placed;
+	}
+
+	public int getScore() {
+		return this.score;
+	}
+
+	public int getLines() {
+		return this.lines;
+	}
+
+	public long getHash() {
+		return this.hash;
+	}
+}
@@ -0,0 +1,110 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReplayTest {
+
+	@Test
+	public void testBrainGame() throws Exception {
+		File file = File.createTempFile("brain", ".replay");
+		try {
+			GameEngine engine = new GameEngine(10, 20);
+			engine.setPreviewLength(2);
+			engine.setPieceLimit(300);
+			ReplayWriter writer = new ReplayWriter(file);
+			engine.setListener(writer);
+			engine.startGame(42);
+			Brain brain = new LookaheadBrain();
+			while (engine.dropWithBrain(brain)) {
+			}
+			writer.close();
+
+			// 3 bytes a piece, plus its draw
+			assertTrue(file.length() < Replay.HEADER_SIZE + 1 + Replay.FOOTER_SIZE + 4 * 303);
+			ReplayReader reader = new ReplayReader(file);
+			assertEquals(10, reader.getWidth());
+			assertEquals(20, reader.getHeight());
+			assertEquals(2, reader.getPreviewLength());
+			assertEquals(42, reader.getSeed());
+			reader.close();
+
+			ReplayPlayer.Result result = ReplayPlayer.play(file);
+			assertTrue(result.complete);
+			assertEquals(engine.getPlaced(), result.pieces);
+			assertEquals(engine.getScore(), result.score);
+			assertEquals(engine.getBoard().hash64(), result.hash);
+			assertEquals(engine.getPlaced(), result.drops);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testVerbGame() throws Exception {
+		File file = File.createTempFile("verbs", ".replay");
+		try {
+			// pieces chosen by the game rather than the seed, and random verbs
+			final int[] next = { 0 };
+			GameEngine engine = new GameEngine(8, 16) {
+				public Piece pickNextPiece() {
+					return getPieces()[next[0]++ * 3 % 7];
+				}
+			};
+			ReplayWriter writer = new ReplayWriter(file);
+			engine.setListener(writer);
+			engine.startGame(7);
+			Random random = new Random(3);
+			for (int i = 0; i < 3000 && engine.isGameOn(); i++) {
+				engine.step(random.nextInt(4) == 0 ? random.nextInt(4) : GameEngine.DOWN);
+			}
+			engine.stopGame();
+			writer.close();
+
+			ReplayPlayer.Result result = ReplayPlayer.play(file);
+			assertTrue(result.complete);
+			assertEquals(engine.getPlaced(), result.pieces);
+			assertEquals(engine.getBoard().hash64(), result.hash);
+			assertTrue(result.verbs > 0);
+			assertEquals(0, result.drops);
+
+			// a wrong hash in the footer fails the check
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(raf.length() - 1);
+			int last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 1);
+			raf.close();
+			try {
+				ReplayPlayer.play(file);
+				fail("diverged replay played");
+			} catch (IllegalStateException expected) {
+			}
+
+			// a replay cut short plays as far as it goes
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(raf.length() - 1 - Replay.FOOTER_SIZE);
+			raf.close();
+			result = ReplayPlayer.play(file);
+			assertFalse(result.complete);
+			assertEquals(engine.getPlaced(), result.pieces);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testPieceCodes() {
+		for (Piece root : Piece.getPieces()) {
+			Piece p = root;
+			do {
+				assertEquals(p, Replay.piece(Replay.pieceCode(Replay.DROP, p)));
+				assertEquals(p, Replay.piece(Replay.pieceCode(Replay.DRAW, p)));
+				p = p.fastRotation();
+			} while (p != root);
+		}
+	}
+}
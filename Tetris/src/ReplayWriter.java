@@ -0,0 +1,140 @@
+// ReplayWriter.java
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records one game to a file in the Replay format, as the GameListener of its
+ * engine. Records go to a 64 KB buffer that is written to the file channel
+ * when it fills up and when the game stops, so recording costs a few bytes
+ * of memory traffic per move. I/O errors are thrown from the engine's calls
+ * as UncheckedIOException.
+ *
+ * <pre>
+ * ReplayWriter writer = new ReplayWriter(new File("game.replay"));
+ * engine.setListener(writer);
+ * engine.startGame(seed);
+ * ... play ...
+ * engine.stopGame();
+ * writer.close();
+ * </pre>
+ */
+public class ReplayWriter implements GameListener, Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private boolean started;
+	private long lastVerb; // System.nanoTime() of the previous verb
+
+	/**
+	 * Creates a writer that records to the given file, replacing it.
+	 */
+	public ReplayWriter(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	public void gameStarted(GameEngine engine) {
+		if (this.started) {
+			throw new IllegalStateException("a replay holds one game");
+		}
+		Board board = engine.getBoard();
+		if (board.getHeight() > 256) {
+			throw new IllegalArgumentException("board too tall for a replay: " + board.getHeight());
+		}
+		this.started = true;
+		this.lastVerb = System.nanoTime();
+
+		this.buffer.putInt(Replay.MAGIC);
+		this.buffer.put((byte) Replay.VERSION);
+		this.buffer.putShort((short) board.getWidth());
+		this.buffer.putShort((short) (board.getHeight() - GameEngine.TOP_SPACE));
+		this.buffer.put((byte) engine.getPreview().length);
+		this.buffer.putInt(engine.getPieceLimit());
+		this.buffer.putLong(engine.getSeed());
+		this.buffer.putLong(System.currentTimeMillis());
+	}
+
+	public void pieceDrawn(GameEngine engine, Piece piece) {
+		reserve(1);
+		this.buffer.put((byte) Replay.pieceCode(Replay.DRAW, piece));
+	}
+
+	public void stepped(GameEngine engine, int verb) {
+		long now = System.nanoTime();
+		long delta = (now - this.lastVerb) / 1000000;
+		this.lastVerb = now;
+
+		reserve(11);
+		this.buffer.put((byte) (Replay.VERB | verb));
+		// unsigned varint: 7 bits per byte, low bits first
+		while ((delta & ~0x7FL) != 0) {
+			this.buffer.put((byte) (delta & 0x7F | 0x80));
+			delta >>>= 7;
+		}
+		this.buffer.put((byte) delta);
+	}
+
+	public void dropped(GameEngine engine, Piece piece, int x, int y) {
+		reserve(3);
+		this.buffer.put((byte) Replay.pieceCode(Replay.DROP, piece));
+		this.buffer.put((byte) x);
+		this.buffer.put((byte) y);
+	}
+
+	public void pieceLanded(GameEngine engine, Piece piece, int x, int y) {
+		// the moves that landed it are recorded
+	}
+
+	public void gameStopped(GameEngine engine) {
+		reserve(1 + Replay.FOOTER_SIZE);
+		this.buffer.put((byte) Replay.END);
+		this.buffer.putInt(engine.getCount());
+		this.buffer.putInt(engine.getPlaced());
+		this.buffer.putInt(engine.getScore());
+		this.buffer.putInt(engine.getLines());
+		this.buffer.putLong(engine.getBoard().hash64());
+		flush();
+	}
+
+	/**
+	 * Writes the buffered records to the file.
+	 */
+	public void flush() {
+		this.buffer.flip();
+		try {
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and closes the file. A game still on is
+	 * left without its END, like a game cut short.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	// makes room for n more bytes in the buffer
+	private void reserve(int n) {
+		if (this.buffer.remaining() < n) {
+			flush();
+		}
+	}
+}
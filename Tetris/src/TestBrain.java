@@ -1,5 +1,12 @@
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
 public class TestBrain {
@@ -38,4 +45,354 @@ public class TestBrain {
 		assertEquals(0, bestMove.y);
 		assertEquals(new Piece("1 2 1 1 1 0 0 2"), bestMove.piece);
 	}
+
+	@Test
+	public void testParallelSameMove() {
+		final DefaultBrain sequential = new DefaultBrain();
+		final DefaultBrain parallel = new DefaultBrain();
+		parallel.setParallel(true);
+		parallel.setParallelThreshold(0);
+
+		// compare the two on the boards of a game played by the brain
+		Brain checking = new Brain() {
+			public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+				Brain.Move expected = sequential.bestMove(board, piece, limitHeight);
+				Brain.Move actual = parallel.bestMove(board, piece, limitHeight);
+				assertEquals(expected.x, actual.x);
+				assertEquals(expected.y, actual.y);
+				assertEquals(expected.piece, actual.piece);
+				assertEquals(expected.score, actual.score, 0);
+				return expected;
+			}
+		};
+		GameEngine engine = new GameEngine(12, 20);
+		engine.setPieceLimit(60);
+		engine.startGame(new Random(5));
+		while (engine.dropWithBrain(checking)) {
+		}
+		assertEquals(61, engine.getCount());
+	}
+
+	@Test
+	public void testBatchedSameMove() {
+		for (final FeatureEvaluator evaluator : new FeatureEvaluator[] { null,
+				new FeatureEvaluator(FeatureEvaluator.dellacherieWeights()) }) {
+			final DefaultBrain sequential = new DefaultBrain();
+			final DefaultBrain batched = new DefaultBrain();
+			sequential.setEvaluator(evaluator);
+			batched.setEvaluator(evaluator);
+			batched.setBatched(true);
+
+			Brain checking = new Brain() {
+				public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+					Brain.Move expected = sequential.bestMove(board, piece, limitHeight);
+					Brain.Move actual = batched.bestMove(board, piece, limitHeight);
+					assertEquals(expected.x, actual.x);
+					assertEquals(expected.y, actual.y);
+					assertEquals(expected.piece, actual.piece);
+					assertEquals(expected.score, actual.score, 0);
+					return expected;
+				}
+			};
+			GameEngine engine = new GameEngine(10, 20);
+			engine.setPieceLimit(150);
+			engine.startGame(new Random(8));
+			while (engine.dropWithBrain(checking)) {
+			}
+			assertTrue(engine.getLines() > 10);
+		}
+	}
+
+	@Test
+	public void testBatchedThreads() throws Exception {
+		// random boards of two sizes, so that the batches are made again
+		Random random = new Random(5);
+		Piece[] pieces = Piece.getPieces();
+		final Board[] boards = new Board[40];
+		final Piece[] played = new Piece[boards.length];
+		final Brain.Move[] expected = new Brain.Move[boards.length];
+		DefaultBrain sequential = new DefaultBrain();
+		for (int i = 0; i < boards.length; i++) {
+			int width = (i % 2 == 0) ? 10 : 7;
+			boards[i] = new Board(width, 24);
+			for (int y = 0; y < 8; y++) {
+				for (int x = 0; x < width; x++) {
+					boards[i].getGrid()[x][y] = random.nextInt(3) > 0;
+				}
+				boards[i].getGrid()[random.nextInt(width)][y] = false;
+			}
+			boards[i].updateWidthsHeights();
+			played[i] = pieces[random.nextInt(pieces.length)];
+			expected[i] = sequential.bestMove(boards[i], played[i], 20);
+		}
+
+		// one batched brain called from several threads at once
+		final DefaultBrain batched = new DefaultBrain();
+		batched.setBatched(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int t = 0; t < 4; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Runnable() {
+					public void run() {
+						for (int k = 0; k < 2000; k++) {
+							int i = (k + offset) % boards.length;
+							Brain.Move move = batched.bestMove(boards[i], played[i], 20);
+							assertEquals(expected[i].x, move.x);
+							assertEquals(expected[i].y, move.y);
+							assertEquals(expected[i].piece, move.piece);
+							assertEquals(expected[i].score, move.score, 0);
+						}
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testLookaheadFallsBack() {
+		// without a preview, or with the time budget spent on the first
+		// candidate, the lookahead brain plays like DefaultBrain
+		DefaultBrain greedy = new DefaultBrain();
+		LookaheadBrain lookahead = new LookaheadBrain();
+		LookaheadBrain hurried = new LookaheadBrain();
+		hurried.setTimeBudget(1);
+		Piece[] pieces = Piece.getPieces();
+		Random random = new Random(3);
+		Board board = new Board(10, 24);
+		for (int n = 0; n < 30; n++) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			Piece[] preview = { pieces[random.nextInt(pieces.length)] };
+			Brain.Move expected = greedy.bestMove(board, piece, 20);
+			Brain.Move move = lookahead.bestMove(board, piece, new Piece[0], 20);
+			Brain.Move quick = hurried.bestMove(board, piece, preview, 20);
+			assertEquals(expected.piece, move.piece);
+			assertEquals(expected.x, move.x);
+			assertEquals(expected.piece, quick.piece);
+			assertEquals(expected.x, quick.x);
+			if (board.place(expected.piece, expected.x, expected.y) == Board.PLACE_ROW_FILLED) {
+				board.clearRows();
+			}
+			board.commit();
+		}
+	}
+
+	@Test
+	public void testLookaheadPlaysBetter() {
+		int[] scores = new int[2];
+		Brain[] brains = { new DefaultBrain(), new LookaheadBrain() };
+		for (int i = 0; i < brains.length; i++) {
+			GameEngine engine = new GameEngine(10, 20);
+			engine.setPieceLimit(500);
+			engine.setPreviewLength(1);
+			engine.startGame(new Random(0));
+			while (engine.dropWithBrain(brains[i])) {
+			}
+			scores[i] = engine.getScore();
+		}
+		assertTrue(scores[1] > scores[0]);
+	}
+
+	@Test
+	public void testLookaheadCountsClears() {
+		// rated on the lines cleared alone, the line that clears a row on the
+		// first ply scores that row, though the board commits before the reply
+		double[] weights = new double[FeatureEvaluator.FEATURE_COUNT];
+		weights[FeatureEvaluator.LINES_CLEARED] = -1;
+		Board board = new Board(10, 24);
+		for (int x = 0; x < 9; x++) {
+			board.getGrid()[x][0] = true;
+		}
+		board.updateWidthsHeights();
+		Piece stick = new Piece(Piece.STICK_STR);
+		Piece[] preview = { new Piece(Piece.SQUARE_STR) };
+		LookaheadBrain[] brains = { new LookaheadBrain(), new AnytimeBrain() };
+		for (LookaheadBrain brain : brains) {
+			brain.setEvaluator(new FeatureEvaluator(weights));
+			Brain.Move move = brain.bestMove(board, stick, preview, 20);
+			assertEquals(stick, move.piece);
+			assertEquals(9, move.x);
+			assertEquals(-1, move.score, 0);
+		}
+	}
+
+	@Test
+	public void testAnytimeDeepens() {
+		AnytimeBrain brain = new AnytimeBrain();
+		DefaultBrain greedy = new DefaultBrain();
+		Piece[] pieces = Piece.getPieces();
+		Piece[] preview = { pieces[1], pieces[3], pieces[4] };
+		Board board = new Board(10, 24);
+		board.place(pieces[0], 0, 0);
+		board.commit();
+
+		// past the deadline: the greedy move
+		Brain.Move move = brain.bestMove(board, pieces[6], preview, 20, System.nanoTime() - 1);
+		Brain.Move expected = greedy.bestMove(board, pieces[6], 20);
+		assertEquals(1, brain.getLastDepth());
+		assertEquals(expected.piece, move.piece);
+		assertEquals(expected.x, move.x);
+
+		// no deadline: as deep as the preview, and the two-ply search agrees
+		// with LookaheadBrain
+		move = brain.bestMove(board, pieces[6], new Piece[] { preview[0] }, 20);
+		assertEquals(2, brain.getLastDepth());
+		Brain.Move lookahead = new LookaheadBrain().bestMove(board, pieces[6], new Piece[] { preview[0] }, 20);
+		assertEquals(lookahead.piece, move.piece);
+		assertEquals(lookahead.x, move.x);
+		assertEquals(lookahead.score, move.score, 0);
+		brain.bestMove(board, pieces[6], preview, 20);
+		assertEquals(4, brain.getLastDepth());
+
+		// a budget spent before the greedy search ends: still a move, and no
+		// deeper search after the deadline
+		brain.setTimeBudget(1);
+		move = brain.bestMove(board, pieces[6], preview, 20);
+		assertNotNull(move);
+		assertEquals(1, brain.getLastDepth());
+		assertEquals(expected.piece, move.piece);
+		assertEquals(expected.x, move.x);
+	}
+
+	@Test
+	public void testExpectimax() {
+		Piece[] pieces = Piece.getPieces();
+		Board board = new Board(10, 24);
+		board.place(pieces[0], 0, 0);
+		board.commit();
+		board.place(pieces[4], 3, 0);
+		board.commit();
+
+		ExpectimaxBrain brain = new ExpectimaxBrain();
+		Brain.Move move = brain.bestMove(board, pieces[6], 20);
+
+		// the score of the move is the average of the greedy replies
+		DefaultBrain greedy = new DefaultBrain();
+		Board child = board.copy();
+		child.place(move.piece, move.x, move.y);
+		child.clearRows();
+		child.commit();
+		double sum = 0;
+		for (Piece p : pieces) {
+			sum += greedy.bestMove(child, p, 20).score;
+		}
+		assertEquals(sum / pieces.length, move.score, 1e-9);
+
+		// the sequential search and the memo agree with the parallel one
+		ExpectimaxBrain sequential = new ExpectimaxBrain();
+		sequential.setParallel(false);
+		sequential.setDepth(2);
+		brain.setDepth(2);
+		for (Piece p : pieces) {
+			Brain.Move a = brain.bestMove(board, p, 20);
+			Brain.Move b = sequential.bestMove(board, p, 20);
+			Brain.Move c = brain.bestMove(board, p, 20);
+			assertEquals(a.piece, b.piece);
+			assertEquals(a.x, b.x);
+			assertEquals(a.score, b.score, 0);
+			assertEquals(a.x, c.x);
+			assertEquals(a.score, c.score, 0);
+		}
+		assertTrue(brain.getMemo().getHits() > 0);
+	}
+
+	@Test
+	public void testExpectimaxReachable() {
+		// a board with overhangs, where reachable plays differ from drops
+		Random random = new Random(3);
+		Board board = new Board(10, 24);
+		for (int y = 0; y < 6; y++) {
+			for (int x = 0; x < 10; x++) {
+				board.getGrid()[x][y] = random.nextInt(3) > 0;
+			}
+			board.getGrid()[random.nextInt(10)][y] = false;
+		}
+		board.updateWidthsHeights();
+
+		// every thread lists its plays with a generator of its own
+		Piece[] pieces = Piece.getPieces();
+		for (int round = 0; round < 3; round++) {
+			ExpectimaxBrain parallel = new ExpectimaxBrain();
+			parallel.setReachableOnly(true);
+			ExpectimaxBrain sequential = new ExpectimaxBrain();
+			sequential.setReachableOnly(true);
+			sequential.setParallel(false);
+			for (Piece p : pieces) {
+				Brain.Move a = parallel.bestMove(board, p, 20);
+				Brain.Move b = sequential.bestMove(board, p, 20);
+				assertEquals(b.piece, a.piece);
+				assertEquals(b.x, a.x);
+				assertEquals(b.y, a.y);
+				assertEquals(b.score, a.score, 0);
+			}
+		}
+	}
+
+	@Test
+	public void testExpectimaxPlaysBetter() {
+		BatchSimulator sim = new BatchSimulator(8, 16, 200);
+		long[] seeds = BatchSimulator.seeds(11, 8);
+		double greedy = sim.run(DefaultBrain::new, seeds).getMeanScore();
+		double expectimax = sim.run(ExpectimaxBrain::new, seeds).getMeanScore();
+		assertTrue(expectimax + " vs " + greedy, expectimax > greedy);
+	}
+
+	@Test
+	public void testBeam() {
+		Piece[] pieces = Piece.getPieces();
+		Piece[] preview = { pieces[3], pieces[1] };
+		Board board = new Board(10, 24);
+		board.place(pieces[0], 0, 0);
+		board.commit();
+		board.place(pieces[4], 3, 0);
+		board.commit();
+
+		// depth 1 is the greedy move
+		BeamBrain beam = new BeamBrain();
+		beam.setDepth(1);
+		Brain.Move move = beam.bestMove(board, pieces[6], preview, 20);
+		Brain.Move greedy = new DefaultBrain().bestMove(board, pieces[6], 20);
+		assertEquals(greedy.piece, move.piece);
+		assertEquals(greedy.x, move.x);
+		assertEquals(greedy.score, move.score, 0);
+
+		// a beam wide enough for every pair finds the best pair of plays
+		beam.setDepth(2);
+		beam.setBeamWidth(1000);
+		LookaheadBrain lookahead = new LookaheadBrain();
+		lookahead.setTopK(1000);
+		assertEquals(lookahead.bestMove(board, pieces[6], preview, 20).score,
+				beam.bestMove(board, pieces[6], preview, 20).score, 0);
+
+		// once warmed up, the search takes all its boards from the pool
+		beam.setBeamWidth(8);
+		beam.setDepth(3);
+		String before = board.toString();
+		for (Piece p : pieces) {
+			beam.bestMove(board, p, preview, 20);
+		}
+		int created = beam.getPool().getCreated();
+		for (Piece p : pieces) {
+			assertNotNull(beam.bestMove(board, p, preview, 20));
+		}
+		assertEquals(created, beam.getPool().getCreated());
+		assertEquals(created, beam.getPool().getFree());
+		assertEquals(before, board.toString());
+	}
+
+	@Test
+	public void testBeamPlaysBetter() {
+		BatchSimulator sim = new BatchSimulator(8, 16, 200);
+		sim.setPreviewLength(2);
+		long[] seeds = BatchSimulator.seeds(11, 8);
+		double greedy = sim.run(DefaultBrain::new, seeds).getMeanScore();
+		double beam = sim.run(BeamBrain::new, seeds).getMeanScore();
+		assertTrue(beam + " vs " + greedy, beam > greedy);
+	}
 }
@@ -0,0 +1,448 @@
+// TrainingExporter.java
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Streams one row of training data per placement to a columnar file, for
+ * evaluators to learn from: the board the piece was played on, the piece,
+ * where it was played and the score the brain gave that play. Rows come from
+ * brain games played by a BatchSimulator, each worker thread filling its own
+ * batch of BATCH_ROWS rows, and from recorded games -- those of human players
+ * in JTetris -- read from a ReplayArchive. Full batches go to a writer thread
+ * that writes them to the file, while the producers fill new ones. A
+ * producer only copies the row masks and the column heights of the board,
+ * in bulk; the writer thread packs them into the bits of the file. All
+ * numbers are big-endian.
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, short width, short height (TOP_SPACE
+ *          included)
+ * batches: int n, the number of rows, then one column after the other:
+ *          long[n * words]  the board, bit y * width + x of a row's words
+ *                           set for a filled block (x, y), words being
+ *                           (width * height + 63) / 64
+ *          byte[n * width]  the column heights
+ *          byte[n]          the piece, as its root's index in
+ *                           Piece.getPieces()
+ *          byte[n]          its rotation from the root
+ *          byte[n]          the rotation of the move, then byte[n] its x
+ *                           and byte[n] its y
+ *          double[n]        the score of the move, lower being better, or
+ *                           NaN for a recorded game
+ *          int[n]           the game, then int[n] the placement in the game
+ * end:     int 0
+ * </pre>
+ *
+ * The rows of a game are in order, but batches of different threads are
+ * not: the game and placement columns tell where each row belongs.
+ */
+public class TrainingExporter implements Closeable {
+
+	public static final int MAGIC = 0x5454524E; // "TTRN"
+	public static final int VERSION = 1;
+
+	public static final int BATCH_ROWS = 4096;
+
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int words;
+	private final ByteBuffer buffer; // the writer's, one batch long
+
+	private final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(4);
+	private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+	private final List<Batch> batches = new ArrayList<Batch>(); // every batch made
+	private final ThreadLocal<Batch> current = new ThreadLocal<Batch>();
+	private final Thread writer;
+	private volatile IOException failure;
+	private long rows; // written, for the writer thread
+
+	// tells the writer thread to stop
+	private final Batch end;
+
+	/**
+	 * Creates the file, replacing it, for games on boards of the given width
+	 * and playing height, and starts the writer thread.
+	 */
+	public TrainingExporter(File file, int width, int height) throws IOException {
+		this.width = width;
+		this.height = height + GameEngine.TOP_SPACE;
+		this.words = (this.width * this.height + 63) / 64;
+		this.end = new Batch(0);
+		this.buffer = ByteBuffer.allocateDirect(4 + BATCH_ROWS * rowSize());
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer.putInt(MAGIC).putInt(VERSION).putShort((short) this.width).putShort((short) this.height);
+		try {
+			write();
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+
+		this.writer = new Thread("TrainingExporter writer") {
+			public void run() {
+				writeBatches();
+			}
+		};
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Returns the bytes of one row.
+	 */
+	public int rowSize() {
+		return 8 * this.words + this.width + 5 + 8 + 4 + 4;
+	}
+
+	/**
+	 * Plays one game per seed on the simulator, with brains from the given
+	 * factory -- one per worker thread -- and exports each of their moves.
+	 * Game i of the file is the game of seeds[i].
+	 */
+	public BatchSimulator.Result export(BatchSimulator simulator, final Supplier<? extends Brain> brains,
+			long[] seeds) {
+		final ThreadLocal<Brain> brain = new ThreadLocal<Brain>();
+		return simulator.runPerGame(new IntFunction<Brain>() {
+			public Brain apply(int game) {
+				if (brain.get() == null) {
+					brain.set(brains.get());
+				}
+				return record(brain.get(), game);
+			}
+		}, seeds);
+	}
+
+	/**
+	 * Returns a brain that plays like the given one and exports each move it
+	 * makes, in the given game, to the batch of the thread calling it. It is
+	 * a PreviewBrain if the given one is.
+	 */
+	public Brain record(Brain brain, int game) {
+		if (brain instanceof PreviewBrain) {
+			return new PreviewRecorder((PreviewBrain) brain, game);
+		}
+		return new Recorder(brain, game);
+	}
+
+	/**
+	 * Exports the placements of every game of the archive, such as the
+	 * games of human players, with NaN scores. Game i of the file is game i
+	 * of the archive. Games on boards of another size are skipped.
+	 */
+	public void export(ReplayArchive archive) {
+		for (int game = 0; game < archive.getGameCount(); game++) {
+			if (archive.getWidth(game) != this.width
+					|| archive.getHeight(game) + GameEngine.TOP_SPACE != this.height) {
+				continue;
+			}
+			Board board = archive.createBoard(game);
+			int pieces = archive.getPieces(game);
+			for (int k = 0; k < pieces; k++) {
+				Piece piece = archive.getPiece(game, k);
+				int x = archive.getX(game, k);
+				int y = archive.getY(game, k);
+				// the engine draws pieces in their root rotation
+				int code = Replay.pieceCode(0, piece);
+				add(board, Piece.getPieces()[code >>> 2], piece, x, y, Double.NaN, game, k);
+				archive.play(game, k, k + 1, board);
+			}
+		}
+	}
+
+	/**
+	 * Adds the row of one move to the batch of the calling thread: the piece
+	 * given to the brain and the committed board it was played on, then the
+	 * move.
+	 */
+	public void add(Board board, Piece piece, Piece played, int x, int y, double score, int game, int ply) {
+		Batch batch = this.current.get();
+		if (batch == null) {
+			batch = newBatch();
+			batch.open = true;
+			this.current.set(batch);
+		}
+		int n = batch.n;
+
+		// packed by the writer thread
+		System.arraycopy(board.rows, 0, batch.rows, n * this.height, this.height);
+		System.arraycopy(board.heights, 0, batch.heights, n * this.width, this.width);
+
+		int code = Replay.pieceCode(0, piece);
+		batch.pieces[n] = (byte) (code >>> 2);
+		batch.rotations[n] = (byte) (code & 3);
+		batch.moveRotations[n] = (byte) (Replay.pieceCode(0, played) & 3);
+		batch.xs[n] = (byte) x;
+		batch.ys[n] = (byte) y;
+		batch.scores[n] = score;
+		batch.games[n] = game;
+		batch.plies[n] = ply;
+
+		batch.n = n + 1;
+		if (batch.n == BATCH_ROWS) {
+			this.current.set(null);
+			batch.open = false;
+			submit(batch);
+		}
+	}
+
+	// a free batch, or a new one
+	private Batch newBatch() {
+		Batch batch = this.free.poll();
+		if (batch == null) {
+			batch = new Batch(BATCH_ROWS);
+			synchronized (this.batches) {
+				this.batches.add(batch);
+			}
+		}
+		return batch;
+	}
+
+	// hands a batch to the writer thread, waiting if it is behind
+	private void submit(Batch batch) {
+		if (this.failure != null) {
+			throw new IllegalStateException("training data export failed", this.failure);
+		}
+		try {
+			this.full.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("training data export interrupted", e);
+		}
+	}
+
+	/**
+	 * Writes the rows of every batch, the end of the file, and closes it.
+	 * Must be called once the producers are done.
+	 */
+	public void close() throws IOException {
+		try {
+			List<Batch> started;
+			synchronized (this.batches) {
+				started = new ArrayList<Batch>(this.batches);
+			}
+			// the batches the producers were filling
+			for (Batch batch : started) {
+				if (batch.open && batch.n > 0) {
+					batch.open = false;
+					submit(batch);
+				}
+			}
+			submit(this.end);
+			this.writer.join();
+			if (this.failure != null) {
+				throw this.failure;
+			}
+			this.buffer.clear();
+			this.buffer.putInt(0);
+			write();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("training data export interrupted", e);
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Returns the number of rows written to the file so far.
+	 */
+	public synchronized long getRows() {
+		return this.rows;
+	}
+
+	// the writer thread: writes the batches as they come, and frees them
+	private void writeBatches() {
+		try {
+			Batch batch;
+			while ((batch = this.full.take()) != this.end) {
+				if (this.failure == null) {
+					try {
+						writeBatch(batch);
+					} catch (IOException e) {
+						this.failure = e;
+					}
+				}
+				batch.n = 0;
+				this.free.add(batch);
+			}
+		} catch (InterruptedException e) {
+			this.failure = new IOException("training data writer interrupted", e);
+		}
+	}
+
+	private void writeBatch(Batch batch) throws IOException {
+		int n = batch.n;
+		ByteBuffer buffer = this.buffer;
+		buffer.clear();
+		buffer.putInt(n);
+
+		// the rows of each board, width bits each, one after the other
+		long[] rows = batch.rows;
+		int width = this.width;
+		for (int i = 0, end = this.height; i < n; i++, end += this.height) {
+			long word = 0;
+			int used = 0; // bits of the word
+			for (int y = end - this.height; y < end; y++) {
+				long row = rows[y];
+				word |= row << used;
+				used += width;
+				if (used >= 64) {
+					buffer.putLong(word);
+					used -= 64;
+					word = (used == 0) ? 0 : row >>> (width - used);
+				}
+			}
+			if (used > 0) {
+				buffer.putLong(word);
+			}
+		}
+		int[] heights = batch.heights;
+		for (int i = 0; i < n * width; i++) {
+			buffer.put((byte) heights[i]);
+		}
+		buffer.put(batch.pieces, 0, n);
+		buffer.put(batch.rotations, 0, n);
+		buffer.put(batch.moveRotations, 0, n);
+		buffer.put(batch.xs, 0, n);
+		buffer.put(batch.ys, 0, n);
+		buffer.asDoubleBuffer().put(batch.scores, 0, n);
+		buffer.position(buffer.position() + 8 * n);
+		buffer.asIntBuffer().put(batch.games, 0, n);
+		buffer.position(buffer.position() + 4 * n);
+		buffer.asIntBuffer().put(batch.plies, 0, n);
+		buffer.position(buffer.position() + 4 * n);
+		write();
+		synchronized (this) {
+			this.rows += n;
+		}
+	}
+
+	// writes the buffer to the file
+	private void write() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+	}
+
+	/**
+	 * Rows, column by column, filled by one producer thread at a time.
+	 */
+	private class Batch {
+		int n;
+		volatile boolean open; // being filled by a producer
+		final long[] rows; // the row masks of each board, as in Board
+		final int[] heights;
+		final byte[] pieces;
+		final byte[] rotations;
+		final byte[] moveRotations;
+		final byte[] xs;
+		final byte[] ys;
+		final double[] scores;
+		final int[] games;
+		final int[] plies;
+
+		Batch(int capacity) {
+			this.rows = new long[capacity * height];
+			this.heights = new int[capacity * width];
+			this.pieces = new byte[capacity];
+			this.rotations = new byte[capacity];
+			this.moveRotations = new byte[capacity];
+			this.xs = new byte[capacity];
+			this.ys = new byte[capacity];
+			this.scores = new double[capacity];
+			this.games = new int[capacity];
+			this.plies = new int[capacity];
+		}
+	}
+
+	/**
+	 * Plays like its brain, and exports each move.
+	 */
+	private class Recorder implements Brain {
+		final Brain brain;
+		final int game;
+		int ply;
+
+		Recorder(Brain brain, int game) {
+			this.brain = brain;
+			this.game = game;
+		}
+
+		public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+			return record(board, piece, this.brain.bestMove(board, piece, limitHeight));
+		}
+
+		Brain.Move record(Board board, Piece piece, Brain.Move move) {
+			if (move != null) {
+				add(board, piece, move.piece, move.x, move.y, move.score, this.game, this.ply++);
+			}
+			return move;
+		}
+	}
+
+	private class PreviewRecorder extends Recorder implements PreviewBrain {
+
+		PreviewRecorder(PreviewBrain brain, int game) {
+			super(brain, game);
+		}
+
+		public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight) {
+			return record(board, piece, ((PreviewBrain) this.brain).bestMove(board, piece, preview, limitHeight));
+		}
+	}
+
+	/**
+	 * Exports the games of DefaultBrain, and prints the rate of the
+	 * simulator with and without the export, or exports the games of a
+	 * ReplayArchive. Arguments: file [games] [threads] [seed], or file
+	 * archive.
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = new File(args[0]);
+		if (args.length > 1 && new File(args[1]).isFile()) {
+			ReplayArchive archive = new ReplayArchive(new File(args[1]));
+			if (archive.getGameCount() == 0) {
+				System.out.println("no games in " + args[1]);
+				return;
+			}
+			TrainingExporter exporter = new TrainingExporter(file, archive.getWidth(0), archive.getHeight(0));
+			exporter.export(archive);
+			exporter.close();
+			System.out.println(exporter.getRows() + " rows");
+			return;
+		}
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		Supplier<Brain> brains = new Supplier<Brain>() {
+			public Brain get() {
+				return new DefaultBrain();
+			}
+		};
+		BatchSimulator simulator = new BatchSimulator(JTetris.WIDTH, JTetris.HEIGHT, 1000, threads);
+		long[] seeds = BatchSimulator.seeds(seed, games);
+		simulator.run(brains, seeds); // warms up the JIT
+		BatchSimulator.Result alone = simulator.run(brains, seeds);
+		TrainingExporter exporter = new TrainingExporter(file, JTetris.WIDTH, JTetris.HEIGHT);
+		BatchSimulator.Result exported = exporter.export(simulator, brains, seeds);
+		exporter.close();
+		System.out.printf("simulator alone: %.0f placements/s%n", alone.getPlacementsPerSecond());
+		System.out.printf("with the export: %.0f placements/s, %d rows of %d bytes%n",
+				exported.getPlacementsPerSecond(), exporter.getRows(), exporter.rowSize());
+	}
+}
@@ -0,0 +1,187 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class TrainingExporterTest {
+
+	// one row of the file
+	private static class Row {
+		long[] bits;
+		byte[] heights;
+		int piece, rotation, moveRotation, x, y, game, ply;
+		double score;
+	}
+
+	// reads back the rows of a file, by game and placement
+	private static List<Row> read(File file, int width, int height) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		assertEquals(TrainingExporter.MAGIC, in.getInt());
+		assertEquals(TrainingExporter.VERSION, in.getInt());
+		assertEquals(width, in.getShort());
+		assertEquals(height + GameEngine.TOP_SPACE, in.getShort());
+		int words = (width * (height + GameEngine.TOP_SPACE) + 63) / 64;
+
+		List<Row> rows = new ArrayList<Row>();
+		int n;
+		while ((n = in.getInt()) != 0) {
+			Row[] batch = new Row[n];
+			for (int i = 0; i < n; i++) {
+				batch[i] = new Row();
+				batch[i].bits = new long[words];
+				for (int w = 0; w < words; w++) {
+					batch[i].bits[w] = in.getLong();
+				}
+			}
+			for (Row row : batch) {
+				row.heights = new byte[width];
+				in.get(row.heights);
+			}
+			for (Row row : batch) {
+				row.piece = in.get();
+			}
+			for (Row row : batch) {
+				row.rotation = in.get();
+			}
+			for (Row row : batch) {
+				row.moveRotation = in.get();
+			}
+			for (Row row : batch) {
+				row.x = in.get();
+			}
+			for (Row row : batch) {
+				row.y = in.get();
+			}
+			for (Row row : batch) {
+				row.score = in.getDouble();
+			}
+			for (Row row : batch) {
+				row.game = in.getInt();
+			}
+			for (Row row : batch) {
+				row.ply = in.getInt();
+			}
+			Collections.addAll(rows, batch);
+		}
+		assertFalse(in.hasRemaining());
+
+		Collections.sort(rows, new Comparator<Row>() {
+			public int compare(Row a, Row b) {
+				return a.game != b.game ? Integer.compare(a.game, b.game) : Integer.compare(a.ply, b.ply);
+			}
+		});
+		return rows;
+	}
+
+	// plays the moves of the rows of a game, checking each row's board
+	private static Board replay(List<Row> rows, int width, int height) {
+		Board board = new Board(width, height + GameEngine.TOP_SPACE);
+		for (int k = 0; k < rows.size(); k++) {
+			Row row = rows.get(k);
+			assertEquals(k, row.ply);
+			for (int y = 0; y < board.getHeight(); y++) {
+				for (int x = 0; x < width; x++) {
+					int bit = y * width + x;
+					assertEquals(board.getGrid(x, y), (row.bits[bit >>> 6] >>> (bit & 63) & 1) != 0);
+				}
+			}
+			for (int x = 0; x < width; x++) {
+				assertEquals(board.getColumnHeight(x), row.heights[x]);
+			}
+			Piece piece = Piece.getPieces()[row.piece];
+			for (int r = 0; r < row.moveRotation; r++) {
+				piece = piece.fastRotation();
+			}
+			if (board.place(piece, row.x, row.y) == Board.PLACE_ROW_FILLED) {
+				board.clearRows();
+			}
+			board.commit();
+		}
+		return board;
+	}
+
+	@Test
+	public void testSimulatorExport() throws Exception {
+		File file = File.createTempFile("training", ".ttrn");
+		try {
+			BatchSimulator simulator = new BatchSimulator(10, 20, 3000, 2);
+			simulator.setPreviewLength(1);
+			TrainingExporter exporter = new TrainingExporter(file, 10, 20);
+			long[] seeds = BatchSimulator.seeds(1, 8);
+			BatchSimulator.Result result = exporter.export(simulator, new Supplier<Brain>() {
+				public Brain get() {
+					return new LookaheadBrain();
+				}
+			}, seeds);
+			exporter.close();
+			// more than a batch, and a partial one per thread
+			assertTrue(result.getTotalPieces() > TrainingExporter.BATCH_ROWS);
+			assertEquals(result.getTotalPieces(), exporter.getRows());
+
+			List<Row> rows = read(file, 10, 20);
+			assertEquals(result.getTotalPieces(), rows.size());
+			int from = 0;
+			for (int game = 0; game < seeds.length; game++) {
+				List<Row> moves = rows.subList(from, from + result.pieces[game]);
+				from += result.pieces[game];
+				for (Row row : moves) {
+					assertEquals(game, row.game);
+					assertEquals(0, row.rotation); // drawn pieces are roots
+					assertFalse(Double.isNaN(row.score));
+				}
+				replay(moves, 10, 20);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testArchiveExport() throws Exception {
+		File replay = File.createTempFile("brain", ".replay");
+		File archiveFile = File.createTempFile("games", ".tarc");
+		File file = File.createTempFile("training", ".ttrn");
+		archiveFile.delete();
+		try {
+			GameEngine engine = new GameEngine(8, 16);
+			engine.setPieceLimit(150);
+			ReplayWriter writer = new ReplayWriter(replay);
+			engine.setListener(writer);
+			engine.startGame(5);
+			Brain brain = new DefaultBrain();
+			while (engine.dropWithBrain(brain)) {
+			}
+			writer.close();
+			ReplayArchiveWriter archiveWriter = new ReplayArchiveWriter(archiveFile);
+			archiveWriter.add(replay);
+			archiveWriter.close();
+
+			ReplayArchive archive = new ReplayArchive(archiveFile);
+			TrainingExporter exporter = new TrainingExporter(file, 8, 16);
+			exporter.export(archive);
+			exporter.close();
+
+			List<Row> rows = read(file, 8, 16);
+			assertEquals(engine.getPlaced(), rows.size());
+			for (Row row : rows) {
+				assertTrue(Double.isNaN(row.score));
+			}
+			Board board = archive.createBoard(0);
+			archive.play(0, archive.getPieces(0), board);
+			assertEquals(board.hash64(), replay(rows, 8, 16).hash64());
+		} finally {
+			replay.delete();
+			archiveFile.delete();
+			file.delete();
+		}
+	}
+}
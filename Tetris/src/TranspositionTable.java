@@ -0,0 +1,191 @@
+// TranspositionTable.java
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size cache of search values keyed by 64-bit position hashes such as
+ * Board.hash64(), so a brain rates each distinct board once instead of once
+ * per play that leads to it. Each value is stored with the depth of the search
+ * that produced it: 0 for a plain rateBoard() score, more for the value of a
+ * lookahead.
+ *
+ * <p>
+ * The table is open addressed: a key may sit in any of the BUCKET slots
+ * following its home slot. When they are all taken, the new entry replaces
+ * one from an older age (see nextAge()) first, and otherwise the shallowest
+ * one.
+ *
+ * <p>
+ * Several threads may share a table without locking. An entry is three longs,
+ * the value, the depth and age, and a check word that is the exclusive or of
+ * the key with the other two. They are written one after the other, so a
+ * reader racing a writer may see parts of two entries, but then the check
+ * word does not match the key and the probe is a miss. A probe never returns
+ * the value of another key, except for a 64-bit hash collision.
+ *
+ * <pre>
+ * final TranspositionTable table = new TranspositionTable(1 &lt;&lt; 20);
+ * sim.run(() -&gt; {
+ * 	DefaultBrain brain = new DefaultBrain();
+ * 	brain.setTranspositionTable(table);
+ * 	return brain;
+ * }, seeds);
+ * </pre>
+ *
+ * A table must only be shared by brains that rate boards the same way, on
+ * boards of the same size.
+ */
+public class TranspositionTable {
+
+	public static final int BUCKET = 4;
+
+	// bits of the meta word: valid flag, age and depth
+	private static final long VALID = 1L << 32;
+	private static final int AGE_SHIFT = 16;
+	private static final int MASK_16 = 0xFFFF;
+
+	private final AtomicLongArray entries; // check, value, meta per slot
+	private final int mask;
+	private volatile int age;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a table of at least the given number of entries, rounded up to
+	 * a power of two. Each entry takes 24 bytes.
+	 */
+	public TranspositionTable(int capacity) {
+		if (capacity < 1 || capacity > (1 << 26)) {
+			throw new IllegalArgumentException("capacity must be between 1 and " + (1 << 26));
+		}
+		int size = Integer.highestOneBit(Math.max(capacity, BUCKET) - 1) << 1;
+		this.entries = new AtomicLongArray(3 * size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of entries of the table.
+	 */
+	public int getCapacity() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * Returns the value stored for the key by a search of at least the given
+	 * depth, or NaN if there is none.
+	 */
+	public double probe(long key, int depth) {
+		int home = home(key);
+		for (int i = 0; i < BUCKET; i++) {
+			int slot = 3 * ((home + i) & this.mask);
+			long check = this.entries.get(slot);
+			long value = this.entries.get(slot + 1);
+			long meta = this.entries.get(slot + 2);
+			if ((check ^ value ^ meta) == key && (meta & VALID) != 0) {
+				if ((int) (meta & MASK_16) >= depth) {
+					this.hits.increment();
+					return Double.longBitsToDouble(value);
+				}
+				break;
+			}
+		}
+		this.misses.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Stores the value of a search of the given depth for the key. An entry of
+	 * the current age for the same key and a greater depth is kept instead.
+	 */
+	public void store(long key, int depth, double value) {
+		int home = home(key);
+		int currentAge = this.age;
+		int victim = -1;
+		int victimRank = Integer.MAX_VALUE;
+		for (int i = 0; i < BUCKET; i++) {
+			int slot = 3 * ((home + i) & this.mask);
+			long check = this.entries.get(slot);
+			long oldValue = this.entries.get(slot + 1);
+			long meta = this.entries.get(slot + 2);
+			if ((meta & VALID) == 0) {
+				// the first empty slot, unless the key turns up further on
+				if (victimRank >= 0) {
+					victim = slot;
+					victimRank = -1;
+				}
+				continue;
+			}
+			int oldDepth = (int) (meta & MASK_16);
+			boolean current = (int) ((meta >>> AGE_SHIFT) & MASK_16) == (currentAge & MASK_16);
+			if ((check ^ oldValue ^ meta) == key) {
+				if (current && oldDepth > depth) {
+					return;
+				}
+				victim = slot;
+				break;
+			}
+			// older ages go first, then the shallowest
+			int rank = (current ? MASK_16 + 1 : 0) + oldDepth;
+			if (rank < victimRank) {
+				victim = slot;
+				victimRank = rank;
+			}
+		}
+
+		long bits = Double.doubleToRawLongBits(value);
+		long meta = VALID | (long) (currentAge & MASK_16) << AGE_SHIFT | (depth & MASK_16);
+		this.entries.set(victim + 1, bits);
+		this.entries.set(victim + 2, meta);
+		this.entries.set(victim, key ^ bits ^ meta);
+	}
+
+	/**
+	 * Starts a new age: entries stored from now on are preferred over older
+	 * ones when a bucket is full. Call it between games, for instance, so the
+	 * boards of past games make room for the current one.
+	 */
+	public void nextAge() {
+		this.age++;
+	}
+
+	/**
+	 * Empties the table and resets its counters. Must not race with probe()
+	 * or store().
+	 */
+	public void clear() {
+		for (int i = 0; i < this.entries.length(); i++) {
+			this.entries.set(i, 0L);
+		}
+		this.hits.reset();
+		this.misses.reset();
+	}
+
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of probes that found a value, 0 before any probe.
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long probes = hits + getMisses();
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+
+	// Zobrist hashes are already well mixed, but other keys may not be: fold
+	// the high bits in before taking the low ones.
+	private int home(long key) {
+		return (int) (key ^ (key >>> 32)) & this.mask;
+	}
+
+	public String toString() {
+		return String.format("%d entries, %d hits, %d misses (%.1f%% hits)", getCapacity(), getHits(),
+				getMisses(), 100 * getHitRate());
+	}
+}
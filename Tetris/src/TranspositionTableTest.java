@@ -0,0 +1,151 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TranspositionTableTest {
+
+	@Test
+	public void testStoreProbe() {
+		TranspositionTable table = new TranspositionTable(100);
+		assertEquals(128, table.getCapacity());
+		assertTrue(Double.isNaN(table.probe(42, 0)));
+
+		// the empty board hashes to 0, which must not match an empty slot
+		assertTrue(Double.isNaN(table.probe(0, 0)));
+		table.store(0, 0, 7.5);
+		assertEquals(7.5, table.probe(0, 0), 0);
+
+		table.store(42, 1, 3.0);
+		assertEquals(3.0, table.probe(42, 0), 0);
+		assertEquals(3.0, table.probe(42, 1), 0);
+		assertTrue(Double.isNaN(table.probe(42, 2)));
+
+		// a shallower value does not replace a deeper one of the same age...
+		table.store(42, 0, 5.0);
+		assertEquals(3.0, table.probe(42, 0), 0);
+		// ...but does once it is old
+		table.nextAge();
+		table.store(42, 0, 5.0);
+		assertEquals(5.0, table.probe(42, 0), 0);
+
+		assertEquals(5, table.getHits());
+		assertEquals(3, table.getMisses());
+		table.clear();
+		assertTrue(Double.isNaN(table.probe(42, 0)));
+		assertEquals(0, table.getHits());
+	}
+
+	@Test
+	public void testReplacement() {
+		// a full bucket gives way to new entries, the shallowest first
+		TranspositionTable table = new TranspositionTable(TranspositionTable.BUCKET);
+		for (int i = 0; i < TranspositionTable.BUCKET; i++) {
+			table.store(i, i + 1, i);
+		}
+		table.store(100, 5, 100);
+		assertEquals(100, table.probe(100, 0), 0);
+		assertTrue(Double.isNaN(table.probe(0, 0)));
+		assertEquals(1, table.probe(1, 0), 0);
+
+		// older entries go before deeper ones
+		table.nextAge();
+		table.store(200, 0, 200);
+		assertEquals(200, table.probe(200, 0), 0);
+		assertTrue(Double.isNaN(table.probe(1, 0)));
+		assertEquals(100, table.probe(100, 0), 0);
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		// threads hammer a small table with values derived from their keys:
+		// a probe may miss, but must never return another key's value
+		final TranspositionTable table = new TranspositionTable(64);
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final long seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					for (int n = 0; n < 200000; n++) {
+						long key = random.nextInt(1000) * 0x9E3779B97F4A7C15L;
+						double value = table.probe(key, 0);
+						if (Double.isNaN(value)) {
+							table.store(key, 0, key / 3.0);
+						} else if (value != key / 3.0) {
+							wrong.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, wrong.get());
+		assertTrue(table.getHits() > 0);
+	}
+
+	@Test
+	public void testBrainSameMoves() {
+		// a cache changes the speed of the brains, not their moves
+		TranspositionTable table = new TranspositionTable(1 << 12);
+		DefaultBrain cached = new DefaultBrain();
+		cached.setTranspositionTable(table);
+		LookaheadBrain lookahead = new LookaheadBrain();
+		lookahead.setTranspositionTable(table);
+		Brain[] brains = { new DefaultBrain(), cached, new LookaheadBrain(), lookahead };
+		int[] scores = new int[brains.length];
+		String[] boards = new String[brains.length];
+		for (int i = 0; i < brains.length; i++) {
+			GameEngine engine = new GameEngine(10, 20);
+			engine.setPieceLimit(200);
+			engine.setPreviewLength(1);
+			engine.startGame(new Random(1));
+			while (engine.dropWithBrain(brains[i])) {
+			}
+			scores[i] = engine.getScore();
+			boards[i] = engine.getBoard().toString();
+		}
+		assertEquals(scores[0], scores[1]);
+		assertEquals(boards[0], boards[1]);
+		assertEquals(scores[2], scores[3]);
+		assertEquals(boards[2], boards[3]);
+		assertTrue(table.getHits() > 0);
+	}
+
+	@Test
+	public void testEvaluatorSameMoves() {
+		// LINES_CLEARED rates the rows a play cleared, which the blocks left
+		// do not show: boards with the same blocks must not share a score
+		FeatureEvaluator evaluator = new FeatureEvaluator(FeatureEvaluator.dellacherieWeights());
+		final DefaultBrain plain = new DefaultBrain();
+		final DefaultBrain cached = new DefaultBrain();
+		plain.setEvaluator(evaluator);
+		cached.setEvaluator(evaluator);
+		cached.setTranspositionTable(new TranspositionTable(1 << 12));
+
+		Brain checking = new Brain() {
+			public Brain.Move bestMove(Board board, Piece piece, int limitHeight) {
+				Brain.Move expected = plain.bestMove(board, piece, limitHeight);
+				Brain.Move actual = cached.bestMove(board, piece, limitHeight);
+				assertEquals(expected.x, actual.x);
+				assertEquals(expected.y, actual.y);
+				assertEquals(expected.piece, actual.piece);
+				assertEquals(expected.score, actual.score, 0);
+				return expected;
+			}
+		};
+		GameEngine engine = new GameEngine(10, 20);
+		engine.setPieceLimit(2000);
+		engine.startGame(new Random(5));
+		while (engine.dropWithBrain(checking)) {
+		}
+		assertTrue(engine.getLines() > 100);
+		assertTrue(cached.getTranspositionTable().getHits() > 0);
+	}
+}
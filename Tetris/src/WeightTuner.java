@@ -0,0 +1,367 @@
+// WeightTuner.java
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Tunes the weights of a FeatureEvaluator with the cross-entropy method, by
+ * playing headless games. Each generation draws a population of weight
+ * vectors from a normal distribution, plays the same seeded games with each
+ * of them on a BatchSimulator -- all the games of the generation in one batch,
+ * across all the cores -- and refits the distribution to the elite, the
+ * candidates with the best mean scores. Some extra noise, decreasing over the
+ * generations, keeps the distribution from collapsing too early.
+ *
+ * <p>
+ * Everything random derives from the tuner seed and the generation number,
+ * so a seed gives the same weights whatever the number of threads, and a
+ * tuner loaded from a checkpoint goes on exactly as the saved one would
+ * have. The checkpoint is a properties file, written after each generation
+ * when a file is set.
+ *
+ * <pre>
+ * WeightTuner tuner = new WeightTuner(new BatchSimulator(10, 20, 500), 42);
+ * tuner.setCheckpoint(new File("tuner.properties"));
+ * double[] weights = tuner.run(30);
+ * </pre>
+ */
+public class WeightTuner {
+
+	private final BatchSimulator simulator;
+	private final long seed;
+
+	private int population = 50;
+	private double eliteFraction = 0.2;
+	private int games = 10; // per candidate
+	private double noise = 4; // variance added at generation 0
+	private File checkpoint;
+
+	// The state of the search
+	private int generation;
+	private double[] mean;
+	private double[] deviation;
+	private double[] best;
+	private double bestFitness = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Creates a tuner that plays its games on the given simulator. The search
+	 * starts from weights of 0 with a deviation of 10.
+	 */
+	public WeightTuner(BatchSimulator simulator, long seed) {
+		this.simulator = simulator;
+		this.seed = seed;
+		this.mean = new double[FeatureEvaluator.FEATURE_COUNT];
+		this.deviation = new double[FeatureEvaluator.FEATURE_COUNT];
+		Arrays.fill(this.deviation, 10);
+	}
+
+	/**
+	 * Sets the number of weight vectors tried per generation. 50 by default.
+	 */
+	public void setPopulation(int population) {
+		this.population = population;
+	}
+
+	/**
+	 * Sets the fraction of each generation the distribution is refitted to.
+	 * 0.2 by default.
+	 */
+	public void setEliteFraction(double eliteFraction) {
+		this.eliteFraction = eliteFraction;
+	}
+
+	/**
+	 * Sets the number of games each candidate plays. 10 by default.
+	 */
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	/**
+	 * Sets the variance added to the refitted distribution at the first
+	 * generation; it then decreases by a tenth of that every generation. 4 by
+	 * default.
+	 */
+	public void setNoise(double noise) {
+		this.noise = noise;
+	}
+
+	/**
+	 * Sets the file the state of the search is saved to after each
+	 * generation, or null for none.
+	 */
+	public void setCheckpoint(File checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Sets the distribution the next generation is drawn from.
+	 */
+	public void setDistribution(double[] mean, double[] deviation) {
+		this.mean = mean.clone();
+		this.deviation = deviation.clone();
+	}
+
+	public int getGeneration() {
+		return this.generation;
+	}
+
+	public double[] getMean() {
+		return this.mean.clone();
+	}
+
+	public double[] getDeviation() {
+		return this.deviation.clone();
+	}
+
+	/**
+	 * Returns the weights with the best mean score seen so far, or null
+	 * before the first generation.
+	 */
+	public double[] getBest() {
+		return (this.best == null) ? null : this.best.clone();
+	}
+
+	public double getBestFitness() {
+		return this.bestFitness;
+	}
+
+	/**
+	 * Runs the given number of generations, printing a line about each, and
+	 * returns the best weights.
+	 */
+	public double[] run(int generations) {
+		for (int i = 0; i < generations; i++) {
+			System.out.println(step());
+		}
+		return getBest();
+	}
+
+	/**
+	 * Plays one generation and refits the distribution to its elite.
+	 */
+	public Generation step() {
+		Random random = new Random(mix(this.seed, 2 * this.generation));
+		final double[][] candidates = new double[this.population][];
+		for (int c = 0; c < this.population; c++) {
+			candidates[c] = new double[this.mean.length];
+			for (int i = 0; i < this.mean.length; i++) {
+				candidates[c][i] = this.mean[i] + this.deviation[i] * random.nextGaussian();
+			}
+		}
+
+		// every candidate plays the same games: game i is candidate i / games
+		// on the seed of game i % games
+		long[] gameSeeds = BatchSimulator.seeds(mix(this.seed, 2 * this.generation + 1), this.games);
+		long[] seeds = new long[this.population * this.games];
+		for (int i = 0; i < seeds.length; i++) {
+			seeds[i] = gameSeeds[i % this.games];
+		}
+		final int perCandidate = this.games;
+		BatchSimulator.Result result = this.simulator.runPerGame(new IntFunction<Brain>() {
+			public Brain apply(int game) {
+				return createBrain(candidates[game / perCandidate]);
+			}
+		}, seeds);
+
+		final double[] fitness = new double[this.population];
+		Integer[] order = new Integer[this.population];
+		for (int c = 0; c < this.population; c++) {
+			long sum = 0;
+			for (int g = 0; g < this.games; g++) {
+				sum += result.scores[c * this.games + g];
+			}
+			fitness[c] = (double) sum / this.games;
+			order[c] = c;
+		}
+		// best first, earlier candidates first on equal fitness
+		Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+
+		int elite = Math.max(1, (int) Math.round(this.eliteFraction * this.population));
+		double extra = Math.max(0, this.noise * (1 - this.generation / 10.0));
+		double eliteFitness = 0;
+		for (int i = 0; i < this.mean.length; i++) {
+			double sum = 0;
+			for (int e = 0; e < elite; e++) {
+				sum += candidates[order[e]][i];
+			}
+			double mu = sum / elite;
+			double variance = 0;
+			for (int e = 0; e < elite; e++) {
+				double d = candidates[order[e]][i] - mu;
+				variance += d * d;
+			}
+			this.mean[i] = mu;
+			this.deviation[i] = Math.sqrt(variance / elite + extra);
+		}
+		for (int e = 0; e < elite; e++) {
+			eliteFitness += fitness[order[e]] / elite;
+		}
+
+		Generation report = new Generation();
+		report.number = this.generation;
+		report.bestFitness = fitness[order[0]];
+		report.eliteFitness = eliteFitness;
+		report.bestWeights = candidates[order[0]].clone();
+		report.result = result;
+		report.threads = this.simulator.getThreads();
+		if (report.bestFitness > this.bestFitness) {
+			this.bestFitness = report.bestFitness;
+			this.best = report.bestWeights.clone();
+		}
+
+		this.generation++;
+		if (this.checkpoint != null) {
+			try {
+				save(this.checkpoint);
+			} catch (IOException e) {
+				throw new RuntimeException("could not write checkpoint " + this.checkpoint, e);
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Returns the brain a candidate plays with: a DefaultBrain rating boards
+	 * with a FeatureEvaluator of the candidate weights. Override to tune
+	 * another brain.
+	 */
+	protected Brain createBrain(double[] weights) {
+		DefaultBrain brain = new DefaultBrain();
+		brain.setEvaluator(new FeatureEvaluator(weights));
+		return brain;
+	}
+
+	/**
+	 * Writes the state of the search to the file, replacing it in one step so
+	 * an interrupted write never leaves half a checkpoint.
+	 */
+	public void save(File file) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("seed", Long.toString(this.seed));
+		props.setProperty("generation", Integer.toString(this.generation));
+		props.setProperty("mean", join(this.mean));
+		props.setProperty("deviation", join(this.deviation));
+		if (this.best != null) {
+			props.setProperty("best", join(this.best));
+			props.setProperty("bestFitness", Double.toString(this.bestFitness));
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			props.store(out, "WeightTuner checkpoint");
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Creates a tuner from a checkpoint written by save(), playing on the
+	 * given simulator. The other settings -- population, games... -- are not
+	 * saved and must be set again for the search to go on the same way.
+	 */
+	public static WeightTuner load(File file, BatchSimulator simulator) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		WeightTuner tuner = new WeightTuner(simulator, Long.parseLong(props.getProperty("seed")));
+		tuner.generation = Integer.parseInt(props.getProperty("generation"));
+		tuner.mean = split(props.getProperty("mean"));
+		tuner.deviation = split(props.getProperty("deviation"));
+		if (props.getProperty("best") != null) {
+			tuner.best = split(props.getProperty("best"));
+			tuner.bestFitness = Double.parseDouble(props.getProperty("bestFitness"));
+		}
+		return tuner;
+	}
+
+	private static String join(double[] values) {
+		StringBuilder buff = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			buff.append(i == 0 ? "" : ",").append(values[i]);
+		}
+		return buff.toString();
+	}
+
+	private static double[] split(String values) {
+		String[] parts = values.split(",");
+		double[] result = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			result[i] = Double.parseDouble(parts[i]);
+		}
+		return result;
+	}
+
+	// splitmix64 of the seed and a counter, so nearby generations get
+	// unrelated random streams
+	private static long mix(long seed, long n) {
+		long z = seed + (n + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * What one generation did: its best and elite mean scores, its best
+	 * weights, and the batch of games it played.
+	 */
+	public static class Generation {
+		public int number;
+		public double bestFitness;
+		public double eliteFitness;
+		public double[] bestWeights;
+		public BatchSimulator.Result result;
+		public int threads;
+
+		public String toString() {
+			return String.format("generation %d: best %.1f, elite %.1f, %.1f games/s (%.1f per core)%n  %s",
+					number, bestFitness, eliteFitness, result.getGamesPerSecond(),
+					result.getGamesPerSecond() / threads, new FeatureEvaluator(bestWeights));
+		}
+	}
+
+	/**
+	 * Tunes the evaluator weights on 10x20 boards and prints the best ones.
+	 * Arguments: [generations] [population] [games] [pieceLimit] [seed]
+	 * [checkpoint], resuming from the checkpoint file when it exists.
+	 */
+	public static void main(String[] args) throws IOException {
+		int generations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int population = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int pieceLimit = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+		File checkpoint = args.length > 5 ? new File(args[5]) : null;
+
+		BatchSimulator sim = new BatchSimulator(JTetris.WIDTH, JTetris.HEIGHT, pieceLimit);
+		WeightTuner tuner;
+		if (checkpoint != null && checkpoint.exists()) {
+			tuner = load(checkpoint, sim);
+			System.out.println("resuming at generation " + tuner.getGeneration());
+		} else {
+			tuner = new WeightTuner(sim, seed);
+		}
+		tuner.setPopulation(population);
+		tuner.setGames(games);
+		tuner.setCheckpoint(checkpoint);
+
+		double[] best = tuner.run(generations - tuner.getGeneration());
+		System.out.println("best: " + tuner.getBestFitness() + " with " + (best == null ? "-" : join(best)));
+	}
+}
@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class WeightTunerTest {
+
+	private static WeightTuner small(int threads, long seed) {
+		WeightTuner tuner = new WeightTuner(new BatchSimulator(8, 16, 40, threads), seed);
+		tuner.setPopulation(6);
+		tuner.setGames(2);
+		return tuner;
+	}
+
+	@Test
+	public void testReproducible() {
+		// the same seed tunes the same weights, whatever the threads
+		WeightTuner one = small(1, 5);
+		WeightTuner four = small(4, 5);
+		for (int g = 0; g < 3; g++) {
+			WeightTuner.Generation a = one.step();
+			WeightTuner.Generation b = four.step();
+			assertArrayEquals(a.result.scores, b.result.scores);
+			assertArrayEquals(a.bestWeights, b.bestWeights, 0);
+		}
+		assertArrayEquals(one.getMean(), four.getMean(), 0);
+		assertArrayEquals(one.getDeviation(), four.getDeviation(), 0);
+		assertEquals(one.getBestFitness(), four.getBestFitness(), 0);
+		assertEquals(3, one.getGeneration());
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		File file = File.createTempFile("tuner", ".properties");
+		try {
+			WeightTuner straight = small(2, 9);
+			straight.step();
+			straight.step();
+			straight.step();
+
+			WeightTuner first = small(2, 9);
+			first.setCheckpoint(file);
+			first.step();
+			first.step();
+
+			// a tuner loaded from the checkpoint goes on like the first one
+			WeightTuner resumed = WeightTuner.load(file, new BatchSimulator(8, 16, 40, 3));
+			resumed.setPopulation(6);
+			resumed.setGames(2);
+			assertEquals(2, resumed.getGeneration());
+			assertArrayEquals(first.getBest(), resumed.getBest(), 0);
+			resumed.step();
+			assertArrayEquals(straight.getMean(), resumed.getMean(), 0);
+			assertArrayEquals(straight.getDeviation(), resumed.getDeviation(), 0);
+			assertArrayEquals(straight.getBest(), resumed.getBest(), 0);
+			assertEquals(straight.getBestFitness(), resumed.getBestFitness(), 0);
+		} finally {
+			file.delete();
+		}
+	}
+}